@@ -0,0 +1,39 @@
+package com.maciej.wojtaczka.messagebox.domain;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Times of accepted messages, a millisecond precise and strictly increasing within a conversation, so two messages of
+ * a conversation never get the same time and overwrite one another. The last time is remembered for the most recently
+ * active conversations only.
+ */
+class AcceptanceClock {
+
+	private final Map<UUID, Instant> lastTimes;
+
+	AcceptanceClock(int trackedConversations) {
+		this.lastTimes = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<UUID, Instant> eldest) {
+				return size() > trackedConversations;
+			}
+		};
+	}
+
+	/**
+	 * The candidate truncated to milliseconds, or a millisecond after the last time of the conversation when it is not later.
+	 */
+	synchronized Instant next(UUID conversationId, Instant candidate) {
+		Instant time = candidate.truncatedTo(ChronoUnit.MILLIS);
+		Instant lastTime = lastTimes.get(conversationId);
+		if (lastTime != null && !time.isAfter(lastTime)) {
+			time = lastTime.plusMillis(1);
+		}
+		lastTimes.put(conversationId, time);
+		return time;
+	}
+}
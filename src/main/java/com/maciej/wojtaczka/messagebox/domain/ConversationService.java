@@ -1,29 +1,73 @@
 package com.maciej.wojtaczka.messagebox.domain;
 
 import com.maciej.wojtaczka.messagebox.domain.model.Conversation;
+import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import com.maciej.wojtaczka.messagebox.domain.model.ListingVersion;
 import com.maciej.wojtaczka.messagebox.domain.model.Message;
 import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
+import com.maciej.wojtaczka.messagebox.domain.model.Page;
+import com.maciej.wojtaczka.messagebox.domain.model.PageRequest;
+import com.maciej.wojtaczka.messagebox.domain.model.UnreadConversationsCount;
 import com.maciej.wojtaczka.messagebox.domain.model.UserConnection;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.util.Comparator;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 @Slf4j
 public class ConversationService {
 
 	private final ConversationStorage conversationStorage;
 	private final PostMan postMan;
+	private final DeliveryMode deliveryMode;
+	private final AcceptanceClock acceptanceClock;
 
-	public ConversationService(ConversationStorage conversationStorage, PostMan postMan) {
+	public ConversationService(ConversationStorage conversationStorage, PostMan postMan, DeliveryMode deliveryMode) {
+		this(conversationStorage, postMan, deliveryMode, 100_000);
+	}
+
+	public ConversationService(ConversationStorage conversationStorage, PostMan postMan, DeliveryMode deliveryMode,
+							   int trackedConversations) {
 		this.conversationStorage = conversationStorage;
 		this.postMan = postMan;
+		this.deliveryMode = deliveryMode;
+		this.acceptanceClock = new AcceptanceClock(trackedConversations);
 	}
 
+	/**
+	 * How an accepted message gets delivered and persisted.
+	 */
+	public enum DeliveryMode {
+		/**
+		 * Delivered first, persisted once the delivery succeeded.
+		 */
+		SEQUENTIAL,
+		/**
+		 * Delivered and persisted concurrently, a failure of either fails the acceptance so the message is redelivered
+		 * and both steps are repeated, recipients may then get the message twice.
+		 */
+		PARALLEL,
+		/**
+		 * Persisted together with an outbox entry, delivered in the background by the {@link OutboxPublisher}.
+		 */
+		OUTBOX
+	}
+
+	/**
+	 * The conversation id is derived from the users and the conversation is written at its start time, so creating it again
+	 * for the same connection changes nothing and needs no check whether it exists.
+	 */
 	public Mono<Void> createFaceToFaceConversation(UserConnection connection) {
 		log.info("Creating face to face conversations for connection: {}", connection);
 		Conversation newConversation = Conversation.createFaceToFace(connection);
@@ -40,6 +84,30 @@ public class ConversationService {
 				});
 	}
 
+	/**
+	 * Creates the conversations of the connections with one write, a connection repeated in the batch or already
+	 * having its conversation creates nothing new.
+	 */
+	public Mono<Void> createFaceToFaceConversations(List<UserConnection> connections) {
+		Map<UUID, Conversation> newConversations = new LinkedHashMap<>();
+		for (UserConnection connection : connections) {
+			Conversation conversation = Conversation.createFaceToFace(connection);
+			newConversations.putIfAbsent(conversation.getConversationId(), conversation);
+		}
+		log.info("Creating {} face to face conversations for {} connections", newConversations.size(), connections.size());
+
+		return conversationStorage.insertConversations(newConversations.values());
+	}
+
+	/**
+	 * The conversation id is derived from the users, so it is found with a single read. Conversations created before
+	 * the ids were derived are moved under the derived id by the FaceToFaceConversationBackfill.
+	 */
+	public Mono<Conversation> getFaceToFaceConversation(UUID user1, UUID user2) {
+		return conversationStorage.getConversation(Conversation.faceToFaceId(user1, user2))
+								  .filter(conversation -> conversation.isFaceToFaceOf(user1, user2));
+	}
+
 	public Mono<Conversation> createGroupConversation(List<UUID> interlocutorsIndices) {
 		Conversation newConversation = Conversation.createGroup(new HashSet<>(interlocutorsIndices));
 
@@ -47,13 +115,95 @@ public class ConversationService {
 								  .then(Mono.just(newConversation));
 	}
 
+	/**
+	 * Time for a message of the conversation accepted at the candidate time, assigned once and kept with the message
+	 * (see {@link #acceptMessage(Message)}), so accepting the message again stores it at the same time.
+	 */
+	public Instant nextAcceptedTime(UUID conversationId, Instant candidate) {
+		return acceptanceClock.next(conversationId, candidate);
+	}
+
+	/**
+	 * A message coming with its time keeps it, it is the time assigned by {@link #nextAcceptedTime(UUID, Instant)},
+	 * a message without time is accepted now.
+	 */
 	public Mono<Void> acceptMessage(Message message) {
 		return conversationStorage.getConversation(message.getConversationId())
-								  .filter(conversation -> conversation.doesMsgBelong(message))
-								  .map(conversation -> conversation.accept(message))
-								  .flatMap(envelope -> postMan.deliver(envelope)
-															  .then(conversationStorage.storeNewMessage(envelope))
-								  );
+								  .map(conversation -> Map.of(conversation.getConversationId(), conversation))
+								  .flatMap(conversations -> deliverAndStore(accept(List.of(message), conversations), conversations));
+	}
+
+	/**
+	 * Accepts a batch of messages with one read of their conversations, one delivery and one write.
+	 */
+	public Mono<Void> acceptMessages(List<Message> messages) {
+		Set<UUID> conversationIds = messages.stream()
+											.filter(Objects::nonNull)
+											.map(Message::getConversationId)
+											.filter(Objects::nonNull)
+											.collect(Collectors.toSet());
+
+		return conversationStorage.getConversations(conversationIds)
+								  .collectMap(Conversation::getConversationId)
+								  .flatMap(conversations -> deliverAndStore(accept(messages, conversations), conversations));
+	}
+
+	/**
+	 * Stores the messages already accepted and delivered, after their acceptance failed with {@link NotStoredException}.
+	 */
+	public Mono<Void> storeAcceptedMessages(List<Message> messages) {
+		Set<UUID> conversationIds = messages.stream()
+											.map(Message::getConversationId)
+											.collect(Collectors.toSet());
+
+		return conversationStorage.getConversations(conversationIds)
+								  .collectMap(Conversation::getConversationId)
+								  .flatMap(conversations -> {
+									  List<Envelope<Message>> envelopes = accept(messages, conversations);
+									  return envelopes.isEmpty() ? Mono.empty() : conversationStorage.storeNewMessages(envelopes, conversations);
+								  });
+	}
+
+	/**
+	 * A failure of storing messages which were delivered is a {@link NotStoredException}, any other failure means
+	 * the messages may not have been delivered. The conversations the messages were accepted in are handed to the storage,
+	 * it does not read them again.
+	 */
+	private Mono<Void> deliverAndStore(List<Envelope<Message>> envelopes, Map<UUID, Conversation> conversations) {
+		if (envelopes.isEmpty()) {
+			return Mono.empty();
+		}
+		Mono<Void> storage = conversationStorage.storeNewMessages(envelopes, conversations)
+												.onErrorMap(NotStoredException::new);
+		switch (deliveryMode) {
+			case PARALLEL:
+				return Mono.whenDelayError(postMan.deliver(envelopes), storage);
+			case OUTBOX:
+				return conversationStorage.storeNewMessagesToDeliver(envelopes, conversations);
+			default:
+				return postMan.deliver(envelopes)
+							  .then(storage);
+		}
+	}
+
+	/**
+	 * Messages of one conversation accepted within the same millisecond would get the same time and overwrite one another,
+	 * so each of them gets its time from the {@link AcceptanceClock}, whether it comes alone or in a batch, unless it already has one.
+	 */
+	private List<Envelope<Message>> accept(List<Message> messages, Map<UUID, Conversation> conversations) {
+		List<Envelope<Message>> envelopes = new ArrayList<>();
+		for (Message message : messages) {
+			if (message == null) {
+				continue;
+			}
+			Conversation conversation = conversations.get(message.getConversationId());
+			if (conversation == null || !conversation.doesMsgBelong(message)) {
+				continue;
+			}
+			Instant time = message.getTime() != null ? message.getTime() : acceptanceClock.next(conversation.getConversationId(), Instant.now());
+			envelopes.add(conversation.accept(message, time));
+		}
+		return envelopes;
 	}
 
 	public Mono<Void> updateMessageStatus(MessageStatusUpdated newStatus) {
@@ -65,17 +215,77 @@ public class ConversationService {
 								  .then(conversationStorage.updateMessageSeen(newStatus));
 	}
 
-	public Flux<Conversation> getUserConversations(UUID userId) { //TODO introduce pagination
-		return conversationStorage.getUserConversations(userId)
-								  .sort(Comparator.comparing(Conversation::getLastActivity).reversed());
+	/**
+	 * Statuses are validated with one read of their conversations and coalesced (see {@link MessageStatusUpdated#coalesce(Collection)}),
+	 * each remaining status is published and persisted, the statuses of one user in one conversation one after another.
+	 */
+	public Mono<Void> updateMessageStatuses(List<MessageStatusUpdated> statuses) {
+		Set<UUID> conversationIds = statuses.stream()
+											.filter(Objects::nonNull)
+											.map(MessageStatusUpdated::getConversationId)
+											.filter(Objects::nonNull)
+											.collect(Collectors.toSet());
+
+		return conversationStorage.getConversations(conversationIds)
+								  .collectMap(Conversation::getConversationId)
+								  .flatMapMany(conversations -> {
+									  List<MessageStatusUpdated> valid =
+											  statuses.stream()
+													  .filter(Objects::nonNull)
+													  .filter(status -> conversations.containsKey(status.getConversationId()))
+													  .filter(status -> conversations.get(status.getConversationId()).isValid(status))
+													  .collect(Collectors.toList());
+									  Map<List<UUID>, List<MessageStatusUpdated>> coalescedByUser =
+											  MessageStatusUpdated.coalesce(valid)
+																  .stream()
+																  .collect(Collectors.groupingBy(status -> List.of(status.getConversationId(),
+																												   status.getUpdatedBy()),
+																								 LinkedHashMap::new,
+																								 Collectors.toList()));
+									  return Flux.fromIterable(coalescedByUser.values())
+												 .flatMap(userStatuses -> Flux.fromIterable(userStatuses)
+																			  .concatMap(status -> postMan.notifyAboutMsgStatusUpdated(
+																					  conversations.get(status.getConversationId()).accept(status))
+																					  .then(conversationStorage.updateMessageSeen(status))));
+								  })
+								  .then();
+	}
+
+	public Mono<Page<Conversation>> getUserConversations(UUID userId, PageRequest pageRequest) {
+		return conversationStorage.getUserConversations(userId, pageRequest);
+	}
+
+	/**
+	 * All the conversations of the user, latest activity first, read as they are consumed.
+	 */
+	public Flux<Conversation> streamUserConversations(UUID userId) {
+		return conversationStorage.getUserConversations(userId);
 	}
 
-	public Flux<Message> getConversationMessages(UUID conversationId) { //TODO introduce pagination
+	/**
+	 * All the messages of the conversation, latest first, read as they are consumed.
+	 */
+	public Flux<Message> streamConversationMessages(UUID conversationId) {
 		return conversationStorage.getMessages(conversationId);
 	}
 
+	public Mono<Page<Message>> getConversationMessages(UUID conversationId, PageRequest pageRequest) {
+		return conversationStorage.getMessages(conversationId, pageRequest);
+	}
+
+	public Mono<ListingVersion> getUserConversationsVersion(UUID userId) {
+		return conversationStorage.getUserConversationsVersion(userId);
+	}
+
+	public Mono<ListingVersion> getConversationMessagesVersion(UUID conversationId) {
+		return conversationStorage.getMessagesVersion(conversationId);
+	}
+
 	public Mono<Long> getUnreadConversationsCount(UUID userId) {
-		return conversationStorage.getUnreadConversationsIndices(userId)
-								  .count();
+		return conversationStorage.getUnreadConversationsCount(userId);
+	}
+
+	public Flux<UnreadConversationsCount> getUnreadConversationsCounts(Flux<UUID> userIds) {
+		return conversationStorage.getUnreadConversationsCounts(userIds);
 	}
 }
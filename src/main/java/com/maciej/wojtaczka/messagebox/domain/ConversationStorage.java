@@ -2,26 +2,100 @@ package com.maciej.wojtaczka.messagebox.domain;
 
 import com.maciej.wojtaczka.messagebox.domain.model.Conversation;
 import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import com.maciej.wojtaczka.messagebox.domain.model.ListingVersion;
 import com.maciej.wojtaczka.messagebox.domain.model.Message;
 import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
+import com.maciej.wojtaczka.messagebox.domain.model.Page;
+import com.maciej.wojtaczka.messagebox.domain.model.PageRequest;
+import com.maciej.wojtaczka.messagebox.domain.model.UnreadConversationsCount;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 public interface ConversationStorage {
 
     Mono<Void> storeNewMessage(Envelope<Message> envelope);
 
+	/**
+	 * Stores the messages of any number of conversations with one write, the messages of a conversation go in the order of their time.
+	 * The conversations are read first, see {@link #storeNewMessages(List, Map)}.
+	 */
+	default Mono<Void> storeNewMessages(List<Envelope<Message>> envelopes) {
+		return conversationsOf(envelopes).flatMap(conversations -> storeNewMessages(envelopes, conversations));
+	}
+
+	/**
+	 * Stores the messages accepted in the given conversations, as they were loaded before accepting the messages,
+	 * so storing them does not read the conversations again.
+	 */
+	Mono<Void> storeNewMessages(List<Envelope<Message>> envelopes, Map<UUID, Conversation> conversations);
+
+	/**
+	 * Stores the messages like {@link #storeNewMessages(List)} and, within the same write, puts them into the {@link MessageOutbox}.
+	 */
+	default Mono<Void> storeNewMessagesToDeliver(List<Envelope<Message>> envelopes) {
+		return conversationsOf(envelopes).flatMap(conversations -> storeNewMessagesToDeliver(envelopes, conversations));
+	}
+
+	/**
+	 * Stores the messages like {@link #storeNewMessages(List, Map)} and, within the same write, puts them into the {@link MessageOutbox}.
+	 */
+	Mono<Void> storeNewMessagesToDeliver(List<Envelope<Message>> envelopes, Map<UUID, Conversation> conversations);
+
 	Flux<Conversation> getUserConversations(UUID userId);
 
+	Mono<Page<Conversation>> getUserConversations(UUID userId, PageRequest pageRequest);
+
 	Mono<Void> insertConversation(Conversation conversation);
 
+	/**
+	 * Inserts the conversations with one write, inserting a conversation which already exists changes nothing.
+	 */
+	Mono<Void> insertConversations(Collection<Conversation> conversations);
+
     Mono<Conversation> getConversation(UUID conversationId);
 
+	/**
+	 * Conversations in the order of the given ids, the ones that do not exist are skipped.
+	 */
+	Flux<Conversation> getConversations(Collection<UUID> conversationIds);
+
 	Flux<Message> getMessages(UUID conversationId);
 
+	Mono<Page<Message>> getMessages(UUID conversationId, PageRequest pageRequest);
+
 	Mono<Void> updateMessageSeen(MessageStatusUpdated messageStatus);
 
 	Flux<UUID> getUnreadConversationsIndices(UUID userId);
+
+	Mono<Long> getUnreadConversationsCount(UUID userId);
+
+	/**
+	 * Counts in the order of the given users, the users are requested only as fast as their counts are consumed.
+	 */
+	Flux<UnreadConversationsCount> getUnreadConversationsCounts(Flux<UUID> userIds);
+
+	/**
+	 * Changes whenever a conversation of the user is inserted or gets a message, empty until the first such change.
+	 */
+	Mono<ListingVersion> getUserConversationsVersion(UUID userId);
+
+	/**
+	 * Changes whenever the conversation gets a message or a message status, empty until the first such change.
+	 */
+	Mono<ListingVersion> getMessagesVersion(UUID conversationId);
+
+	private Mono<Map<UUID, Conversation>> conversationsOf(List<Envelope<Message>> envelopes) {
+		Set<UUID> conversationIds = envelopes.stream()
+											 .map(envelope -> envelope.getPayload().getConversationId())
+											 .collect(Collectors.toSet());
+
+		return getConversations(conversationIds).collectMap(Conversation::getConversationId);
+	}
 }
@@ -0,0 +1,17 @@
+package com.maciej.wojtaczka.messagebox.domain;
+
+/**
+ * The cursor of a page request was not handed out for the requested listing, or not handed out at all.
+ */
+public class InvalidCursorException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public InvalidCursorException(String message) {
+		super(message);
+	}
+
+	public InvalidCursorException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
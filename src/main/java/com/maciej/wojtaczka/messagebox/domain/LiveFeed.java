@@ -0,0 +1,110 @@
+package com.maciej.wojtaczka.messagebox.domain;
+
+import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pushes the delivered events to the connected users. Every connection has its own bounded buffer, when a client does not keep up
+ * and its buffer is full the event is dropped, or the connection is closed so the client reconnects and catches up with a read.
+ */
+public class LiveFeed {
+
+	private final Map<UUID, Set<Sinks.Many<Envelope<?>>>> connectionsByUser = new ConcurrentHashMap<>();
+	private final int bufferSize;
+	private final SlowClientPolicy slowClientPolicy;
+	private final AtomicInteger connectionCount = new AtomicInteger();
+	private final LongAdder droppedEventCount = new LongAdder();
+	private final LongAdder slowClientDisconnectCount = new LongAdder();
+
+	public LiveFeed(int bufferSize, SlowClientPolicy slowClientPolicy) {
+		this.bufferSize = bufferSize;
+		this.slowClientPolicy = slowClientPolicy;
+	}
+
+	public enum SlowClientPolicy {
+		/**
+		 * Events not fitting the buffer are dropped, the client keeps the connection.
+		 */
+		DROP,
+		/**
+		 * The connection is closed once its buffer is drained.
+		 */
+		DISCONNECT
+	}
+
+	/**
+	 * Events addressed to the user from the moment of the subscription, a user may have many connections.
+	 */
+	public Flux<Envelope<?>> subscribe(UUID userId) {
+		return Flux.defer(() -> {
+			Sinks.Many<Envelope<?>> connection = Sinks.many().unicast().onBackpressureBuffer(new ArrayBlockingQueue<>(bufferSize));
+			connectionsByUser.compute(userId, (user, connections) -> {
+				Set<Sinks.Many<Envelope<?>>> userConnections = connections == null ? ConcurrentHashMap.newKeySet() : connections;
+				userConnections.add(connection);
+				return userConnections;
+			});
+			connectionCount.incrementAndGet();
+
+			return connection.asFlux()
+							 .doFinally(signal -> disconnect(userId, connection));
+		});
+	}
+
+	public void publish(Envelope<?> event) {
+		for (UUID recipient : event.getRecipients()) {
+			Set<Sinks.Many<Envelope<?>>> connections = connectionsByUser.get(recipient);
+			if (connections == null) {
+				continue;
+			}
+			for (Sinks.Many<Envelope<?>> connection : connections) {
+				push(connection, Envelope.wrap(event.getPayload(), Set.of(recipient)));
+			}
+		}
+	}
+
+	private void push(Sinks.Many<Envelope<?>> connection, Envelope<?> event) {
+		synchronized (connection) {
+			Sinks.EmitResult result = connection.tryEmitNext(event);
+			if (result != Sinks.EmitResult.FAIL_OVERFLOW) {
+				return;
+			}
+			droppedEventCount.increment();
+			if (slowClientPolicy == SlowClientPolicy.DISCONNECT && connection.tryEmitComplete().isSuccess()) {
+				slowClientDisconnectCount.increment();
+			}
+		}
+	}
+
+	private void disconnect(UUID userId, Sinks.Many<Envelope<?>> connection) {
+		connectionsByUser.computeIfPresent(userId, (user, connections) -> {
+			connections.remove(connection);
+			return connections.isEmpty() ? null : connections;
+		});
+		connectionCount.decrementAndGet();
+	}
+
+	int getConnectionCount() {
+		return connectionCount.get();
+	}
+
+	int getConnectedUserCount() {
+		return connectionsByUser.size();
+	}
+
+	long getDroppedEventCount() {
+		return droppedEventCount.sum();
+	}
+
+	long getSlowClientDisconnectCount() {
+		return slowClientDisconnectCount.sum();
+	}
+}
@@ -0,0 +1,20 @@
+package com.maciej.wojtaczka.messagebox.domain;
+
+import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Messages stored with {@link ConversationStorage#storeNewMessagesToDeliver(List)} that have not been delivered yet.
+ */
+public interface MessageOutbox {
+
+	/**
+	 * Hands the pending messages over to the delivery in batches and moves past a batch once it is delivered, a batch whose delivery
+	 * fails is handed over again by the next drain. The messages of one conversation are handed over in the order they were stored.
+	 */
+	Mono<Void> drain(int batchSize, Function<List<Envelope<Message>>, Mono<Void>> delivery);
+}
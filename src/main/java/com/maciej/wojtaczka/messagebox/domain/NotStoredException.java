@@ -0,0 +1,13 @@
+package com.maciej.wojtaczka.messagebox.domain;
+
+/**
+ * The messages were delivered to their recipients but storing them failed, only the storing is left to be repeated.
+ */
+public class NotStoredException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public NotStoredException(Throwable cause) {
+		super("Messages delivered but not stored: " + cause.getMessage(), cause);
+	}
+}
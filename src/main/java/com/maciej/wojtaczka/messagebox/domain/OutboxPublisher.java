@@ -0,0 +1,42 @@
+package com.maciej.wojtaczka.messagebox.domain;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Drains the outbox in the background: delivers the pending messages and moves past them once delivered.
+ * A message may be delivered more than once when moving past it fails or when the outbox changes hands during a drain.
+ */
+@Slf4j
+public class OutboxPublisher {
+
+	private final MessageOutbox outbox;
+	private final PostMan postMan;
+	private final Duration pollInterval;
+	private final int batchSize;
+
+	public OutboxPublisher(MessageOutbox outbox, PostMan postMan, Duration pollInterval, int batchSize) {
+		this.outbox = outbox;
+		this.postMan = postMan;
+		this.pollInterval = pollInterval;
+		this.batchSize = batchSize;
+	}
+
+	public void start() {
+		Flux.interval(pollInterval)
+			.onBackpressureDrop()
+			.concatMap(tick -> publishPending()
+					.onErrorResume(throwable -> {
+						log.error("Outbox publishing failed: {}", throwable.getMessage());
+						return Mono.empty();
+					}))
+			.subscribe();
+	}
+
+	public Mono<Void> publishPending() {
+		return outbox.drain(batchSize, postMan::deliver);
+	}
+}
@@ -5,9 +5,13 @@ import com.maciej.wojtaczka.messagebox.domain.model.Message;
 import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 public interface PostMan {
 
     Mono<Void> deliver(Envelope<Message> message);
 
+	Mono<Void> deliver(List<Envelope<Message>> messages);
+
 	Mono<Void> notifyAboutMsgStatusUpdated(Envelope<MessageStatusUpdated> messageSeen);
 }
@@ -0,0 +1,23 @@
+package com.maciej.wojtaczka.messagebox.domain;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Unread conversations counts kept in memory by the instances of the service are dropped when any of the instances changes them.
+ */
+public interface UnreadCountInvalidations {
+
+	/**
+	 * Tells all the instances, this one included, that the counts of the users may have changed.
+	 */
+	Mono<Void> publish(Collection<UUID> userIds);
+
+	/**
+	 * Users whose counts have been published as changed since the subscription.
+	 */
+	Flux<UUID> invalidated();
+}
@@ -3,7 +3,10 @@ package com.maciej.wojtaczka.messagebox.domain.model;
 import lombok.Builder;
 import lombok.Data;
 
+import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -13,6 +16,8 @@ import java.util.stream.Collectors;
 @Builder
 public class Conversation {
 
+	private static final Duration MAX_CLOCK_SKEW = Duration.ofSeconds(30);
+
 	private final UUID conversationId;
 	private Set<UUID> interlocutors;
 	private Instant lastActivity;
@@ -21,15 +26,44 @@ public class Conversation {
 		return interlocutors.contains(message.getAuthorId());
 	}
 
+	/**
+	 * Face to face conversation is identified by the pair of its users, the same connection always creates the same conversation.
+	 * It starts at the connection date, so creating it again does not move the conversation in the users' lists.
+	 */
 	public static Conversation createFaceToFace(UserConnection connection) {
+		Instant startedAt = connection.getConnectionDate() == null ? Instant.now() : connection.getConnectionDate();
 
 		return Conversation.builder()
-						   .conversationId(UUID.randomUUID())
-						   .lastActivity(Instant.now())
+						   .conversationId(faceToFaceId(connection.getUser1(), connection.getUser2()))
+						   .lastActivity(startedAt.truncatedTo(ChronoUnit.MILLIS))
 						   .interlocutors(Set.of(connection.getUser1(), connection.getUser2()))
 						   .build();
 	}
 
+	/**
+	 * Name based id derived from the ordered pair of the users, it never collides with the random ids of group conversations.
+	 */
+	public static UUID faceToFaceId(UUID user1, UUID user2) {
+		boolean ordered = user1.compareTo(user2) <= 0;
+		UUID first = ordered ? user1 : user2;
+		UUID second = ordered ? user2 : user1;
+		byte[] pair = ByteBuffer.allocate(4 * Long.BYTES)
+								.putLong(first.getMostSignificantBits())
+								.putLong(first.getLeastSignificantBits())
+								.putLong(second.getMostSignificantBits())
+								.putLong(second.getLeastSignificantBits())
+								.array();
+		return UUID.nameUUIDFromBytes(pair);
+	}
+
+	public boolean isFaceToFaceOf(UUID user1, UUID user2) {
+		return conversationId.equals(faceToFaceId(user1, user2)) && isBetween(user1, user2);
+	}
+
+	public boolean isBetween(UUID user1, UUID user2) {
+		return interlocutors.equals(Set.of(user1, user2));
+	}
+
 	public static Conversation createGroup(Set<UUID> interlocutorsIndices) {
 		return Conversation.builder()
 						   .conversationId(UUID.randomUUID())
@@ -40,10 +74,17 @@ public class Conversation {
 	}
 
 	public Envelope<Message> accept(Message message) {
+		return accept(message, Instant.now());
+	}
+
+	/**
+	 * The message accepted at the given time, seen by its author.
+	 */
+	public Envelope<Message> accept(Message message, Instant time) {
 		if (!doesMsgBelong(message)) {
 			throw new RuntimeException("Message cannot be applied to the conversation");
 		}
-		Message withTime = message.withTime(Instant.now())
+		Message withTime = message.withTime(time)
 								  .withStatusByInterlocutor(Map.of(message.getAuthorId(), MessageStatusUpdated.Status.SEEN));
 		Set<UUID> recipients = getRecipients(message.getAuthorId());
 		return Envelope.wrap(withTime, recipients);
@@ -62,8 +103,14 @@ public class Conversation {
 		return Envelope.wrap(messageStatus, getRecipients(messageStatus.getUpdatedBy()));
 	}
 
+	/**
+	 * A status refers to a message accepted already, a status of a message from the future (beyond the clock skew between instances)
+	 * would mark the messages not written yet.
+	 */
 	public boolean isValid(MessageStatusUpdated messageStatus) {
-		return interlocutors.contains(messageStatus.getUpdatedBy()) && interlocutors.contains(messageStatus.getAuthorId());
+		return interlocutors.contains(messageStatus.getUpdatedBy())
+				&& interlocutors.contains(messageStatus.getAuthorId())
+				&& (messageStatus.getTime() == null || !messageStatus.getTime().isAfter(Instant.now().plus(MAX_CLOCK_SKEW)));
 	}
 
 	public Set<UUID> getInterlocutors() {
@@ -0,0 +1,21 @@
+package com.maciej.wojtaczka.messagebox.domain.model;
+
+import lombok.Value;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Version of a listing (conversations of a user, messages of a conversation), a new one is written with every change of the listing.
+ */
+@Value(staticConstructor = "of")
+public class ListingVersion {
+
+	UUID version;
+	Instant lastModified;
+
+	public Optional<Instant> getLastModified() {
+		return Optional.ofNullable(lastModified);
+	}
+}
@@ -4,6 +4,14 @@ import lombok.Builder;
 import lombok.Value;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 @Value
@@ -21,4 +29,37 @@ public class MessageStatusUpdated {
 		DELIVERED, SEEN
 	}
 
+	/**
+	 * Collapses the statuses of each user in each conversation into the ones that still matter: a status covers all the messages
+	 * up to its time and seen implies delivered, so only the latest seen is kept and the latest delivered only when it is later
+	 * than that seen. When both are kept the delivered goes first. The statuses of one user in one conversation are next to each other.
+	 * A status without a time is older than any status with one.
+	 */
+	public static List<MessageStatusUpdated> coalesce(Collection<MessageStatusUpdated> statuses) {
+		Set<List<UUID>> keys = new LinkedHashSet<>();
+		Map<List<UUID>, MessageStatusUpdated> latestSeen = new HashMap<>();
+		Map<List<UUID>, MessageStatusUpdated> latestDelivered = new HashMap<>();
+		Comparator<MessageStatusUpdated> byTime = Comparator.comparing(MessageStatusUpdated::getTime, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+		for (MessageStatusUpdated status : statuses) {
+			List<UUID> key = List.of(status.getConversationId(), status.getUpdatedBy());
+			Map<List<UUID>, MessageStatusUpdated> latest = status.getStatus() == Status.SEEN ? latestSeen : latestDelivered;
+			latest.merge(key, status, (current, next) -> byTime.compare(next, current) > 0 ? next : current);
+			keys.add(key);
+		}
+
+		List<MessageStatusUpdated> coalesced = new ArrayList<>();
+		for (List<UUID> key : keys) {
+			MessageStatusUpdated seen = latestSeen.get(key);
+			MessageStatusUpdated delivered = latestDelivered.get(key);
+			if (delivered != null && (seen == null || byTime.compare(delivered, seen) > 0)) {
+				coalesced.add(delivered);
+			}
+			if (seen != null) {
+				coalesced.add(seen);
+			}
+		}
+		return coalesced;
+	}
+
 }
@@ -0,0 +1,21 @@
+package com.maciej.wojtaczka.messagebox.domain.model;
+
+import lombok.Value;
+
+import java.util.List;
+import java.util.Optional;
+
+@Value
+public class Page<T> {
+
+	List<T> content;
+	String nextCursor;
+
+	public static <T> Page<T> of(List<T> content, String nextCursor) {
+		return new Page<>(List.copyOf(content), nextCursor);
+	}
+
+	public Optional<String> getNextCursor() {
+		return Optional.ofNullable(nextCursor);
+	}
+}
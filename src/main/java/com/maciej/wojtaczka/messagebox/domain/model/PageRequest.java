@@ -0,0 +1,20 @@
+package com.maciej.wojtaczka.messagebox.domain.model;
+
+import lombok.Value;
+
+import java.util.Optional;
+
+@Value(staticConstructor = "of")
+public class PageRequest {
+
+	int limit;
+	String cursor;
+
+	public static PageRequest first(int limit) {
+		return of(limit, null);
+	}
+
+	public Optional<String> getCursor() {
+		return Optional.ofNullable(cursor);
+	}
+}
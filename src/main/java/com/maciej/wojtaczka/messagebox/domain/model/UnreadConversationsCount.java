@@ -0,0 +1,12 @@
+package com.maciej.wojtaczka.messagebox.domain.model;
+
+import lombok.Value;
+
+import java.util.UUID;
+
+@Value
+public class UnreadConversationsCount {
+
+	UUID userId;
+	long count;
+}
@@ -1,13 +1,19 @@
 package com.maciej.wojtaczka.messagebox.http;
 
 import com.maciej.wojtaczka.messagebox.domain.ConversationService;
+import com.maciej.wojtaczka.messagebox.domain.LiveFeed;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.RouterFunctions;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import java.time.Duration;
+
 import static com.maciej.wojtaczka.messagebox.http.GetConversationsRequestHandler.CONVERSATIONS_URL;
+import static com.maciej.wojtaczka.messagebox.http.GetEventsRequestHandler.EVENTS_URL;
+import static com.maciej.wojtaczka.messagebox.http.GetFaceToFaceConversationRequestHandler.FACE_TO_FACE_CONVERSATION_URL;
 import static com.maciej.wojtaczka.messagebox.http.GetMessagesRequestHandler.MESSAGES_URL;
 import static com.maciej.wojtaczka.messagebox.http.GetUnreadConversationsCountRequestHandler.UNREAD_CONVERSATIONS_COUNT_URL;
 import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
@@ -23,11 +29,25 @@ public class ControllerConfiguration {
 		var getMessagesRequestHandler = new GetMessagesRequestHandler(conversationService);
 		var getUnreadConversationsCountRequestHandler = new GetUnreadConversationsCountRequestHandler(conversationService);
 		var createConversationsRequestHandler = new CreateConversationsRequestHandler(conversationService);
+		var getFaceToFaceConversationRequestHandler = new GetFaceToFaceConversationRequestHandler(conversationService);
+		var countUnreadConversationsRequestHandler = new CountUnreadConversationsRequestHandler(conversationService);
 
 		return RouterFunctions
 				.route(GET(CONVERSATIONS_URL), getConversationsRequestHandler)
 				.andRoute(GET(MESSAGES_URL), getMessagesRequestHandler)
 				.andRoute(GET(UNREAD_CONVERSATIONS_COUNT_URL), getUnreadConversationsCountRequestHandler)
-				.andRoute(POST(CreateConversationsRequestHandler.CONVERSATIONS_URL), createConversationsRequestHandler);
+				.andRoute(GET(FACE_TO_FACE_CONVERSATION_URL), getFaceToFaceConversationRequestHandler)
+				.andRoute(POST(CreateConversationsRequestHandler.CONVERSATIONS_URL), createConversationsRequestHandler)
+				.andRoute(POST(CountUnreadConversationsRequestHandler.UNREAD_CONVERSATIONS_COUNTS_URL), countUnreadConversationsRequestHandler);
+	}
+
+	@Bean
+	RouterFunction<ServerResponse> eventRoutes(LiveFeed liveFeed,
+											   @Value("${message-box.live.heartbeat-interval:PT15S}") Duration heartbeatInterval) {
+
+		var getEventsRequestHandler = new GetEventsRequestHandler(liveFeed, heartbeatInterval);
+
+		return RouterFunctions
+				.route(GET(EVENTS_URL), getEventsRequestHandler);
 	}
 }
@@ -0,0 +1,39 @@
+package com.maciej.wojtaczka.messagebox.http;
+
+import com.maciej.wojtaczka.messagebox.domain.ConversationService;
+import com.maciej.wojtaczka.messagebox.domain.model.UnreadConversationsCount;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+/**
+ * Unread conversations counts of many users in one call. The user ids come as a JSON array or newline delimited JSON
+ * and are read as the counts are written, so neither side is ever held in memory as a whole. The counts are always streamed,
+ * as newline delimited JSON unless the client asks for server sent events, a JSON array would be collected before being written.
+ */
+public class CountUnreadConversationsRequestHandler implements HandlerFunction<ServerResponse> {
+
+	static final String UNREAD_CONVERSATIONS_COUNTS_URL = "/v1/conversations/unread-count";
+
+	private final ConversationService conversationService;
+
+	public CountUnreadConversationsRequestHandler(ConversationService conversationService) {
+		this.conversationService = conversationService;
+	}
+
+	@Override
+	public Mono<ServerResponse> handle(ServerRequest request) {
+
+		Flux<UnreadConversationsCount> counts = conversationService.getUnreadConversationsCounts(request.bodyToFlux(UUID.class));
+
+		return Streaming.toStreamingMediaTypeOrNdjson(request)
+						.map(mediaType -> Streaming.toResponse(mediaType, counts, UnreadConversationsCount.class))
+						.orElseGet(() -> ServerResponse.status(HttpStatus.NOT_ACCEPTABLE)
+													   .build());
+	}
+}
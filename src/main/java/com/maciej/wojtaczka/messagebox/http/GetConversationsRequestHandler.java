@@ -1,11 +1,13 @@
 package com.maciej.wojtaczka.messagebox.http;
 
 import com.maciej.wojtaczka.messagebox.domain.ConversationService;
+import com.maciej.wojtaczka.messagebox.domain.InvalidCursorException;
 import com.maciej.wojtaczka.messagebox.domain.model.Conversation;
+import com.maciej.wojtaczka.messagebox.domain.model.PageRequest;
+import org.springframework.http.MediaType;
 import org.springframework.web.reactive.function.server.HandlerFunction;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.Optional;
@@ -27,16 +29,24 @@ public class GetConversationsRequestHandler implements HandlerFunction<ServerRes
 
 		Optional<UUID> userId = request.queryParam("userId")
 									   .flatMap(this::toUUID);
+		Optional<MediaType> streamingMediaType = Streaming.toStreamingMediaType(request);
+		if (userId.isPresent() && streamingMediaType.isPresent()) {
+			return Streaming.toResponse(streamingMediaType.get(), conversationService.streamUserConversations(userId.get()), Conversation.class);
+		}
+
+		Optional<PageRequest> pageRequest = Paging.toPageRequest(request);
 
-		if (userId.isEmpty()) {
+		if (userId.isEmpty() || pageRequest.isEmpty()) {
 			return ServerResponse.badRequest()
 								 .build();
 		}
 
-		Flux<Conversation> userConversations = conversationService.getUserConversations(userId.get());
-
-		return ServerResponse.ok()
-							 .body(userConversations, Conversation.class);
+		return Versioning.toResponse(request,
+									 pageRequest.get(),
+									 conversationService.getUserConversationsVersion(userId.get()),
+									 () -> conversationService.getUserConversations(userId.get(), pageRequest.get()))
+						 .onErrorResume(InvalidCursorException.class, invalidCursor -> ServerResponse.badRequest()
+																						 .build());
 	}
 
 	private Optional<UUID> toUUID(String s) {
@@ -0,0 +1,84 @@
+package com.maciej.wojtaczka.messagebox.http;
+
+import com.maciej.wojtaczka.messagebox.domain.LiveFeed;
+import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Server sent events with the new messages ({@code message}) and status updates ({@code message-status}) addressed to the user,
+ * from the moment of the connection. A comment is sent in between to keep idle connections open.
+ */
+public class GetEventsRequestHandler implements HandlerFunction<ServerResponse> {
+
+	static final String EVENTS_URL = "/v1/events";
+	static final String MESSAGE_EVENT = "message";
+	static final String MESSAGE_STATUS_EVENT = "message-status";
+
+	private final LiveFeed liveFeed;
+	private final Duration heartbeatInterval;
+
+	public GetEventsRequestHandler(LiveFeed liveFeed, Duration heartbeatInterval) {
+		this.liveFeed = liveFeed;
+		this.heartbeatInterval = heartbeatInterval;
+	}
+
+
+	@Override
+	public Mono<ServerResponse> handle(ServerRequest request) {
+
+		Optional<UUID> userId = request.queryParam("userId")
+									   .flatMap(this::toUUID);
+
+		if (userId.isEmpty()) {
+			return ServerResponse.badRequest()
+								 .build();
+		}
+
+		Flux<ServerSentEvent<Object>> heartbeats = Flux.interval(heartbeatInterval)
+													   .map(tick -> ServerSentEvent.builder().comment("heartbeat").build());
+		//the stream ends together with the events, when the feed closes the connection of a slow client
+		Flux<ServerSentEvent<Object>> events = liveFeed.subscribe(userId.get())
+													   .map(this::toServerSentEvent)
+													   .publish(feed -> Flux.merge(feed, heartbeats.takeUntilOther(feed.ignoreElements())));
+
+		return ServerResponse.ok()
+							 .contentType(MediaType.TEXT_EVENT_STREAM)
+							 .body(events, new ParameterizedTypeReference<ServerSentEvent<Object>>() {});
+	}
+
+	private ServerSentEvent<Object> toServerSentEvent(Envelope<?> event) {
+		Object payload = event.getPayload();
+		String name;
+		if (payload instanceof Message) {
+			name = MESSAGE_EVENT;
+		} else if (payload instanceof MessageStatusUpdated) {
+			name = MESSAGE_STATUS_EVENT;
+		} else {
+			name = payload.getClass().getSimpleName();
+		}
+		return ServerSentEvent.builder(payload)
+							  .event(name)
+							  .build();
+	}
+
+	private Optional<UUID> toUUID(String s) {
+		try {
+			return Optional.of(UUID.fromString(s));
+		} catch (IllegalArgumentException e) {
+			return Optional.empty();
+		}
+	}
+}
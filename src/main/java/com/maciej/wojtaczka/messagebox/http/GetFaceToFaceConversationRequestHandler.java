@@ -0,0 +1,50 @@
+package com.maciej.wojtaczka.messagebox.http;
+
+import com.maciej.wojtaczka.messagebox.domain.ConversationService;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.util.Optional;
+import java.util.UUID;
+
+public class GetFaceToFaceConversationRequestHandler implements HandlerFunction<ServerResponse> {
+
+	static final String FACE_TO_FACE_CONVERSATION_URL = "/v1/conversations/face-to-face";
+
+	private final ConversationService conversationService;
+
+	public GetFaceToFaceConversationRequestHandler(ConversationService conversationService) {
+		this.conversationService = conversationService;
+	}
+
+
+	@Override
+	public Mono<ServerResponse> handle(ServerRequest request) {
+
+		Optional<UUID> user1 = request.queryParam("user1")
+									  .flatMap(this::toUUID);
+		Optional<UUID> user2 = request.queryParam("user2")
+									  .flatMap(this::toUUID);
+
+		if (user1.isEmpty() || user2.isEmpty() || user1.equals(user2)) {
+			return ServerResponse.badRequest()
+								 .build();
+		}
+
+		return conversationService.getFaceToFaceConversation(user1.get(), user2.get())
+								  .flatMap(conversation -> ServerResponse.ok()
+																		 .bodyValue(conversation))
+								  .switchIfEmpty(ServerResponse.notFound()
+															   .build());
+	}
+
+	private Optional<UUID> toUUID(String s) {
+		try {
+			return Optional.of(UUID.fromString(s));
+		} catch (IllegalArgumentException e) {
+			return Optional.empty();
+		}
+	}
+}
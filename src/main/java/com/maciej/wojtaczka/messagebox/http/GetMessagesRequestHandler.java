@@ -1,12 +1,13 @@
 package com.maciej.wojtaczka.messagebox.http;
 
 import com.maciej.wojtaczka.messagebox.domain.ConversationService;
-import com.maciej.wojtaczka.messagebox.domain.model.Conversation;
+import com.maciej.wojtaczka.messagebox.domain.InvalidCursorException;
 import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import com.maciej.wojtaczka.messagebox.domain.model.PageRequest;
+import org.springframework.http.MediaType;
 import org.springframework.web.reactive.function.server.HandlerFunction;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.Optional;
@@ -29,15 +30,23 @@ public class GetMessagesRequestHandler implements HandlerFunction<ServerResponse
 		String conversationId = request.pathVariable("conversation_id");
 
 		Optional<UUID> convUuid = toUUID(conversationId);
-		if (convUuid.isEmpty()) {
+		Optional<MediaType> streamingMediaType = Streaming.toStreamingMediaType(request);
+		if (convUuid.isPresent() && streamingMediaType.isPresent()) {
+			return Streaming.toResponse(streamingMediaType.get(), conversationService.streamConversationMessages(convUuid.get()), Message.class);
+		}
+
+		Optional<PageRequest> pageRequest = Paging.toPageRequest(request);
+		if (convUuid.isEmpty() || pageRequest.isEmpty()) {
 			return ServerResponse.badRequest()
 								 .build();
 		}
 
-		Flux<Message> userConversations = conversationService.getConversationMessages(convUuid.get());
-
-		return ServerResponse.ok()
-							 .body(userConversations, Conversation.class);
+		return Versioning.toResponse(request,
+									 pageRequest.get(),
+									 conversationService.getConversationMessagesVersion(convUuid.get()),
+									 () -> conversationService.getConversationMessages(convUuid.get(), pageRequest.get()))
+						 .onErrorResume(InvalidCursorException.class, invalidCursor -> ServerResponse.badRequest()
+																						 .build());
 	}
 
 	private Optional<UUID> toUUID(String s) {
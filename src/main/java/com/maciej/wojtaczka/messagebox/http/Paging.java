@@ -0,0 +1,59 @@
+package com.maciej.wojtaczka.messagebox.http;
+
+import com.maciej.wojtaczka.messagebox.domain.model.Page;
+import com.maciej.wojtaczka.messagebox.domain.model.PageRequest;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+class Paging {
+
+	static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+	static final int DEFAULT_PAGE_SIZE = 50;
+	static final int MAX_PAGE_SIZE = 500;
+
+	private static final Pattern CURSOR = Pattern.compile("[A-Za-z0-9_-]+");
+
+	private Paging() {
+	}
+
+	/**
+	 * The cursor ends up in the ETag of the page (see {@link Versioning}), so only a cursor of the characters a cursor is made of is taken,
+	 * whether it was handed out for the listing is left to the storage.
+	 */
+	static Optional<PageRequest> toPageRequest(ServerRequest request) {
+		Optional<Integer> limit = request.queryParam("limit")
+										 .map(Paging::toLimit)
+										 .orElse(Optional.of(DEFAULT_PAGE_SIZE));
+		Optional<String> cursor = request.queryParam("cursor");
+		if (cursor.isPresent() && !CURSOR.matcher(cursor.get()).matches()) {
+			return Optional.empty();
+		}
+
+		return limit.map(pageSize -> PageRequest.of(pageSize, cursor.orElse(null)));
+	}
+
+	static Mono<ServerResponse> toResponse(Page<?> page) {
+		return toResponse(ServerResponse.ok(), page);
+	}
+
+	static Mono<ServerResponse> toResponse(ServerResponse.BodyBuilder response, Page<?> page) {
+		page.getNextCursor().ifPresent(cursor -> response.header(NEXT_CURSOR_HEADER, cursor));
+		return response.bodyValue(page.getContent());
+	}
+
+	private static Optional<Integer> toLimit(String s) {
+		try {
+			int limit = Integer.parseInt(s);
+			if (limit < 1 || limit > MAX_PAGE_SIZE) {
+				return Optional.empty();
+			}
+			return Optional.of(limit);
+		} catch (NumberFormatException e) {
+			return Optional.empty();
+		}
+	}
+}
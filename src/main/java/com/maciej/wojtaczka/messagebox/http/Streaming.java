@@ -0,0 +1,59 @@
+package com.maciej.wojtaczka.messagebox.http;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Listings are streamed instead of paged when the client accepts newline delimited JSON or server sent events.
+ * Each element is written as soon as it is read and the rows are read only as fast as the client takes them.
+ * A stream covers the whole listing, the paging parameters do not apply to it.
+ */
+class Streaming {
+
+	private static final List<MediaType> STREAMING_MEDIA_TYPES = List.of(MediaType.APPLICATION_NDJSON, MediaType.TEXT_EVENT_STREAM);
+
+	private Streaming() {
+	}
+
+	/**
+	 * The first of the accepted media types which is a streaming one, a wildcard is not taken as a request for streaming.
+	 */
+	static Optional<MediaType> toStreamingMediaType(ServerRequest request) {
+		List<MediaType> accepted = new ArrayList<>(request.headers().accept());
+		MediaType.sortBySpecificityAndQuality(accepted);
+
+		return accepted.stream()
+					   .filter(mediaType -> !mediaType.isWildcardType() && !mediaType.isWildcardSubtype())
+					   .flatMap(mediaType -> STREAMING_MEDIA_TYPES.stream().filter(mediaType::isCompatibleWith))
+					   .findFirst();
+	}
+
+	/**
+	 * Like {@link #toStreamingMediaType(ServerRequest)}, for the responses which are always streamed: newline delimited JSON
+	 * when the client accepts anything, empty when it accepts no streaming media type at all.
+	 */
+	static Optional<MediaType> toStreamingMediaTypeOrNdjson(ServerRequest request) {
+		Optional<MediaType> streamingMediaType = toStreamingMediaType(request);
+		if (streamingMediaType.isPresent()) {
+			return streamingMediaType;
+		}
+		List<MediaType> accepted = request.headers().accept();
+		if (accepted.isEmpty() || accepted.stream().anyMatch(mediaType -> mediaType.includes(MediaType.APPLICATION_NDJSON))) {
+			return Optional.of(MediaType.APPLICATION_NDJSON);
+		}
+		return Optional.empty();
+	}
+
+	static <T> Mono<ServerResponse> toResponse(MediaType mediaType, Flux<T> elements, Class<T> elementClass) {
+		return ServerResponse.ok()
+							 .contentType(mediaType)
+							 .body(elements, elementClass);
+	}
+}
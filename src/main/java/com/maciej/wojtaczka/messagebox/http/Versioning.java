@@ -0,0 +1,48 @@
+package com.maciej.wojtaczka.messagebox.http;
+
+import com.maciej.wojtaczka.messagebox.domain.model.ListingVersion;
+import com.maciej.wojtaczka.messagebox.domain.model.Page;
+import com.maciej.wojtaczka.messagebox.domain.model.PageRequest;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Conditional GET of a listing page: the ETag is the version of the listing and the requested page, so a client holding
+ * the current page is answered 304 Not Modified after a single read of the version.
+ * Last-Modified is sent along, but only the ETag is checked, a message status changes the listing without moving its last activity.
+ */
+class Versioning {
+
+	private Versioning() {
+	}
+
+	/**
+	 * The version is read before the page, so a change landing in between gives the page a stale ETag and not the other way round.
+	 * A listing without a version is always read.
+	 */
+	static <T> Mono<ServerResponse> toResponse(ServerRequest request, PageRequest pageRequest, Mono<ListingVersion> version,
+											   Supplier<Mono<Page<T>>> page) {
+		return version.map(Optional::of)
+					  .defaultIfEmpty(Optional.empty())
+					  .flatMap(currentVersion -> {
+						  if (currentVersion.isEmpty()) {
+							  return page.get().flatMap(Paging::toResponse);
+						  }
+						  String eTag = toETag(currentVersion.get(), pageRequest);
+						  return request.checkNotModified(eTag)
+										.switchIfEmpty(Mono.defer(() -> page.get().flatMap(content -> {
+											ServerResponse.BodyBuilder response = ServerResponse.ok().eTag(eTag);
+											currentVersion.get().getLastModified().ifPresent(response::lastModified);
+											return Paging.toResponse(response, content);
+										})));
+					  });
+	}
+
+	static String toETag(ListingVersion version, PageRequest pageRequest) {
+		return "\"" + version.getVersion() + "-" + pageRequest.getLimit() + pageRequest.getCursor().map(cursor -> "-" + cursor).orElse("") + "\"";
+	}
+}
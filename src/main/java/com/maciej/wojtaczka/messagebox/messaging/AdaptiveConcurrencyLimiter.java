@@ -0,0 +1,129 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.core.reactive.ReactiveKafkaConsumerTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.function.Supplier;
+
+/**
+ * Limits the processing in flight with a limit adjusted from the outcome of the processing (AIMD): a success while at least
+ * half of the permits are in use raises the limit by one, a failure or a latency above the threshold multiplies it
+ * by the backoff ratio. Processing over the limit waits for a permit.
+ * <p>
+ * The limiter is saturated while there is processing waiting for a permit, the partitions of a consumer can be paused
+ * for that time with {@link #pauseWhenSaturated(ReactiveKafkaConsumerTemplate)}.
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final long latencyThresholdNanos;
+	private final double backoffRatio;
+	private final Queue<MonoSink<Void>> waiting = new ArrayDeque<>();
+	private final Sinks.Many<Boolean> saturation = Sinks.many().multicast().directBestEffort();
+	private double limit;
+	private int inFlight;
+	private boolean saturated;
+
+	public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Duration latencyThreshold, double backoffRatio) {
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyThresholdNanos = latencyThreshold.toNanos();
+		this.backoffRatio = backoffRatio;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	}
+
+	public <T> Mono<T> run(Supplier<Mono<T>> processing) {
+		return acquire().then(Mono.defer(() -> {
+			long start = System.nanoTime();
+			return processing.get()
+							 .doFinally(signal -> release(System.nanoTime() - start, signal));
+		}));
+	}
+
+	void pauseWhenSaturated(ReactiveKafkaConsumerTemplate<?, ?> consumerTemplate) {
+		saturation.asFlux()
+				  .concatMap(paused -> consumerTemplate.doOnConsumer(consumer -> {
+					  if (paused) {
+						  consumer.pause(consumer.assignment());
+					  } else {
+						  consumer.resume(consumer.paused());
+					  }
+					  return paused;
+				  }).onErrorResume(throwable -> {
+					  log.warn("Could not {} partitions: {}", paused ? "pause" : "resume", throwable.getMessage());
+					  return Mono.empty();
+				  }))
+				  .subscribe();
+	}
+
+	Flux<Boolean> saturation() {
+		return saturation.asFlux();
+	}
+
+	synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	private Mono<Void> acquire() {
+		return Mono.create(sink -> {
+			boolean acquired;
+			synchronized (this) {
+				acquired = inFlight < (int) limit;
+				if (acquired) {
+					inFlight++;
+				} else {
+					waiting.add(sink);
+					sink.onCancel(() -> cancel(sink));
+					if (!saturated) {
+						saturated = true;
+						saturation.tryEmitNext(true);
+					}
+				}
+			}
+			if (acquired) {
+				sink.success();
+			}
+		});
+	}
+
+	private synchronized void cancel(MonoSink<Void> sink) {
+		waiting.remove(sink);
+	}
+
+	private void release(long latencyNanos, SignalType signal) {
+		List<MonoSink<Void>> granted = new ArrayList<>();
+		synchronized (this) {
+			if (signal == SignalType.ON_ERROR || latencyNanos > latencyThresholdNanos) {
+				limit = Math.max(minLimit, limit * backoffRatio);
+			} else if (signal == SignalType.ON_COMPLETE && inFlight * 2 >= limit) {
+				limit = Math.min(maxLimit, limit + 1);
+			}
+			inFlight--;
+			while (inFlight < (int) limit && !waiting.isEmpty()) {
+				inFlight++;
+				granted.add(waiting.poll());
+			}
+			if (saturated && waiting.isEmpty()) {
+				saturated = false;
+				saturation.tryEmitNext(false);
+			}
+		}
+		granted.forEach(MonoSink::success);
+	}
+}
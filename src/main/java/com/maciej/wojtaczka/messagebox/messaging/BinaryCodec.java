@@ -0,0 +1,237 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
+import com.maciej.wojtaczka.messagebox.domain.model.UserConnection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hand-written binary encoding of the events: UUIDs as two longs, instants as epoch micros, collections prefixed with their size.
+ * Nullable values are prefixed with a presence byte. Fields are only ever appended, the existing layout must not change.
+ */
+public interface BinaryCodec<T> {
+
+	void write(T value, DataOutput output) throws IOException;
+
+	T read(DataInput input) throws IOException;
+
+	default byte[] encode(T value) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		try (DataOutputStream output = new DataOutputStream(bytes)) {
+			write(value, output);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	default T decode(byte[] bytes) {
+		try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			return read(input);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	BinaryCodec<Message> MESSAGE = new BinaryCodec<>() {
+		@Override
+		public void write(Message message, DataOutput output) throws IOException {
+			writeUuid(message.getAuthorId(), output);
+			writeInstant(message.getTime(), output);
+			writeString(message.getContent(), output);
+			writeUuid(message.getConversationId(), output);
+			Map<UUID, MessageStatusUpdated.Status> statuses = message.getStatusByInterlocutor();
+			if (statuses == null) {
+				output.writeInt(-1);
+				return;
+			}
+			output.writeInt(statuses.size());
+			for (Map.Entry<UUID, MessageStatusUpdated.Status> status : statuses.entrySet()) {
+				writeUuid(status.getKey(), output);
+				writeStatus(status.getValue(), output);
+			}
+		}
+
+		@Override
+		public Message read(DataInput input) throws IOException {
+			Message.MessageBuilder message = Message.builder()
+													.authorId(readUuid(input))
+													.time(readInstant(input))
+													.content(readString(input))
+													.conversationId(readUuid(input));
+			int statusCount = input.readInt();
+			if (statusCount >= 0) {
+				Map<UUID, MessageStatusUpdated.Status> statuses = new HashMap<>();
+				for (int i = 0; i < statusCount; i++) {
+					statuses.put(readUuid(input), readStatus(input));
+				}
+				message.statusByInterlocutor(statuses);
+			}
+			return message.build();
+		}
+	};
+
+	BinaryCodec<MessageStatusUpdated> MESSAGE_STATUS = new BinaryCodec<>() {
+		@Override
+		public void write(MessageStatusUpdated status, DataOutput output) throws IOException {
+			writeUuid(status.getConversationId(), output);
+			writeUuid(status.getAuthorId(), output);
+			writeInstant(status.getTime(), output);
+			writeUuid(status.getUpdatedBy(), output);
+			writeStatus(status.getStatus(), output);
+		}
+
+		@Override
+		public MessageStatusUpdated read(DataInput input) throws IOException {
+			return MessageStatusUpdated.builder()
+									   .conversationId(readUuid(input))
+									   .authorId(readUuid(input))
+									   .time(readInstant(input))
+									   .updatedBy(readUuid(input))
+									   .status(readStatus(input))
+									   .build();
+		}
+	};
+
+	BinaryCodec<UserConnection> USER_CONNECTION = new BinaryCodec<>() {
+		@Override
+		public void write(UserConnection connection, DataOutput output) throws IOException {
+			writeUuid(connection.getUser1(), output);
+			writeUuid(connection.getUser2(), output);
+			writeInstant(connection.getConnectionDate(), output);
+		}
+
+		@Override
+		public UserConnection read(DataInput input) throws IOException {
+			return UserConnection.builder()
+								 .user1(readUuid(input))
+								 .user2(readUuid(input))
+								 .connectionDate(readInstant(input))
+								 .build();
+		}
+	};
+
+	/**
+	 * Recipients are packed as an array of UUIDs after the payload.
+	 */
+	static <T> BinaryCodec<Envelope<T>> envelope(BinaryCodec<T> payloadCodec) {
+		return new BinaryCodec<>() {
+			@Override
+			public void write(Envelope<T> envelope, DataOutput output) throws IOException {
+				payloadCodec.write(envelope.getPayload(), output);
+				List<UUID> recipients = envelope.getRecipients();
+				output.writeInt(recipients.size());
+				for (UUID recipient : recipients) {
+					output.writeLong(recipient.getMostSignificantBits());
+					output.writeLong(recipient.getLeastSignificantBits());
+				}
+			}
+
+			@Override
+			public Envelope<T> read(DataInput input) throws IOException {
+				T payload = payloadCodec.read(input);
+				int recipientsCount = input.readInt();
+				List<UUID> recipients = new ArrayList<>(recipientsCount);
+				for (int i = 0; i < recipientsCount; i++) {
+					recipients.add(new UUID(input.readLong(), input.readLong()));
+				}
+				return Envelope.wrap(payload, recipients);
+			}
+		};
+	}
+
+	private static void writeUuid(UUID uuid, DataOutput output) throws IOException {
+		output.writeBoolean(uuid != null);
+		if (uuid != null) {
+			output.writeLong(uuid.getMostSignificantBits());
+			output.writeLong(uuid.getLeastSignificantBits());
+		}
+	}
+
+	private static UUID readUuid(DataInput input) throws IOException {
+		return input.readBoolean() ? new UUID(input.readLong(), input.readLong()) : null;
+	}
+
+	private static void writeInstant(Instant instant, DataOutput output) throws IOException {
+		output.writeBoolean(instant != null);
+		if (instant != null) {
+			output.writeLong(TimeUnit.SECONDS.toMicros(instant.getEpochSecond()) + TimeUnit.NANOSECONDS.toMicros(instant.getNano()));
+		}
+	}
+
+	private static Instant readInstant(DataInput input) throws IOException {
+		if (!input.readBoolean()) {
+			return null;
+		}
+		long micros = input.readLong();
+		return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1_000L);
+	}
+
+	private static void writeString(String string, DataOutput output) throws IOException {
+		if (string == null) {
+			output.writeInt(-1);
+			return;
+		}
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(DataInput input) throws IOException {
+		int length = input.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeStatus(MessageStatusUpdated.Status status, DataOutput output) throws IOException {
+		if (status == null) {
+			output.writeByte(0);
+			return;
+		}
+		switch (status) {
+			case DELIVERED:
+				output.writeByte(1);
+				break;
+			case SEEN:
+				output.writeByte(2);
+				break;
+			default:
+				throw new IllegalArgumentException("Status without a code: " + status);
+		}
+	}
+
+	private static MessageStatusUpdated.Status readStatus(DataInput input) throws IOException {
+		byte code = input.readByte();
+		switch (code) {
+			case 0:
+				return null;
+			case 1:
+				return MessageStatusUpdated.Status.DELIVERED;
+			case 2:
+				return MessageStatusUpdated.Status.SEEN;
+			default:
+				throw new IllegalArgumentException("Unknown status code: " + code);
+		}
+	}
+}
@@ -3,23 +3,62 @@ package com.maciej.wojtaczka.messagebox.messaging;
 import com.maciej.wojtaczka.messagebox.domain.ConversationService;
 import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
 import com.maciej.wojtaczka.messagebox.domain.model.UserConnection;
+import org.apache.kafka.common.serialization.Deserializer;
 import org.springframework.kafka.core.reactive.ReactiveKafkaConsumerTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
 
 public class ConnectionListener {
 
-	private final ReactiveKafkaConsumerTemplate<String, Envelope<UserConnection>> kafkaConnectionListener;
+	private final ReactiveKafkaConsumerTemplate<String, byte[]> kafkaConnectionListener;
+	private final Deserializer<Envelope<UserConnection>> deserializer;
 	private final ConversationService conversationService;
+	private final FailedRecordPublisher failedRecords;
+	private final int batchSize;
+	private final Duration batchTimeout;
 
-	public ConnectionListener(ReactiveKafkaConsumerTemplate<String, Envelope<UserConnection>> kafkaConnectionListener,
-							  ConversationService messageService) {
+	ConnectionListener(ReactiveKafkaConsumerTemplate<String, byte[]> kafkaConnectionListener,
+					   Deserializer<Envelope<UserConnection>> deserializer,
+					   ConversationService messageService,
+					   FailedRecordPublisher failedRecords,
+					   int batchSize,
+					   Duration batchTimeout) {
 		this.kafkaConnectionListener = kafkaConnectionListener;
+		this.deserializer = deserializer;
 		this.conversationService = messageService;
+		this.failedRecords = failedRecords;
+		this.batchSize = batchSize;
+		this.batchTimeout = batchTimeout;
 	}
 
 	void listen() {
-		kafkaConnectionListener.receive()
-							   .map(stringEnvelopeReceiverRecord -> stringEnvelopeReceiverRecord.value().getPayload())
-							   .flatMap(conversationService::createFaceToFaceConversation)
-							   .subscribe();
+		Flux<ReceivedRecord<Envelope<UserConnection>>> records = kafkaConnectionListener
+				.receive()
+				.map(record -> ReceivedRecord.decode(record, deserializer));
+
+		if (batchSize <= 1) {
+			records.flatMap(record -> RecordAcknowledgement.acknowledgeWhenProcessed(record, this::createConversation, failedRecords))
+				   .subscribe();
+			return;
+		}
+
+		//bulk imports of connections are written in batches
+		records.bufferTimeout(batchSize, batchTimeout)
+			   .flatMap(batch -> RecordAcknowledgement.acknowledgeWhenProcessed(
+					   batch,
+					   envelopes -> conversationService.createFaceToFaceConversations(ReceivedRecord.values(envelopes)
+																									 .stream()
+																									 .map(Envelope::getPayload)
+																									 .collect(Collectors.toList())),
+					   this::createConversation,
+					   failedRecords))
+			   .subscribe();
+	}
+
+	private Mono<Void> createConversation(ReceivedRecord<Envelope<UserConnection>> record) {
+		return conversationService.createFaceToFaceConversation(record.value().getPayload());
 	}
 }
@@ -0,0 +1,55 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.kafka.receiver.KafkaReceiver;
+import reactor.kafka.receiver.ReceiverOptions;
+import reactor.kafka.sender.KafkaSender;
+import reactor.kafka.sender.SenderRecord;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Puts the records of the dead letter topic back to their source topic, as they were, with their headers but without the failure metadata,
+ * so they go through the whole processing including the retries again. A replayed record is committed on the dead letter topic,
+ * it is not replayed twice.
+ */
+@Slf4j
+public class DeadLetterReplay {
+
+	private final ReceiverOptions<byte[], byte[]> receiverOptions;
+	private final KafkaSender<byte[], byte[]> sender;
+	private final Duration idleTimeout;
+
+	DeadLetterReplay(ReceiverOptions<byte[], byte[]> receiverOptions, KafkaSender<byte[], byte[]> sender, Duration idleTimeout) {
+		this.receiverOptions = receiverOptions;
+		this.sender = sender;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Replays at most the given number of records, stops earlier when no record comes within the idle timeout.
+	 *
+	 * @return number of replayed records
+	 */
+	public Mono<Long> replay(String sourceTopic, long maxRecords) {
+		String deadLetterTopic = FailedRecordPublisher.deadLetterTopic(sourceTopic);
+
+		return KafkaReceiver.create(receiverOptions.subscription(Set.of(deadLetterTopic)))
+							.receive()
+							.timeout(idleTimeout, Flux.empty())
+							.take(maxRecords)
+							.concatMap(record -> sender.send(Mono.just(SenderRecord.create(replayed(sourceTopic, record), null)))
+													   .then(record.receiverOffset().commit()))
+							.count()
+							.doOnSuccess(replayed -> log.info("Replayed {} records of {}", replayed, deadLetterTopic));
+	}
+
+	private static ProducerRecord<byte[], byte[]> replayed(String sourceTopic, ConsumerRecord<byte[], byte[]> record) {
+		return new ProducerRecord<>(sourceTopic, null, record.key(), record.value(), FailedRecordPublisher.withoutFailureHeaders(record.headers()));
+	}
+}
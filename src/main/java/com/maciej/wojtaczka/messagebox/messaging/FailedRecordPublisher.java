@@ -0,0 +1,147 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.kafka.core.reactive.ReactiveKafkaProducerTemplate;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Moves a record that failed its processing to the next retry topic of its source topic, each retry topic delays the record longer,
+ * and after the last one to the dead letter topic. The record keeps its key, its payload bytes as they were consumed and
+ * its headers (the content type among them), the added headers carry the origin of the record, the attempt and the failure.
+ * <p>
+ * Retry topics are named {@code <source topic>-retry-<attempt>} and the dead letter topic {@code <source topic>-dlt}.
+ */
+class FailedRecordPublisher {
+
+	static final String ORIGINAL_TOPIC_HEADER = "original-topic";
+	static final String ORIGINAL_PARTITION_HEADER = "original-partition";
+	static final String ORIGINAL_OFFSET_HEADER = "original-offset";
+	static final String ATTEMPT_HEADER = "retry-attempt";
+	static final String NOT_BEFORE_HEADER = "retry-not-before";
+	static final String EXCEPTION_CLASS_HEADER = "exception-class";
+	static final String EXCEPTION_MESSAGE_HEADER = "exception-message";
+
+	private static final Set<String> OWN_HEADERS = Set.of(ORIGINAL_TOPIC_HEADER, ORIGINAL_PARTITION_HEADER, ORIGINAL_OFFSET_HEADER,
+														  ATTEMPT_HEADER, NOT_BEFORE_HEADER, EXCEPTION_CLASS_HEADER,
+														  EXCEPTION_MESSAGE_HEADER);
+
+	private final ReactiveKafkaProducerTemplate<String, byte[]> producerTemplate;
+	private final List<Duration> retryDelays;
+
+	FailedRecordPublisher(ReactiveKafkaProducerTemplate<String, byte[]> producerTemplate, List<Duration> retryDelays) {
+		this.producerTemplate = producerTemplate;
+		this.retryDelays = List.copyOf(retryDelays);
+	}
+
+	static String retryTopic(String sourceTopic, int attempt) {
+		return sourceTopic + "-retry-" + attempt;
+	}
+
+	static String deadLetterTopic(String sourceTopic) {
+		return sourceTopic + "-dlt";
+	}
+
+	List<String> retryTopics(String sourceTopic) {
+		return IntStream.rangeClosed(1, retryDelays.size())
+						.mapToObj(attempt -> retryTopic(sourceTopic, attempt))
+						.collect(Collectors.toList());
+	}
+
+	/**
+	 * How long the record has to wait before it is processed again, zero for records which are not retries.
+	 */
+	static Duration delayOf(ConsumerRecord<?, ?> record) {
+		return header(record.headers(), NOT_BEFORE_HEADER)
+				.map(notBefore -> Duration.between(Instant.now(), Instant.ofEpochMilli(Long.parseLong(notBefore))))
+				.filter(delay -> !delay.isNegative())
+				.orElse(Duration.ZERO);
+	}
+
+	/**
+	 * Headers of the failed record without the ones this publisher adds, the record replayed from the dead letter topic is
+	 * consumed again as it originally came.
+	 */
+	static Headers withoutFailureHeaders(Headers headers) {
+		Headers original = new RecordHeaders();
+		for (Header header : headers) {
+			if (!OWN_HEADERS.contains(header.key())) {
+				original.add(header);
+			}
+		}
+		return original;
+	}
+
+	Mono<Void> forward(ConsumerRecord<String, byte[]> record, Throwable failure) {
+		return send(failedRecord(record, failure));
+	}
+
+	/**
+	 * Skips the retries, for the records that fail the same way whenever processed, like the ones that cannot be decoded.
+	 */
+	Mono<Void> forwardToDeadLetter(ConsumerRecord<String, byte[]> record, Throwable failure) {
+		return send(failedRecord(record, failure, true));
+	}
+
+	private Mono<Void> send(ProducerRecord<String, byte[]> failedRecord) {
+		return producerTemplate.send(failedRecord)
+							   .flatMap(result -> {
+								   if (result.exception() == null) {
+									   return Mono.empty();
+								   } else {
+									   return Mono.error(result::exception);
+								   }
+							   });
+	}
+
+	ProducerRecord<String, byte[]> failedRecord(ConsumerRecord<String, byte[]> record, Throwable failure) {
+		return failedRecord(record, failure, false);
+	}
+
+	ProducerRecord<String, byte[]> failedRecord(ConsumerRecord<String, byte[]> record, Throwable failure, boolean deadLetter) {
+		Headers received = record.headers();
+		String sourceTopic = header(received, ORIGINAL_TOPIC_HEADER).orElse(record.topic());
+		int attempt = header(received, ATTEMPT_HEADER).map(Integer::parseInt).orElse(0) + 1;
+
+		Headers headers = withoutFailureHeaders(received);
+		put(headers, ORIGINAL_TOPIC_HEADER, sourceTopic);
+		put(headers, ORIGINAL_PARTITION_HEADER, header(received, ORIGINAL_PARTITION_HEADER).orElse(String.valueOf(record.partition())));
+		put(headers, ORIGINAL_OFFSET_HEADER, header(received, ORIGINAL_OFFSET_HEADER).orElse(String.valueOf(record.offset())));
+		put(headers, ATTEMPT_HEADER, String.valueOf(attempt));
+		put(headers, EXCEPTION_CLASS_HEADER, failure.getClass().getName());
+		put(headers, EXCEPTION_MESSAGE_HEADER, String.valueOf(failure.getMessage()));
+
+		String topic;
+		if (!deadLetter && attempt <= retryDelays.size()) {
+			topic = retryTopic(sourceTopic, attempt);
+			Instant notBefore = Instant.now().plus(retryDelays.get(attempt - 1));
+			put(headers, NOT_BEFORE_HEADER, String.valueOf(notBefore.toEpochMilli()));
+		} else {
+			topic = deadLetterTopic(sourceTopic);
+		}
+
+		return new ProducerRecord<>(topic, null, record.key(), record.value(), headers);
+	}
+
+	private static Optional<String> header(Headers headers, String key) {
+		return Optional.ofNullable(headers.lastHeader(key))
+					   .map(Header::value)
+					   .map(value -> new String(value, StandardCharsets.UTF_8));
+	}
+
+	private static void put(Headers headers, String key, String value) {
+		headers.add(key, value.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -4,26 +4,65 @@ import com.maciej.wojtaczka.messagebox.domain.PostMan;
 import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
 import com.maciej.wojtaczka.messagebox.domain.model.Message;
 import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.reactive.ReactiveKafkaProducerTemplate;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.kafka.sender.SenderRecord;
+
+import java.time.Duration;
+import java.util.List;
 
 @Component
 public class KafkaPostMan implements PostMan {
 
 	public static final String MESSAGE_ACCEPTED_TOPIC = "message-accepted";
 	public static final String MESSAGE_STATUS_UPDATED = "message-status-updated";
+	public static final String MESSAGE_ACCEPTED_BY_RECIPIENT_TOPIC = "message-accepted-by-recipient";
+	public static final String MESSAGE_STATUS_UPDATED_BY_RECIPIENT_TOPIC = "message-status-updated-by-recipient";
+	private static final Duration PARTITIONS_REFRESH_INTERVAL = Duration.ofMinutes(1);
 	private final ReactiveKafkaProducerTemplate<String, Envelope<Message>> kafkaMessagesProducerTemplate;
 	private final ReactiveKafkaProducerTemplate<String, Envelope<MessageStatusUpdated>> kafkaMessagesStatusProducerTemplate;
+	private final DeliveryMode deliveryMode;
+	private final RecipientFanOut messageFanOut;
+	private final RecipientFanOut messageStatusFanOut;
+	private final Mono<Integer> messagePartitions;
+	private final Mono<Integer> messageStatusPartitions;
 
 	public KafkaPostMan(ReactiveKafkaProducerTemplate<String, Envelope<Message>> kafkaProducerTemplate,
-						ReactiveKafkaProducerTemplate<String, Envelope<MessageStatusUpdated>> kafkaMessagesStatusProducerTemplate) {
+						ReactiveKafkaProducerTemplate<String, Envelope<MessageStatusUpdated>> kafkaMessagesStatusProducerTemplate,
+						@Value("${message-box.messaging.delivery.mode:BROADCAST}") DeliveryMode deliveryMode,
+						@Value("${message-box.messaging.delivery.group-size-threshold:32}") int groupSizeThreshold) {
 		this.kafkaMessagesProducerTemplate = kafkaProducerTemplate;
 		this.kafkaMessagesStatusProducerTemplate = kafkaMessagesStatusProducerTemplate;
+		this.deliveryMode = deliveryMode;
+		this.messageFanOut = new RecipientFanOut(MESSAGE_ACCEPTED_BY_RECIPIENT_TOPIC, groupSizeThreshold);
+		this.messageStatusFanOut = new RecipientFanOut(MESSAGE_STATUS_UPDATED_BY_RECIPIENT_TOPIC, groupSizeThreshold);
+		this.messagePartitions = partitionsOf(kafkaProducerTemplate, MESSAGE_ACCEPTED_BY_RECIPIENT_TOPIC);
+		this.messageStatusPartitions = partitionsOf(kafkaMessagesStatusProducerTemplate, MESSAGE_STATUS_UPDATED_BY_RECIPIENT_TOPIC);
+	}
+
+	/**
+	 * Where the events go.
+	 */
+	public enum DeliveryMode {
+		/**
+		 * One record per event, every consumer filters the recipients itself.
+		 */
+		BROADCAST,
+		/**
+		 * Records keyed by recipient to the topics partitioned by recipient, see {@link RecipientFanOut}.
+		 */
+		RECIPIENT
 	}
 
 	@Override
 	public Mono<Void> deliver(Envelope<Message> message) {
+		if (deliveryMode == DeliveryMode.RECIPIENT) {
+			return deliver(List.of(message));
+		}
 		return kafkaMessagesProducerTemplate.send(MESSAGE_ACCEPTED_TOPIC, message)
 											.flatMap(result -> {
 												if (result.exception() == null) {
@@ -34,8 +73,27 @@ public class KafkaPostMan implements PostMan {
 											});
 	}
 
+	/**
+	 * Messages are handed to the producer together, so they go to the broker in as few requests as the batching of the producer allows.
+	 */
+	@Override
+	public Mono<Void> deliver(List<Envelope<Message>> messages) {
+		if (deliveryMode == DeliveryMode.RECIPIENT) {
+			return messagePartitions.flatMap(partitions -> send(kafkaMessagesProducerTemplate,
+																Flux.fromIterable(messages)
+																	.flatMapIterable(message -> messageFanOut.split(message, partitions))));
+		}
+		return send(kafkaMessagesProducerTemplate,
+					Flux.fromIterable(messages)
+						.map(message -> new ProducerRecord<>(MESSAGE_ACCEPTED_TOPIC, message)));
+	}
+
 	@Override
 	public Mono<Void> notifyAboutMsgStatusUpdated(Envelope<MessageStatusUpdated> messageSeen) {
+		if (deliveryMode == DeliveryMode.RECIPIENT) {
+			return messageStatusPartitions.flatMap(partitions -> send(kafkaMessagesStatusProducerTemplate,
+																	  Flux.fromIterable(messageStatusFanOut.split(messageSeen, partitions))));
+		}
 		return kafkaMessagesStatusProducerTemplate.send(MESSAGE_STATUS_UPDATED, messageSeen)
 												  .flatMap(result -> {
 													  if (result.exception() == null) {
@@ -45,4 +103,30 @@ public class KafkaPostMan implements PostMan {
 													  }
 												  });
 	}
+
+	private <T> Mono<Void> send(ReactiveKafkaProducerTemplate<String, Envelope<T>> template,
+								Flux<ProducerRecord<String, Envelope<T>>> records) {
+		return template.send(records.map(record -> SenderRecord.<String, Envelope<T>, Void>create(record, null)))
+					   .flatMap(result -> {
+						   if (result.exception() == null) {
+							   return Mono.empty();
+						   } else {
+							   return Mono.error(result::exception);
+						   }
+					   })
+					   .then();
+	}
+
+	/**
+	 * Records of bigger groups are placed on partitions explicitly, the partition count is refreshed every minute
+	 * and a failed lookup is not remembered.
+	 */
+	private static <T> Mono<Integer> partitionsOf(ReactiveKafkaProducerTemplate<String, Envelope<T>> template, String topic) {
+		return template.partitionsFromProducerFor(topic)
+					   .count()
+					   .map(Long::intValue)
+					   .filter(partitions -> partitions > 0)
+					   .switchIfEmpty(Mono.error(() -> new IllegalStateException("No partitions of topic: " + topic)))
+					   .cache(partitions -> PARTITIONS_REFRESH_INTERVAL, error -> Duration.ZERO, () -> Duration.ZERO);
+	}
 }
@@ -0,0 +1,57 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import com.maciej.wojtaczka.messagebox.domain.UnreadCountInvalidations;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.core.reactive.ReactiveKafkaConsumerTemplate;
+import org.springframework.kafka.core.reactive.ReactiveKafkaProducerTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One record per change carrying all the users it affects. Like the {@link LiveFeedListener}, every instance has its own
+ * consumer group and reads the invalidations from the latest offsets, offsets are never committed.
+ */
+@Slf4j
+public class KafkaUnreadCountInvalidations implements UnreadCountInvalidations {
+
+	public static final String UNREAD_COUNT_INVALIDATED_TOPIC = "unread-count-invalidated";
+
+	private final ReactiveKafkaProducerTemplate<String, List<UUID>> kafkaInvalidationsProducer;
+	private final ReactiveKafkaConsumerTemplate<String, List<UUID>> kafkaInvalidationsListener;
+
+	KafkaUnreadCountInvalidations(ReactiveKafkaProducerTemplate<String, List<UUID>> kafkaInvalidationsProducer,
+								  ReactiveKafkaConsumerTemplate<String, List<UUID>> kafkaInvalidationsListener) {
+		this.kafkaInvalidationsProducer = kafkaInvalidationsProducer;
+		this.kafkaInvalidationsListener = kafkaInvalidationsListener;
+	}
+
+	@Override
+	public Mono<Void> publish(Collection<UUID> userIds) {
+		if (userIds.isEmpty()) {
+			return Mono.empty();
+		}
+		return kafkaInvalidationsProducer.send(UNREAD_COUNT_INVALIDATED_TOPIC, List.copyOf(userIds))
+										 .flatMap(result -> {
+											 if (result.exception() == null) {
+												 return Mono.empty();
+											 } else {
+												 return Mono.error(result::exception);
+											 }
+										 });
+	}
+
+	@Override
+	public Flux<UUID> invalidated() {
+		return kafkaInvalidationsListener.receive()
+										 .filter(record -> record.value() != null)
+										 .flatMapIterable(record -> record.value())
+										 .doOnError(throwable -> log.error("Unread count invalidations consumer failed: {}", throwable.getMessage()))
+										 .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofMinutes(1)));
+	}
+}
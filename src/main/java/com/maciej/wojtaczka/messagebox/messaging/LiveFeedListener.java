@@ -0,0 +1,41 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import com.maciej.wojtaczka.messagebox.domain.LiveFeed;
+import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.core.reactive.ReactiveKafkaConsumerTemplate;
+import reactor.core.publisher.Flux;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+
+/**
+ * Feeds the {@link LiveFeed} with the events published by the {@link KafkaPostMan}. Every instance has its own consumer group
+ * and reads all the events from the latest offsets, as the users may be connected to any instance. Offsets are never committed.
+ */
+@Slf4j
+public class LiveFeedListener {
+
+	private final ReactiveKafkaConsumerTemplate<String, Envelope<Message>> kafkaMessageListener;
+	private final ReactiveKafkaConsumerTemplate<String, Envelope<MessageStatusUpdated>> kafkaMessageStatusListener;
+	private final LiveFeed liveFeed;
+
+	LiveFeedListener(ReactiveKafkaConsumerTemplate<String, Envelope<Message>> kafkaMessageListener,
+					 ReactiveKafkaConsumerTemplate<String, Envelope<MessageStatusUpdated>> kafkaMessageStatusListener,
+					 LiveFeed liveFeed) {
+		this.kafkaMessageListener = kafkaMessageListener;
+		this.kafkaMessageStatusListener = kafkaMessageStatusListener;
+		this.liveFeed = liveFeed;
+	}
+
+	void listen() {
+		Flux.merge(kafkaMessageListener.receive(), kafkaMessageStatusListener.receive())
+			.filter(record -> record.value() != null)
+			.doOnNext(record -> liveFeed.publish(record.value()))
+			.doOnError(throwable -> log.error("Live feed consumer failed: {}", throwable.getMessage()))
+			.retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofMinutes(1)))
+			.subscribe();
+	}
+}
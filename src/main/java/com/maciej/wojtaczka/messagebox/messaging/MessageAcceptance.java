@@ -0,0 +1,78 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import com.maciej.wojtaczka.messagebox.domain.ConversationService;
+import com.maciej.wojtaczka.messagebox.domain.NotStoredException;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Accepts the messages of the message-received records. The time of a message is assigned when its record is consumed first,
+ * from the record timestamp, and kept in a header of the record, so the record retried from a retry topic is accepted at the same
+ * time and overwrites what its failed attempt stored instead of storing a copy.
+ * <p>
+ * A record whose message was delivered but not stored is marked so, its retry only stores the message.
+ */
+class MessageAcceptance {
+
+	static final String ACCEPTED_TIME_HEADER = "accepted-time";
+	static final String FAILED_STEP_HEADER = "failed-step";
+	static final String STORE_STEP = "store";
+
+	private final ConversationService conversationService;
+
+	MessageAcceptance(ConversationService conversationService) {
+		this.conversationService = conversationService;
+	}
+
+	Mono<Void> accept(ReceivedRecord<Message> record) {
+		Message message = withAcceptedTime(record);
+		if (STORE_STEP.equals(header(record.raw().headers(), FAILED_STEP_HEADER))) {
+			return conversationService.storeAcceptedMessages(List.of(message));
+		}
+		return conversationService.acceptMessage(message)
+								  .doOnError(NotStoredException.class, e -> markNotStored(record));
+	}
+
+	Mono<Void> accept(List<ReceivedRecord<Message>> records) {
+		List<Message> messages = records.stream()
+										.map(this::withAcceptedTime)
+										.collect(Collectors.toList());
+
+		return conversationService.acceptMessages(messages)
+								  .doOnError(NotStoredException.class, e -> records.forEach(MessageAcceptance::markNotStored));
+	}
+
+	private Message withAcceptedTime(ReceivedRecord<Message> record) {
+		Headers headers = record.raw().headers();
+		String acceptedTime = header(headers, ACCEPTED_TIME_HEADER);
+		if (acceptedTime != null) {
+			return record.value().withTime(Instant.ofEpochMilli(Long.parseLong(acceptedTime)));
+		}
+
+		Instant now = Instant.now();
+		long timestamp = record.raw().timestamp();
+		Instant candidate = timestamp < 0 || timestamp > now.toEpochMilli() ? now : Instant.ofEpochMilli(timestamp);
+		Instant time = conversationService.nextAcceptedTime(record.value().getConversationId(), candidate);
+		headers.add(ACCEPTED_TIME_HEADER, String.valueOf(time.toEpochMilli()).getBytes(StandardCharsets.UTF_8));
+
+		return record.value().withTime(time);
+	}
+
+	private static void markNotStored(ReceivedRecord<Message> record) {
+		Headers headers = record.raw().headers();
+		headers.remove(FAILED_STEP_HEADER);
+		headers.add(FAILED_STEP_HEADER, STORE_STEP.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String header(Headers headers, String key) {
+		Header header = headers.lastHeader(key);
+		return header == null ? null : new String(header.value(), StandardCharsets.UTF_8);
+	}
+}
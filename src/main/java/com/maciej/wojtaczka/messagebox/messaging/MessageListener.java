@@ -1,30 +1,117 @@
 package com.maciej.wojtaczka.messagebox.messaging;
 
-import com.maciej.wojtaczka.messagebox.domain.ConversationService;
 import com.maciej.wojtaczka.messagebox.domain.model.Message;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.Deserializer;
 import org.springframework.kafka.core.reactive.ReactiveKafkaConsumerTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
 
 @Slf4j
 public class MessageListener {
 
-	private final ReactiveKafkaConsumerTemplate<String, Message> kafkaMessageListener;
-	private final ConversationService messageService;
+	private final ReactiveKafkaConsumerTemplate<String, byte[]> kafkaMessageListener;
+	private final Deserializer<Message> deserializer;
+	private final MessageAcceptance messageAcceptance;
+	private final ProcessingOrder processingOrder;
+	private final int concurrency;
+	private final int batchSize;
+	private final Duration batchTimeout;
+	private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+	private final FailedRecordPublisher failedRecords;
 
-	public MessageListener(ReactiveKafkaConsumerTemplate<String, Message> kafkaMessageListener,
-						   ConversationService messageService) {
+	MessageListener(ReactiveKafkaConsumerTemplate<String, byte[]> kafkaMessageListener,
+					Deserializer<Message> deserializer,
+					MessageAcceptance messageAcceptance,
+					ProcessingOrder processingOrder,
+					int concurrency,
+					int batchSize,
+					Duration batchTimeout,
+					AdaptiveConcurrencyLimiter concurrencyLimiter,
+					FailedRecordPublisher failedRecords) {
 		this.kafkaMessageListener = kafkaMessageListener;
-		this.messageService = messageService;
+		this.deserializer = deserializer;
+		this.messageAcceptance = messageAcceptance;
+		this.processingOrder = processingOrder;
+		this.concurrency = concurrency;
+		this.batchSize = batchSize;
+		this.batchTimeout = batchTimeout;
+		this.concurrencyLimiter = concurrencyLimiter;
+		this.failedRecords = failedRecords;
 	}
 
 	void listen() {
-		kafkaMessageListener
+		concurrencyLimiter.pauseWhenSaturated(kafkaMessageListener);
+
+		Flux<ReceivedRecord<Message>> records = kafkaMessageListener
 				.receive()
 				.doOnNext(r -> log.debug("Received message-received event: " + r))
-				.map(ConsumerRecord::value)
-				.flatMap(messageService::acceptMessage)
-				.onErrorContinue((throwable, o) -> log.error("Error while processing message received event: " + throwable.getMessage()))
-				.subscribe();
+				.map(record -> ReceivedRecord.decode(record, deserializer));
+
+		if (processingOrder == ProcessingOrder.NONE) {
+			inBatches(records)
+					.flatMap(this::accept, concurrency)
+					.subscribe();
+			return;
+		}
+
+		//records are spread over a fixed number of rails, each rail is processed sequentially and the rails in parallel
+		records.groupBy(this::railOf)
+			   .flatMap(rail -> inBatches(rail).concatMap(this::accept), concurrency)
+			   .subscribe();
+	}
+
+	/**
+	 * Batch is closed when full or when the timeout since its first record passes, whichever comes first.
+	 * With batching off every record is a batch of its own.
+	 */
+	private Flux<List<ReceivedRecord<Message>>> inBatches(Flux<ReceivedRecord<Message>> records) {
+		if (batchSize <= 1) {
+			return records.map(List::of);
+		}
+		return records.bufferTimeout(batchSize, batchTimeout);
+	}
+
+	private int railOf(ReceivedRecord<Message> record) {
+		int key;
+		if (processingOrder == ProcessingOrder.PARTITION) {
+			key = record.partition();
+		} else {
+			Message message = record.value();
+			key = message == null || message.getConversationId() == null ? 0 : message.getConversationId().hashCode();
+		}
+		return Math.floorMod(key, concurrency);
+	}
+
+	private Mono<Void> accept(List<ReceivedRecord<Message>> records) {
+		if (records.size() == 1) {
+			return RecordAcknowledgement.acknowledgeWhenProcessed(records.get(0), this::accept, failedRecords);
+		}
+		return RecordAcknowledgement.acknowledgeWhenProcessed(records,
+															  batch -> concurrencyLimiter.run(() -> messageAcceptance.accept(batch)),
+															  this::accept,
+															  failedRecords);
+	}
+
+	private Mono<Void> accept(ReceivedRecord<Message> record) {
+		return concurrencyLimiter.run(() -> messageAcceptance.accept(record));
+	}
+
+	public enum ProcessingOrder {
+		/**
+		 * Messages are processed as they come, in parallel.
+		 */
+		NONE,
+		/**
+		 * Messages of one conversation are processed one by one in the order they were received.
+		 */
+		CONVERSATION,
+		/**
+		 * Messages of one Kafka partition are processed one by one in the order they were received.
+		 */
+		PARTITION
 	}
 }
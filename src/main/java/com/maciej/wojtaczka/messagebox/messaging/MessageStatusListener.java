@@ -3,28 +3,89 @@ package com.maciej.wojtaczka.messagebox.messaging;
 import com.maciej.wojtaczka.messagebox.domain.ConversationService;
 import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.Deserializer;
 import org.springframework.kafka.core.reactive.ReactiveKafkaConsumerTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
 
 @Slf4j
 public class MessageStatusListener {
 
-	private final ReactiveKafkaConsumerTemplate<String, MessageStatusUpdated> kafkaMessageListener;
+	private final ReactiveKafkaConsumerTemplate<String, byte[]> kafkaMessageListener;
+	private final Deserializer<MessageStatusUpdated> deserializer;
 	private final ConversationService messageService;
+	private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+	private final FailedRecordPublisher failedRecords;
+	private final int concurrency;
+	private final int coalescingBatchSize;
+	private final Duration coalescingWindow;
 
-	public MessageStatusListener(ReactiveKafkaConsumerTemplate<String, MessageStatusUpdated> kafkaMessageListener,
-						   ConversationService messageService) {
+	MessageStatusListener(ReactiveKafkaConsumerTemplate<String, byte[]> kafkaMessageListener,
+						  Deserializer<MessageStatusUpdated> deserializer,
+						  ConversationService messageService,
+						  AdaptiveConcurrencyLimiter concurrencyLimiter,
+						  FailedRecordPublisher failedRecords,
+						  int concurrency,
+						  int coalescingBatchSize,
+						  Duration coalescingWindow) {
 		this.kafkaMessageListener = kafkaMessageListener;
+		this.deserializer = deserializer;
 		this.messageService = messageService;
+		this.concurrencyLimiter = concurrencyLimiter;
+		this.failedRecords = failedRecords;
+		this.concurrency = concurrency;
+		this.coalescingBatchSize = coalescingBatchSize;
+		this.coalescingWindow = coalescingWindow;
 	}
 
 	void listen() {
-		kafkaMessageListener
+		concurrencyLimiter.pauseWhenSaturated(kafkaMessageListener);
+
+		Flux<ReceivedRecord<MessageStatusUpdated>> records = kafkaMessageListener
 				.receive()
-				.doOnNext(r -> log.info("Received status changed event: {}", r))
-				.map(ConsumerRecord::value)
-				.flatMap(messageService::updateMessageStatus)
-				.onErrorContinue((throwable, o) -> log.error("Error while processing message status changed event: {}", throwable.getMessage()))
-				.subscribe();
+				.doOnNext(r -> log.debug("Received status changed event: {}", r))
+				.map(record -> ReceivedRecord.decode(record, deserializer));
+
+		//statuses of one user in one conversation go to the same rail, each rail is processed sequentially and the rails in parallel,
+		//so the statuses of a user are applied in the order they came and a delivered status never lands after the seen one
+		records.groupBy(this::railOf)
+			   .flatMap(rail -> inBatches(rail).concatMap(this::updateStatuses), concurrency)
+			   .subscribe();
+	}
+
+	/**
+	 * Statuses coming within the window are coalesced, a burst of statuses of a user reading a conversation ends up as one write.
+	 * With coalescing off every record is a batch of its own.
+	 */
+	private Flux<List<ReceivedRecord<MessageStatusUpdated>>> inBatches(Flux<ReceivedRecord<MessageStatusUpdated>> records) {
+		if (coalescingBatchSize <= 1 || coalescingWindow.isZero()) {
+			return records.map(List::of);
+		}
+		return records.bufferTimeout(coalescingBatchSize, coalescingWindow);
+	}
+
+	private int railOf(ReceivedRecord<MessageStatusUpdated> record) {
+		MessageStatusUpdated status = record.value();
+		int key = status == null ? 0 : Objects.hash(status.getConversationId(), status.getUpdatedBy());
+		return Math.floorMod(key, concurrency);
+	}
+
+	private Mono<Void> updateStatuses(List<ReceivedRecord<MessageStatusUpdated>> records) {
+		if (records.size() == 1) {
+			return RecordAcknowledgement.acknowledgeWhenProcessed(records.get(0), this::updateStatus, failedRecords);
+		}
+		return RecordAcknowledgement.acknowledgeWhenProcessed(
+				records,
+				statuses -> concurrencyLimiter.run(() -> messageService.updateMessageStatuses(ReceivedRecord.values(statuses))),
+				this::updateStatus,
+				failedRecords);
+	}
+
+	private Mono<Void> updateStatus(ReceivedRecord<MessageStatusUpdated> record) {
+		return concurrencyLimiter.run(() -> messageService.updateMessageStatus(record.value()));
 	}
 }
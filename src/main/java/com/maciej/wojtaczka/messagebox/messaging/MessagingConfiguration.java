@@ -3,14 +3,21 @@ package com.maciej.wojtaczka.messagebox.messaging;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.maciej.wojtaczka.messagebox.domain.ConversationService;
 import com.maciej.wojtaczka.messagebox.domain.ConversationStorage;
+import com.maciej.wojtaczka.messagebox.domain.LiveFeed;
+import com.maciej.wojtaczka.messagebox.domain.MessageOutbox;
+import com.maciej.wojtaczka.messagebox.domain.OutboxPublisher;
 import com.maciej.wojtaczka.messagebox.domain.PostMan;
+import com.maciej.wojtaczka.messagebox.domain.UnreadCountInvalidations;
 import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
 import com.maciej.wojtaczka.messagebox.domain.model.Message;
 import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
 import com.maciej.wojtaczka.messagebox.domain.model.UserConnection;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
-import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Deserializer;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -18,11 +25,16 @@ import org.springframework.kafka.core.reactive.ReactiveKafkaConsumerTemplate;
 import org.springframework.kafka.core.reactive.ReactiveKafkaProducerTemplate;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
 import org.springframework.kafka.support.serializer.JsonSerializer;
+import reactor.core.publisher.Flux;
 import reactor.kafka.receiver.ReceiverOptions;
+import reactor.kafka.sender.KafkaSender;
 import reactor.kafka.sender.SenderOptions;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 @Configuration
 public class MessagingConfiguration {
@@ -34,100 +46,339 @@ public class MessagingConfiguration {
 	@Value("${spring.application.name}")
 	private String applicationName;
 
+	@Value("${message-box.messaging.commit.batch-size:100}")
+	private int commitBatchSize;
+
+	@Value("${message-box.messaging.commit.interval:PT1S}")
+	private Duration commitInterval;
+
+	@Value("${message-box.messaging.commit.max-deferred:1000}")
+	private int maxDeferredCommits;
+
+	@Value("${message-box.messaging.concurrency-limit.initial:16}")
+	private int concurrencyLimitInitial;
+
+	@Value("${message-box.messaging.concurrency-limit.min:1}")
+	private int concurrencyLimitMin;
+
+	@Value("${message-box.messaging.concurrency-limit.max:256}")
+	private int concurrencyLimitMax;
+
+	@Value("${message-box.messaging.concurrency-limit.latency-threshold:PT0.5S}")
+	private Duration concurrencyLimitLatencyThreshold;
+
+	@Value("${message-box.messaging.concurrency-limit.backoff-ratio:0.9}")
+	private double concurrencyLimitBackoffRatio;
+
 	@Bean
-	ReactiveKafkaConsumerTemplate<String, Message> reactiveMessageConsumerTemplate(KafkaProperties kafkaProperties) {
-		ReceiverOptions<String, Message> basicReceiverOptions = ReceiverOptions.create(kafkaProperties.buildConsumerProperties());
-		ReceiverOptions<String, Message> messageReceiverOptions =
+	ReactiveKafkaConsumerTemplate<String, byte[]> reactiveMessageConsumerTemplate(KafkaProperties kafkaProperties) {
+		ReceiverOptions<String, byte[]> basicReceiverOptions = ReceiverOptions.create(kafkaProperties.buildConsumerProperties());
+		ReceiverOptions<String, byte[]> receiverOptions =
 				basicReceiverOptions.subscription(Set.of(MESSAGE_RECEIVED_TOPIC))
 									.consumerProperty(ConsumerConfig.GROUP_ID_CONFIG, applicationName)
-									.consumerProperty(JsonDeserializer.VALUE_DEFAULT_TYPE, Message.class)
-									.consumerProperty(JsonDeserializer.USE_TYPE_INFO_HEADERS, false)
-									.consumerProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
+									.withValueDeserializer(new ByteArrayDeserializer());
 
-		return new ReactiveKafkaConsumerTemplate<>(messageReceiverOptions);
+		return new ReactiveKafkaConsumerTemplate<>(withBatchedCommits(receiverOptions));
 	}
 
 	@Bean
-	ReactiveKafkaConsumerTemplate<String, Envelope<UserConnection>> reactiveConnectionConsumerTemplate(KafkaProperties kafkaProperties) {
-		ReceiverOptions<String, Envelope<UserConnection>> basicReceiverOptions = ReceiverOptions.create(kafkaProperties.buildConsumerProperties());
-		ReceiverOptions<String, Envelope<UserConnection>> messageReceiverOptions =
+	ReactiveKafkaConsumerTemplate<String, byte[]> reactiveConnectionConsumerTemplate(KafkaProperties kafkaProperties) {
+		ReceiverOptions<String, byte[]> basicReceiverOptions = ReceiverOptions.create(kafkaProperties.buildConsumerProperties());
+		ReceiverOptions<String, byte[]> receiverOptions =
 				basicReceiverOptions.subscription(Set.of(CONNECTION_CREATED_TOPIC))
 									.consumerProperty(ConsumerConfig.GROUP_ID_CONFIG, applicationName)
-									.withValueDeserializer(new JsonDeserializer<>(new TypeReference<Envelope<UserConnection>>(){}))
-									.consumerProperty(JsonDeserializer.USE_TYPE_INFO_HEADERS, false)
-									.consumerProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
+									.withValueDeserializer(new ByteArrayDeserializer());
 
-		return new ReactiveKafkaConsumerTemplate<>(messageReceiverOptions);
+		return new ReactiveKafkaConsumerTemplate<>(withBatchedCommits(receiverOptions));
 	}
 
 	@Bean
-	ReactiveKafkaConsumerTemplate<String, MessageStatusUpdated> reactiveMessageStatusConsumerTemplate(KafkaProperties kafkaProperties) {
-		ReceiverOptions<String, MessageStatusUpdated> basicReceiverOptions = ReceiverOptions.create(kafkaProperties.buildConsumerProperties());
-		ReceiverOptions<String, MessageStatusUpdated> messageReceiverOptions =
+	ReactiveKafkaConsumerTemplate<String, byte[]> reactiveMessageStatusConsumerTemplate(KafkaProperties kafkaProperties) {
+		ReceiverOptions<String, byte[]> basicReceiverOptions = ReceiverOptions.create(kafkaProperties.buildConsumerProperties());
+		ReceiverOptions<String, byte[]> receiverOptions =
 				basicReceiverOptions.subscription(Set.of(MESSAGE_STATUS_CHANGED_TOPIC))
 									.consumerProperty(ConsumerConfig.GROUP_ID_CONFIG, applicationName)
-									.consumerProperty(JsonDeserializer.VALUE_DEFAULT_TYPE, MessageStatusUpdated.class)
-									.consumerProperty(JsonDeserializer.USE_TYPE_INFO_HEADERS, false)
-									.consumerProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
+									.withValueDeserializer(new ByteArrayDeserializer());
 
-		return new ReactiveKafkaConsumerTemplate<>(messageReceiverOptions);
+		return new ReactiveKafkaConsumerTemplate<>(withBatchedCommits(receiverOptions));
+	}
+
+	private static Deserializer<Message> messageDeserializer() {
+		return new WireFormatDeserializer<>(new JsonDeserializer<>(Message.class, false), BinaryCodec.MESSAGE);
+	}
+
+	private static Deserializer<Envelope<UserConnection>> connectionDeserializer() {
+		return new WireFormatDeserializer<>(new JsonDeserializer<>(new TypeReference<Envelope<UserConnection>>(){}, false),
+											BinaryCodec.envelope(BinaryCodec.USER_CONNECTION));
+	}
+
+	private static Deserializer<MessageStatusUpdated> messageStatusDeserializer() {
+		return new WireFormatDeserializer<>(new JsonDeserializer<>(MessageStatusUpdated.class, false), BinaryCodec.MESSAGE_STATUS);
+	}
+
+	/**
+	 * Consumer of all the retry topics of the source topic, in the same consumer group as the consumer of the source topic.
+	 * Values are consumed as they were forwarded, raw, the retry listener decodes them.
+	 */
+	private ReactiveKafkaConsumerTemplate<String, byte[]> retryConsumerTemplate(KafkaProperties kafkaProperties,
+																				FailedRecordPublisher failedRecordPublisher,
+																				String sourceTopic) {
+		ReceiverOptions<String, byte[]> basicReceiverOptions = ReceiverOptions.create(kafkaProperties.buildConsumerProperties());
+		ReceiverOptions<String, byte[]> retryReceiverOptions =
+				basicReceiverOptions.subscription(failedRecordPublisher.retryTopics(sourceTopic))
+									.consumerProperty(ConsumerConfig.GROUP_ID_CONFIG, applicationName)
+									.withValueDeserializer(new ByteArrayDeserializer());
+
+		return new ReactiveKafkaConsumerTemplate<>(withBatchedCommits(retryReceiverOptions));
+	}
+
+	/**
+	 * Acknowledged offsets are committed in batches. Records may complete out of order, only the offsets below the lowest
+	 * unacknowledged one get committed and at most max-deferred acknowledged offsets wait for it before the partition is paused.
+	 */
+	private <K, V> ReceiverOptions<K, V> withBatchedCommits(ReceiverOptions<K, V> receiverOptions) {
+		return receiverOptions.consumerProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false)
+							  .commitBatchSize(commitBatchSize)
+							  .commitInterval(commitInterval)
+							  .maxDeferredCommits(maxDeferredCommits);
+	}
+
+	private AdaptiveConcurrencyLimiter concurrencyLimiter(int maxLimit) {
+		return new AdaptiveConcurrencyLimiter(Math.min(concurrencyLimitInitial, maxLimit), concurrencyLimitMin, maxLimit,
+											  concurrencyLimitLatencyThreshold, concurrencyLimitBackoffRatio);
 	}
 
 	@Bean
 	ReactiveKafkaProducerTemplate<String, Envelope<Message>> reactiveKafkaMessagesProducerTemplate(
-			KafkaProperties properties) {
+			KafkaProperties properties,
+			@Value("${message-box.messaging.wire-format.message-accepted:JSON}") WireFormat wireFormat) {
 
 		Map<String, Object> props = properties
 				.buildProducerProperties();
 
-		props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+		SenderOptions<String, Envelope<Message>> senderOptions =
+				SenderOptions.<String, Envelope<Message>>create(props)
+							 .withValueSerializer(new WireFormatSerializer<>(wireFormat, new JsonSerializer<>(),
+																			 BinaryCodec.envelope(BinaryCodec.MESSAGE)));
 
-		return new ReactiveKafkaProducerTemplate<>(SenderOptions.create(props));
+		return new ReactiveKafkaProducerTemplate<>(senderOptions);
 	}
 
 	@Bean
 	ReactiveKafkaProducerTemplate<String, Envelope<MessageStatusUpdated>> reactiveKafkaMessagesStatusProducerTemplate(
-			KafkaProperties properties) {
+			KafkaProperties properties,
+			@Value("${message-box.messaging.wire-format.message-status-updated:JSON}") WireFormat wireFormat) {
 
 		Map<String, Object> props = properties
 				.buildProducerProperties();
 
-		props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+		SenderOptions<String, Envelope<MessageStatusUpdated>> senderOptions =
+				SenderOptions.<String, Envelope<MessageStatusUpdated>>create(props)
+							 .withValueSerializer(new WireFormatSerializer<>(wireFormat, new JsonSerializer<>(),
+																			 BinaryCodec.envelope(BinaryCodec.MESSAGE_STATUS)));
 
-		return new ReactiveKafkaProducerTemplate<>(SenderOptions.create(props));
+		return new ReactiveKafkaProducerTemplate<>(senderOptions);
 	}
 
 	@Bean
 	ConversationService conversationService(ConversationStorage conversationStorage,
-											PostMan postMan) {
-		return new ConversationService(conversationStorage, postMan);
+											PostMan postMan,
+											@Value("${message-box.delivery-mode:SEQUENTIAL}") ConversationService.DeliveryMode deliveryMode,
+											@Value("${message-box.acceptance.tracked-conversations:100000}") int trackedConversations) {
+		return new ConversationService(conversationStorage, postMan, deliveryMode, trackedConversations);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "message-box.delivery-mode", havingValue = "OUTBOX")
+	OutboxPublisher outboxPublisher(MessageOutbox messageOutbox,
+									PostMan postMan,
+									@Value("${message-box.outbox.poll-interval:PT0.1S}") Duration pollInterval,
+									@Value("${message-box.outbox.batch-size:100}") int batchSize) {
+		var outboxPublisher = new OutboxPublisher(messageOutbox, postMan, pollInterval, batchSize);
+		outboxPublisher.start();
+
+		return outboxPublisher;
+	}
+
+	@Bean
+	FailedRecordPublisher failedRecordPublisher(KafkaProperties properties,
+												@Value("${message-box.messaging.retry.delays:PT1S,PT10S,PT1M}") Duration[] retryDelays) {
+		SenderOptions<String, byte[]> senderOptions =
+				SenderOptions.<String, byte[]>create(properties.buildProducerProperties())
+							 .withValueSerializer(new ByteArraySerializer());
+
+		return new FailedRecordPublisher(new ReactiveKafkaProducerTemplate<>(senderOptions), List.of(retryDelays));
+	}
+
+	@Bean
+	DeadLetterReplay deadLetterReplay(KafkaProperties properties,
+									  @Value("${message-box.messaging.dead-letter.replay-idle-timeout:PT10S}") Duration idleTimeout,
+									  @Value("${message-box.messaging.dead-letter.replay-topics:}") String[] replayTopics) {
+		ReceiverOptions<byte[], byte[]> receiverOptions =
+				ReceiverOptions.<byte[], byte[]>create(properties.buildConsumerProperties())
+							   .consumerProperty(ConsumerConfig.GROUP_ID_CONFIG, applicationName + "-dead-letter-replay")
+							   .consumerProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest")
+							   .consumerProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false)
+							   .withKeyDeserializer(new ByteArrayDeserializer())
+							   .withValueDeserializer(new ByteArrayDeserializer());
+		SenderOptions<byte[], byte[]> senderOptions =
+				SenderOptions.<byte[], byte[]>create(properties.buildProducerProperties())
+							 .withKeySerializer(new ByteArraySerializer())
+							 .withValueSerializer(new ByteArraySerializer());
+		var deadLetterReplay = new DeadLetterReplay(receiverOptions, KafkaSender.create(senderOptions), idleTimeout);
+
+		//replay requested for the start of the instance
+		Flux.fromArray(replayTopics)
+			.filter(topic -> !topic.isBlank())
+			.concatMap(topic -> deadLetterReplay.replay(topic.trim(), Long.MAX_VALUE))
+			.subscribe();
+
+		return deadLetterReplay;
+	}
+
+	@Bean
+	LiveFeed liveFeed(@Value("${message-box.live.buffer-size:256}") int bufferSize,
+					  @Value("${message-box.live.slow-client-policy:DISCONNECT}") LiveFeed.SlowClientPolicy slowClientPolicy) {
+		return new LiveFeed(bufferSize, slowClientPolicy);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "message-box.live.enabled", havingValue = "true", matchIfMissing = true)
+	LiveFeedListener liveFeedListener(KafkaProperties kafkaProperties,
+									  LiveFeed liveFeed,
+									  @Value("${message-box.messaging.delivery.mode:BROADCAST}") KafkaPostMan.DeliveryMode deliveryMode) {
+		boolean byRecipient = deliveryMode == KafkaPostMan.DeliveryMode.RECIPIENT;
+		String messageTopic = byRecipient ? KafkaPostMan.MESSAGE_ACCEPTED_BY_RECIPIENT_TOPIC : KafkaPostMan.MESSAGE_ACCEPTED_TOPIC;
+		String messageStatusTopic = byRecipient ? KafkaPostMan.MESSAGE_STATUS_UPDATED_BY_RECIPIENT_TOPIC : KafkaPostMan.MESSAGE_STATUS_UPDATED;
+		String groupId = applicationName + "-live-" + UUID.randomUUID();
+
+		var liveFeedListener = new LiveFeedListener(
+				liveConsumerTemplate(kafkaProperties, groupId + "-messages", messageTopic,
+									 new WireFormatDeserializer<>(new JsonDeserializer<>(new TypeReference<Envelope<Message>>(){}, false),
+																  BinaryCodec.envelope(BinaryCodec.MESSAGE))),
+				liveConsumerTemplate(kafkaProperties, groupId + "-statuses", messageStatusTopic,
+									 new WireFormatDeserializer<>(new JsonDeserializer<>(new TypeReference<Envelope<MessageStatusUpdated>>(){}, false),
+																  BinaryCodec.envelope(BinaryCodec.MESSAGE_STATUS))),
+				liveFeed);
+		liveFeedListener.listen();
+
+		return liveFeedListener;
 	}
 
 	@Bean
-	MessageListener messageListener(ReactiveKafkaConsumerTemplate<String, Message> reactiveMessageConsumerTemplate,
-									ConversationService conversationService) {
-		var messageListener = new MessageListener(reactiveMessageConsumerTemplate, conversationService);
+	UnreadCountInvalidations unreadCountInvalidations(KafkaProperties kafkaProperties) {
+		JsonSerializer<List<UUID>> serializer = new JsonSerializer<>();
+		serializer.setAddTypeInfo(false);
+		SenderOptions<String, List<UUID>> senderOptions =
+				SenderOptions.<String, List<UUID>>create(kafkaProperties.buildProducerProperties())
+							 .withValueSerializer(serializer);
+		String groupId = applicationName + "-unread-count-" + UUID.randomUUID();
+
+		return new KafkaUnreadCountInvalidations(
+				new ReactiveKafkaProducerTemplate<>(senderOptions),
+				liveConsumerTemplate(kafkaProperties, groupId, KafkaUnreadCountInvalidations.UNREAD_COUNT_INVALIDATED_TOPIC,
+									 new JsonDeserializer<>(new TypeReference<List<UUID>>(){}, false)));
+	}
+
+	private <V> ReactiveKafkaConsumerTemplate<String, V> liveConsumerTemplate(KafkaProperties kafkaProperties, String groupId, String topic,
+																			  Deserializer<V> deserializer) {
+		ReceiverOptions<String, V> basicReceiverOptions = ReceiverOptions.create(kafkaProperties.buildConsumerProperties());
+		ReceiverOptions<String, V> liveReceiverOptions =
+				basicReceiverOptions.subscription(Set.of(topic))
+									.consumerProperty(ConsumerConfig.GROUP_ID_CONFIG, groupId)
+									.consumerProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest")
+									.consumerProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false)
+									.withValueDeserializer(deserializer);
+
+		return new ReactiveKafkaConsumerTemplate<>(liveReceiverOptions);
+	}
+
+	@Bean
+	MessageListener messageListener(ReactiveKafkaConsumerTemplate<String, byte[]> reactiveMessageConsumerTemplate,
+									ConversationService conversationService,
+									@Value("${message-box.messaging.message-listener.processing-order:CONVERSATION}")
+											MessageListener.ProcessingOrder processingOrder,
+									@Value("${message-box.messaging.message-listener.concurrency:16}") int concurrency,
+									@Value("${message-box.messaging.message-listener.batch-size:1}") int batchSize,
+									@Value("${message-box.messaging.message-listener.batch-timeout:PT0.02S}") Duration batchTimeout,
+									FailedRecordPublisher failedRecordPublisher) {
+		var messageListener = new MessageListener(reactiveMessageConsumerTemplate, messageDeserializer(), new MessageAcceptance(conversationService),
+												  processingOrder, concurrency, batchSize, batchTimeout,
+												  concurrencyLimiter(Math.min(concurrency, concurrencyLimitMax)), failedRecordPublisher);
 		messageListener.listen();
 
 		return messageListener;
 	}
 
 	@Bean
-	ConnectionListener connectionListener(ReactiveKafkaConsumerTemplate<String, Envelope<UserConnection>> reactiveConnectionConsumerTemplate,
-										  ConversationService conversationService) {
-		var connectionListener = new ConnectionListener(reactiveConnectionConsumerTemplate, conversationService);
+	RetryListener<Message> messageRetryListener(KafkaProperties kafkaProperties,
+												ConversationService conversationService,
+												FailedRecordPublisher failedRecordPublisher) {
+		var messageAcceptance = new MessageAcceptance(conversationService);
+		var retryListener = new RetryListener<Message>(
+				retryConsumerTemplate(kafkaProperties, failedRecordPublisher, MESSAGE_RECEIVED_TOPIC),
+				messageDeserializer(),
+				messageAcceptance::accept,
+				failedRecordPublisher);
+		retryListener.listen();
+
+		return retryListener;
+	}
+
+	@Bean
+	ConnectionListener connectionListener(ReactiveKafkaConsumerTemplate<String, byte[]> reactiveConnectionConsumerTemplate,
+										  ConversationService conversationService,
+										  FailedRecordPublisher failedRecordPublisher,
+										  @Value("${message-box.messaging.connection-listener.batch-size:1}") int batchSize,
+										  @Value("${message-box.messaging.connection-listener.batch-timeout:PT0.1S}") Duration batchTimeout) {
+		var connectionListener = new ConnectionListener(reactiveConnectionConsumerTemplate, connectionDeserializer(), conversationService, failedRecordPublisher,
+														batchSize, batchTimeout);
 		connectionListener.listen();
 
 		return connectionListener;
 	}
 
 	@Bean
-	MessageStatusListener messageStatusListener(ReactiveKafkaConsumerTemplate<String, MessageStatusUpdated> reactiveMessageStatusConsumerTemplate,
-												ConversationService conversationService) {
-		var messageListener = new MessageStatusListener(reactiveMessageStatusConsumerTemplate, conversationService);
+	RetryListener<Envelope<UserConnection>> connectionRetryListener(KafkaProperties kafkaProperties,
+																	ConversationService conversationService,
+																	FailedRecordPublisher failedRecordPublisher) {
+		var retryListener = new RetryListener<Envelope<UserConnection>>(
+				retryConsumerTemplate(kafkaProperties, failedRecordPublisher, CONNECTION_CREATED_TOPIC),
+				connectionDeserializer(),
+				record -> conversationService.createFaceToFaceConversation(record.value().getPayload()),
+				failedRecordPublisher);
+		retryListener.listen();
+
+		return retryListener;
+	}
+
+	@Bean
+	MessageStatusListener messageStatusListener(ReactiveKafkaConsumerTemplate<String, byte[]> reactiveMessageStatusConsumerTemplate,
+												ConversationService conversationService,
+												FailedRecordPublisher failedRecordPublisher,
+												@Value("${message-box.messaging.message-status-listener.concurrency:16}") int concurrency,
+												@Value("${message-box.messaging.message-status-listener.coalescing-batch-size:500}") int coalescingBatchSize,
+												@Value("${message-box.messaging.message-status-listener.coalescing-window:PT0.05S}") Duration coalescingWindow) {
+		var messageListener = new MessageStatusListener(reactiveMessageStatusConsumerTemplate, messageStatusDeserializer(), conversationService,
+														concurrencyLimiter(Math.min(concurrency, concurrencyLimitMax)), failedRecordPublisher,
+														concurrency, coalescingBatchSize, coalescingWindow);
 		messageListener.listen();
 
 		return messageListener;
 	}
 
+	@Bean
+	RetryListener<MessageStatusUpdated> messageStatusRetryListener(KafkaProperties kafkaProperties,
+																   ConversationService conversationService,
+																   FailedRecordPublisher failedRecordPublisher) {
+		var retryListener = new RetryListener<>(
+				retryConsumerTemplate(kafkaProperties, failedRecordPublisher, MESSAGE_STATUS_CHANGED_TOPIC),
+				messageStatusDeserializer(),
+				record -> conversationService.updateMessageStatus(record.value()),
+				failedRecordPublisher);
+		retryListener.listen();
+
+		return retryListener;
+	}
+
 }
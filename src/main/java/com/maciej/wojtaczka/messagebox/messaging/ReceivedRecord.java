@@ -0,0 +1,70 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import org.apache.kafka.common.serialization.Deserializer;
+import reactor.kafka.receiver.ReceiverRecord;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Record consumed as raw bytes together with its value decoded by the listener. A value that cannot be decoded does not fail
+ * the subscription, the record keeps the failure and its bytes, so it can be moved to the dead letter topic as it came.
+ */
+final class ReceivedRecord<V> {
+
+	private final ReceiverRecord<String, byte[]> raw;
+	private final V value;
+	private final RuntimeException decodingFailure;
+
+	private ReceivedRecord(ReceiverRecord<String, byte[]> raw, V value, RuntimeException decodingFailure) {
+		this.raw = raw;
+		this.value = value;
+		this.decodingFailure = decodingFailure;
+	}
+
+	static <V> ReceivedRecord<V> decode(ReceiverRecord<String, byte[]> raw, Deserializer<V> deserializer) {
+		try {
+			return new ReceivedRecord<>(raw, deserializer.deserialize(raw.topic(), raw.headers(), raw.value()), null);
+		} catch (RuntimeException e) {
+			return new ReceivedRecord<>(raw, null, e);
+		}
+	}
+
+	static <V> List<V> values(List<ReceivedRecord<V>> records) {
+		return records.stream()
+					  .map(ReceivedRecord::value)
+					  .collect(Collectors.toList());
+	}
+
+	ReceiverRecord<String, byte[]> raw() {
+		return raw;
+	}
+
+	V value() {
+		return value;
+	}
+
+	boolean isDecoded() {
+		return decodingFailure == null;
+	}
+
+	RuntimeException decodingFailure() {
+		return decodingFailure;
+	}
+
+	String topic() {
+		return raw.topic();
+	}
+
+	int partition() {
+		return raw.partition();
+	}
+
+	long offset() {
+		return raw.offset();
+	}
+
+	void acknowledge() {
+		raw.receiverOffset().acknowledge();
+	}
+}
@@ -0,0 +1,60 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.utils.Utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Splits an envelope into records of a topic partitioned by recipient, so a consumer owning a partition gets only the traffic
+ * of the recipients of that partition.
+ * <p>
+ * Up to the group size threshold there is one record per recipient, keyed by the recipient id. Bigger groups get one record
+ * per partition with all the recipients of that partition, placed where the keyed records of those recipients would go.
+ */
+class RecipientFanOut {
+
+	private final String topic;
+	private final int groupSizeThreshold;
+
+	RecipientFanOut(String topic, int groupSizeThreshold) {
+		this.topic = topic;
+		this.groupSizeThreshold = groupSizeThreshold;
+	}
+
+	<T> List<ProducerRecord<String, Envelope<T>>> split(Envelope<T> envelope, int partitions) {
+		List<UUID> recipients = envelope.getRecipients();
+		List<ProducerRecord<String, Envelope<T>>> records = new ArrayList<>();
+
+		if (recipients.size() <= groupSizeThreshold) {
+			for (UUID recipient : recipients) {
+				records.add(new ProducerRecord<>(topic, recipient.toString(), Envelope.wrap(envelope.getPayload(), List.of(recipient))));
+			}
+			return records;
+		}
+
+		Map<Integer, List<UUID>> recipientsByPartition = new LinkedHashMap<>();
+		for (UUID recipient : recipients) {
+			recipientsByPartition.computeIfAbsent(partitionOf(recipient, partitions), partition -> new ArrayList<>())
+								 .add(recipient);
+		}
+		recipientsByPartition.forEach((partition, partitionRecipients) ->
+				records.add(new ProducerRecord<>(topic, partition, null, Envelope.wrap(envelope.getPayload(), partitionRecipients))));
+
+		return records;
+	}
+
+	/**
+	 * Same partition as the default partitioner picks for a record keyed by the recipient id.
+	 */
+	static int partitionOf(UUID recipient, int partitions) {
+		byte[] key = recipient.toString().getBytes(StandardCharsets.UTF_8);
+		return Utils.toPositive(Utils.murmur2(key)) % partitions;
+	}
+}
@@ -0,0 +1,91 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Acknowledges a record only once it is processed, so the offset is committed (in batches, by the receiver) after the work is done
+ * and a crash makes the record to be consumed again.
+ * <p>
+ * A failing record is handed to the {@link FailedRecordPublisher} and acknowledged, so it does not hold back the commits of its partition,
+ * it is retried later from a retry topic instead of in place, where the backoff would stall the records behind it. A record which cannot be decoded goes straight to the dead letter topic, retrying it cannot help.
+ * A record which cannot be handed over either is never acknowledged, handing it over is retried until it succeeds,
+ * holding back the records behind it, rather than losing it.
+ */
+@Slf4j
+final class RecordAcknowledgement {
+
+	private static final Duration FORWARDING_BACKOFF = Duration.ofMillis(100);
+	private static final Duration FORWARDING_MAX_BACKOFF = Duration.ofSeconds(10);
+
+	private RecordAcknowledgement() {
+	}
+
+	static <V> Mono<Void> acknowledgeWhenProcessed(ReceivedRecord<V> record, Function<ReceivedRecord<V>, Mono<Void>> processing,
+												   FailedRecordPublisher failedRecords) {
+		return process(record, processing, failedRecords)
+				.then(Mono.fromRunnable(record::acknowledge));
+	}
+
+	/**
+	 * The decoded records are processed as one batch. When the batch fails its records are processed one by one,
+	 * so only the records failing on their own are forwarded.
+	 */
+	static <V> Mono<Void> acknowledgeWhenProcessed(List<ReceivedRecord<V>> records,
+												   Function<List<ReceivedRecord<V>>, Mono<Void>> batchProcessing,
+												   Function<ReceivedRecord<V>, Mono<Void>> recordProcessing,
+												   FailedRecordPublisher failedRecords) {
+		List<ReceivedRecord<V>> decoded = records.stream()
+												 .filter(ReceivedRecord::isDecoded)
+												 .collect(Collectors.toList());
+
+		Mono<Void> undecodable = Flux.fromIterable(records)
+									 .filter(record -> !record.isDecoded())
+									 .concatMap(record -> process(record, recordProcessing, failedRecords))
+									 .then();
+		Mono<Void> batch = decoded.isEmpty() ? Mono.empty() : Mono.defer(() -> batchProcessing.apply(decoded))
+				.onErrorResume(throwable -> {
+					ReceivedRecord<V> first = decoded.get(0);
+					log.warn("Error while processing batch of {} {} records starting at partition {}, offset {}, processing them one by one: {}",
+							 decoded.size(), first.topic(), first.partition(), first.offset(), throwable.toString());
+					return Flux.fromIterable(decoded)
+							   .concatMap(record -> process(record, recordProcessing, failedRecords))
+							   .then();
+				});
+
+		return undecodable.then(batch)
+						  .then(Mono.fromRunnable(() -> records.forEach(ReceivedRecord::acknowledge)));
+	}
+
+	private static <V> Mono<Void> process(ReceivedRecord<V> record, Function<ReceivedRecord<V>, Mono<Void>> processing,
+										  FailedRecordPublisher failedRecords) {
+		if (!record.isDecoded()) {
+			log.warn("Cannot decode {} record at partition {}, offset {}: {}",
+					 record.topic(), record.partition(), record.offset(), record.decodingFailure().toString());
+			return forward(record, () -> failedRecords.forwardToDeadLetter(record.raw(), record.decodingFailure()));
+		}
+		return Mono.defer(() -> processing.apply(record))
+				   .onErrorResume(throwable -> {
+					   log.warn("Error while processing {} record at partition {}, offset {}: {}",
+								record.topic(), record.partition(), record.offset(), throwable.toString());
+					   return forward(record, () -> failedRecords.forward(record.raw(), throwable));
+				   });
+	}
+
+	private static Mono<Void> forward(ReceivedRecord<?> record, Supplier<Mono<Void>> forwarding) {
+		return Mono.defer(forwarding)
+				   .retryWhen(Retry.backoff(Long.MAX_VALUE, FORWARDING_BACKOFF)
+								   .maxBackoff(FORWARDING_MAX_BACKOFF)
+								   .doBeforeRetry(signal -> log.error("Cannot forward {} record at partition {}, offset {} for a retry, attempt {}: {}",
+																	  record.topic(), record.partition(), record.offset(),
+																	  signal.totalRetries() + 1, signal.failure().toString())));
+	}
+}
@@ -0,0 +1,45 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.kafka.core.reactive.ReactiveKafkaConsumerTemplate;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Function;
+
+/**
+ * Processes the records of the retry topics of one source topic once their delay passes. The retries are consumed apart from
+ * the source topic, so a record waiting for its retry never holds back the records behind it in the source partition.
+ * Every retry topic has a single delay, the records of a partition become due in the order they are stored and are processed one by one.
+ */
+@Slf4j
+public class RetryListener<V> {
+
+	private final ReactiveKafkaConsumerTemplate<String, byte[]> kafkaRetryListener;
+	private final Deserializer<V> deserializer;
+	private final Function<ReceivedRecord<V>, Mono<Void>> processing;
+	private final FailedRecordPublisher failedRecords;
+
+	RetryListener(ReactiveKafkaConsumerTemplate<String, byte[]> kafkaRetryListener,
+				  Deserializer<V> deserializer,
+				  Function<ReceivedRecord<V>, Mono<Void>> processing,
+				  FailedRecordPublisher failedRecords) {
+		this.kafkaRetryListener = kafkaRetryListener;
+		this.deserializer = deserializer;
+		this.processing = processing;
+		this.failedRecords = failedRecords;
+	}
+
+	void listen() {
+		kafkaRetryListener.receive()
+						  .doOnNext(r -> log.debug("Received retry: {}", r))
+						  .groupBy(record -> new TopicPartition(record.topic(), record.partition()))
+						  .flatMap(partition -> partition.concatMap(
+								  record -> Mono.delay(FailedRecordPublisher.delayOf(record))
+												.then(RecordAcknowledgement.acknowledgeWhenProcessed(ReceivedRecord.decode(record, deserializer),
+																									 processing, failedRecords))),
+								   Integer.MAX_VALUE)
+						  .subscribe();
+	}
+}
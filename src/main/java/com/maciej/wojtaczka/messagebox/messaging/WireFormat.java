@@ -0,0 +1,44 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Format of the record values, carried in the content-type header so JSON and binary producers can write to the same topic.
+ * A record without the header is JSON.
+ */
+public enum WireFormat {
+	JSON("application/json"),
+	BINARY("application/vnd.message-box.binary.v1");
+
+	static final String CONTENT_TYPE_HEADER = "content-type";
+
+	private final String contentType;
+	private final byte[] contentTypeBytes;
+
+	WireFormat(String contentType) {
+		this.contentType = contentType;
+		this.contentTypeBytes = contentType.getBytes(StandardCharsets.UTF_8);
+	}
+
+	void writeTo(Headers headers) {
+		headers.remove(CONTENT_TYPE_HEADER);
+		headers.add(CONTENT_TYPE_HEADER, contentTypeBytes);
+	}
+
+	static WireFormat readFrom(Headers headers) {
+		Header header = headers == null ? null : headers.lastHeader(CONTENT_TYPE_HEADER);
+		if (header == null) {
+			return JSON;
+		}
+		String contentType = new String(header.value(), StandardCharsets.UTF_8);
+		for (WireFormat format : values()) {
+			if (format.contentType.equals(contentType)) {
+				return format;
+			}
+		}
+		throw new IllegalArgumentException("Unsupported content type: " + contentType);
+	}
+}
@@ -0,0 +1,53 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+/**
+ * Reads the values in the format given by the content type of the record, so a topic can be migrated producer by producer.
+ */
+public class WireFormatDeserializer<T> implements Deserializer<T> {
+
+	private final Deserializer<T> jsonDeserializer;
+	private final BinaryCodec<T> binaryCodec;
+
+	public WireFormatDeserializer(Deserializer<T> jsonDeserializer, BinaryCodec<T> binaryCodec) {
+		this.jsonDeserializer = jsonDeserializer;
+		this.binaryCodec = binaryCodec;
+	}
+
+	@Override
+	public T deserialize(String topic, Headers headers, byte[] data) {
+		if (data == null) {
+			return null;
+		}
+		WireFormat format;
+		try {
+			format = WireFormat.readFrom(headers);
+		} catch (IllegalArgumentException e) {
+			throw new SerializationException(e.getMessage(), e);
+		}
+		if (format == WireFormat.BINARY) {
+			try {
+				return binaryCodec.decode(data);
+			} catch (RuntimeException e) {
+				throw new SerializationException("Cannot decode binary record of topic " + topic, e);
+			}
+		}
+		return jsonDeserializer.deserialize(topic, headers, data);
+	}
+
+	/**
+	 * Without headers there is no content type, the value is JSON.
+	 */
+	@Override
+	public T deserialize(String topic, byte[] data) {
+		return jsonDeserializer.deserialize(topic, data);
+	}
+
+	@Override
+	public void close() {
+		jsonDeserializer.close();
+	}
+}
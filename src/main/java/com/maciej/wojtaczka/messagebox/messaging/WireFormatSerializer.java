@@ -0,0 +1,48 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+
+/**
+ * Writes the values in the configured format and marks the records with its content type.
+ */
+public class WireFormatSerializer<T> implements Serializer<T> {
+
+	private final WireFormat format;
+	private final Serializer<T> jsonSerializer;
+	private final BinaryCodec<T> binaryCodec;
+
+	public WireFormatSerializer(WireFormat format, Serializer<T> jsonSerializer, BinaryCodec<T> binaryCodec) {
+		this.format = format;
+		this.jsonSerializer = jsonSerializer;
+		this.binaryCodec = binaryCodec;
+	}
+
+	@Override
+	public byte[] serialize(String topic, Headers headers, T data) {
+		if (data == null) {
+			return null;
+		}
+		format.writeTo(headers);
+		if (format == WireFormat.BINARY) {
+			return binaryCodec.encode(data);
+		}
+		return jsonSerializer.serialize(topic, headers, data);
+	}
+
+	/**
+	 * Without headers the content type cannot be marked and a reader takes the value for JSON, so it is always written as JSON.
+	 */
+	@Override
+	public byte[] serialize(String topic, T data) {
+		if (data == null) {
+			return null;
+		}
+		return jsonSerializer.serialize(topic, data);
+	}
+
+	@Override
+	public void close() {
+		jsonSerializer.close();
+	}
+}
@@ -0,0 +1,321 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.maciej.wojtaczka.messagebox.domain.ConversationStorage;
+import com.maciej.wojtaczka.messagebox.domain.UnreadCountInvalidations;
+import com.maciej.wojtaczka.messagebox.domain.model.Conversation;
+import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import com.maciej.wojtaczka.messagebox.domain.model.ListingVersion;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
+import com.maciej.wojtaczka.messagebox.domain.model.Page;
+import com.maciej.wojtaczka.messagebox.domain.model.PageRequest;
+import com.maciej.wojtaczka.messagebox.domain.model.UnreadConversationsCount;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BinaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps recently used conversations in memory, so validating an incoming message or status does not cost a Cassandra read.
+ * Interlocutors of a conversation never change, the last activity is kept up to date by the writes going through this storage
+ * and otherwise it is at most the time to live old.
+ * <p>
+ * Unread conversations counts are kept too, the messages and statuses written through any instance invalidate them on all
+ * the instances (see {@link UnreadCountInvalidations}). A count changed any other way, or whose invalidation got lost,
+ * is at most the unread counts time to live old. The invalidations are published off the write path, collected over a short window
+ * into one record, a write never waits for them and a backlog of them is dropped rather than kept growing.
+ */
+@Slf4j
+public class CachingConversationStorage implements ConversationStorage {
+
+	private static final int UNREAD_COUNT_STAMPS = 1024;
+	private static final int UNREAD_COUNTS_CHUNK_SIZE = 256;
+	private static final int MAX_PENDING_INVALIDATION_BATCHES = 1024;
+
+	private final ConversationStorage storage;
+	private final ExpiringLruCache<UUID, Conversation> conversations;
+	private final UnreadCountInvalidations unreadCountInvalidations;
+	private final ExpiringLruCache<UUID, Long> unreadCounts;
+	/**
+	 * Bumped by every invalidation of the users hashed to the stamp, a count read before the bump is never cached.
+	 */
+	private final AtomicLongArray unreadCountStamps = new AtomicLongArray(UNREAD_COUNT_STAMPS);
+	private final Sinks.Many<UUID> pendingInvalidations = Sinks.many().unicast().onBackpressureBuffer();
+	private final Duration invalidationWindow;
+	private final int invalidationBatchSize;
+
+	public CachingConversationStorage(ConversationStorage storage, int maxSize, Duration timeToLive,
+									  UnreadCountInvalidations unreadCountInvalidations, int unreadCountsMaxSize,
+									  Duration unreadCountsTimeToLive, Duration invalidationWindow, int invalidationBatchSize) {
+		this.storage = storage;
+		this.conversations = new ExpiringLruCache<>(maxSize, timeToLive);
+		this.unreadCountInvalidations = unreadCountInvalidations;
+		this.unreadCounts = new ExpiringLruCache<>(unreadCountsMaxSize, unreadCountsTimeToLive);
+		this.invalidationWindow = invalidationWindow;
+		this.invalidationBatchSize = invalidationBatchSize;
+	}
+
+	public void start() {
+		unreadCountInvalidations.invalidated()
+								.subscribe(this::invalidateUnreadCount);
+
+		pendingInvalidations.asFlux()
+							.bufferTimeout(invalidationBatchSize, invalidationWindow)
+							.onBackpressureBuffer(MAX_PENDING_INVALIDATION_BATCHES,
+												  dropped -> log.warn("Unread counts invalidation of {} users dropped, publishing is behind", dropped.size()),
+												  BufferOverflowStrategy.DROP_OLDEST)
+							.concatMap(this::publishInvalidations)
+							.subscribe();
+	}
+
+	@Override
+	public Mono<Conversation> getConversation(UUID conversationId) {
+		return Mono.defer(() -> conversations.get(conversationId)
+											 .map(Mono::just)
+											 .orElseGet(() -> storage.getConversation(conversationId)
+																	 .doOnNext(loaded -> conversations.put(conversationId, copy(loaded)))))
+				   .map(this::copy);
+	}
+
+	/**
+	 * Only the conversations missing in the cache are read from the storage, all of them with one multi-get.
+	 */
+	@Override
+	public Flux<Conversation> getConversations(Collection<UUID> conversationIds) {
+		return Flux.defer(() -> {
+			Map<UUID, Conversation> found = new HashMap<>();
+			List<UUID> missing = new ArrayList<>();
+			for (UUID conversationId : new LinkedHashSet<>(conversationIds)) {
+				conversations.get(conversationId)
+							 .ifPresentOrElse(cached -> found.put(conversationId, cached), () -> missing.add(conversationId));
+			}
+
+			Mono<Map<UUID, Conversation>> loaded = missing.isEmpty()
+					? Mono.just(Map.of())
+					: storage.getConversations(missing)
+							 .doOnNext(conversation -> conversations.put(conversation.getConversationId(), copy(conversation)))
+							 .collectMap(Conversation::getConversationId);
+
+			return loaded.flatMapIterable(loadedConversations -> {
+				List<Conversation> ordered = new ArrayList<>();
+				for (UUID conversationId : new LinkedHashSet<>(conversationIds)) {
+					Conversation conversation = found.getOrDefault(conversationId, loadedConversations.get(conversationId));
+					if (conversation != null) {
+						ordered.add(copy(conversation));
+					}
+				}
+				return ordered;
+			});
+		});
+	}
+
+	@Override
+	public Mono<Void> insertConversation(Conversation conversation) {
+		return insertConversations(List.of(conversation));
+	}
+
+	/**
+	 * The inserted conversations are invalidated rather than cached, an insert of a conversation which already exists does not change it.
+	 */
+	@Override
+	public Mono<Void> insertConversations(Collection<Conversation> inserted) {
+		return storage.insertConversations(inserted)
+					  .doOnSuccess(done -> inserted.forEach(conversation -> conversations.invalidate(conversation.getConversationId())));
+	}
+
+	@Override
+	public Mono<Void> storeNewMessage(Envelope<Message> envelope) {
+		return storeNewMessages(List.of(envelope));
+	}
+
+	@Override
+	public Mono<Void> storeNewMessages(List<Envelope<Message>> envelopes, Map<UUID, Conversation> conversations) {
+		return storage.storeNewMessages(envelopes, conversations)
+					  .doOnSuccess(done -> {
+						  updateLastActivities(envelopes);
+						  invalidateUnreadCounts(recipientsOf(envelopes));
+					  });
+	}
+
+	@Override
+	public Mono<Void> storeNewMessagesToDeliver(List<Envelope<Message>> envelopes, Map<UUID, Conversation> conversations) {
+		return storage.storeNewMessagesToDeliver(envelopes, conversations)
+					  .doOnSuccess(done -> {
+						  updateLastActivities(envelopes);
+						  invalidateUnreadCounts(recipientsOf(envelopes));
+					  });
+	}
+
+	private Set<UUID> recipientsOf(List<Envelope<Message>> envelopes) {
+		return envelopes.stream()
+						.flatMap(envelope -> envelope.getRecipients().stream())
+						.collect(Collectors.toSet());
+	}
+
+	private void updateLastActivities(List<Envelope<Message>> envelopes) {
+		envelopes.stream()
+				 .map(Envelope::getPayload)
+				 .collect(Collectors.toMap(Message::getConversationId, Message::getTime, BinaryOperator.maxBy(Comparator.naturalOrder())))
+				 .forEach((conversationId, lastActivity) -> conversations.updateIfPresent(conversationId, cached -> {
+					 if (cached.getLastActivity() != null && cached.getLastActivity().isAfter(lastActivity)) {
+						 return cached;
+					 }
+					 Conversation updated = copy(cached);
+					 updated.setLastActivity(lastActivity);
+					 return updated;
+				 }));
+	}
+
+	@Override
+	public Flux<Conversation> getUserConversations(UUID userId) {
+		return storage.getUserConversations(userId);
+	}
+
+	@Override
+	public Mono<Page<Conversation>> getUserConversations(UUID userId, PageRequest pageRequest) {
+		return storage.getUserConversations(userId, pageRequest);
+	}
+
+	@Override
+	public Flux<Message> getMessages(UUID conversationId) {
+		return storage.getMessages(conversationId);
+	}
+
+	@Override
+	public Mono<Page<Message>> getMessages(UUID conversationId, PageRequest pageRequest) {
+		return storage.getMessages(conversationId, pageRequest);
+	}
+
+	@Override
+	public Mono<Void> updateMessageSeen(MessageStatusUpdated messageStatus) {
+		return storage.updateMessageSeen(messageStatus)
+					  .doOnSuccess(done -> invalidateUnreadCounts(Set.of(messageStatus.getUpdatedBy())));
+	}
+
+	@Override
+	public Flux<UUID> getUnreadConversationsIndices(UUID userId) {
+		return storage.getUnreadConversationsIndices(userId);
+	}
+
+	@Override
+	public Mono<Long> getUnreadConversationsCount(UUID userId) {
+		return Mono.defer(() -> unreadCounts.get(userId)
+											.map(Mono::just)
+											.orElseGet(() -> {
+												long stamp = unreadCountStamps.get(stampOf(userId));
+												return storage.getUnreadConversationsCount(userId)
+															  .doOnNext(count -> cacheUnreadCount(userId, count, stamp));
+											}));
+	}
+
+	/**
+	 * The users are taken in chunks, the counts of a chunk missing in the cache are read from the storage all at once.
+	 */
+	@Override
+	public Flux<UnreadConversationsCount> getUnreadConversationsCounts(Flux<UUID> userIds) {
+		return userIds.buffer(UNREAD_COUNTS_CHUNK_SIZE)
+					  .concatMap(this::getUnreadConversationsCounts);
+	}
+
+	private Flux<UnreadConversationsCount> getUnreadConversationsCounts(List<UUID> userIds) {
+		Map<UUID, Long> found = new HashMap<>();
+		Map<UUID, Long> missingStamps = new HashMap<>();
+		for (UUID userId : userIds) {
+			unreadCounts.get(userId)
+						.ifPresentOrElse(count -> found.put(userId, count),
+										 () -> missingStamps.put(userId, unreadCountStamps.get(stampOf(userId))));
+		}
+
+		Mono<Map<UUID, Long>> loaded = missingStamps.isEmpty()
+				? Mono.just(Map.of())
+				: storage.getUnreadConversationsCounts(Flux.fromIterable(missingStamps.keySet()))
+						 .doOnNext(count -> cacheUnreadCount(count.getUserId(), count.getCount(), missingStamps.get(count.getUserId())))
+						 .collectMap(UnreadConversationsCount::getUserId, UnreadConversationsCount::getCount);
+
+		return loaded.flatMapIterable(loadedCounts -> userIds.stream()
+															 .map(userId -> new UnreadConversationsCount(
+																	 userId, found.getOrDefault(userId, loadedCounts.getOrDefault(userId, 0L))))
+															 .collect(Collectors.toList()));
+	}
+
+	/**
+	 * The counts of this instance are invalidated at once, the other instances are told later.
+	 */
+	private void invalidateUnreadCounts(Set<UUID> userIds) {
+		for (UUID userId : userIds) {
+			invalidateUnreadCount(userId);
+			Sinks.EmitResult result;
+			do {
+				result = pendingInvalidations.tryEmitNext(userId);
+			} while (result == Sinks.EmitResult.FAIL_NON_SERIALIZED);
+		}
+	}
+
+	/**
+	 * The writes have already succeeded, a failed publication is only logged and leaves the other instances with the counts
+	 * until they expire.
+	 */
+	private Mono<Void> publishInvalidations(List<UUID> userIds) {
+		Set<UUID> distinct = new LinkedHashSet<>(userIds);
+		return unreadCountInvalidations.publish(distinct)
+									   .onErrorResume(throwable -> {
+										   log.warn("Unread counts invalidation of {} users not published: {}", distinct.size(), throwable.getMessage());
+										   return Mono.empty();
+									   });
+	}
+
+	private void invalidateUnreadCount(UUID userId) {
+		synchronized (unreadCounts) {
+			unreadCountStamps.incrementAndGet(stampOf(userId));
+			unreadCounts.invalidate(userId);
+		}
+	}
+
+	private void cacheUnreadCount(UUID userId, long count, long stampBeforeRead) {
+		synchronized (unreadCounts) {
+			if (unreadCountStamps.get(stampOf(userId)) == stampBeforeRead) {
+				unreadCounts.put(userId, count);
+			}
+		}
+	}
+
+	private static int stampOf(UUID userId) {
+		return userId.hashCode() & (UNREAD_COUNT_STAMPS - 1);
+	}
+
+	@Override
+	public Mono<ListingVersion> getUserConversationsVersion(UUID userId) {
+		return storage.getUserConversationsVersion(userId);
+	}
+
+	@Override
+	public Mono<ListingVersion> getMessagesVersion(UUID conversationId) {
+		return storage.getMessagesVersion(conversationId);
+	}
+
+	/**
+	 * Conversation is mutable, the cached instance is never handed out.
+	 */
+	private Conversation copy(Conversation conversation) {
+		return Conversation.builder()
+						   .conversationId(conversation.getConversationId())
+						   .interlocutors(conversation.getInterlocutors())
+						   .lastActivity(conversation.getLastActivity())
+						   .build();
+	}
+}
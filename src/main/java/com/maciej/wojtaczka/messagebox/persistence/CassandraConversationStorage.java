@@ -1,254 +1,873 @@
 package com.maciej.wojtaczka.messagebox.persistence;
 
-import com.datastax.oss.driver.api.core.cql.BatchStatement;
-import com.datastax.oss.driver.api.core.cql.BatchStatementBuilder;
-import com.datastax.oss.driver.api.core.cql.BatchType;
+import com.datastax.oss.driver.api.core.DefaultConsistencyLevel;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PagingState;
+import com.datastax.oss.driver.api.core.cql.Row;
 import com.datastax.oss.driver.api.core.cql.SimpleStatement;
-import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.api.core.uuid.Uuids;
 import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
 import com.maciej.wojtaczka.messagebox.domain.ConversationStorage;
 import com.maciej.wojtaczka.messagebox.domain.model.Conversation;
 import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import com.maciej.wojtaczka.messagebox.domain.model.ListingVersion;
 import com.maciej.wojtaczka.messagebox.domain.model.Message;
 import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
+import com.maciej.wojtaczka.messagebox.domain.model.Page;
+import com.maciej.wojtaczka.messagebox.domain.model.PageRequest;
+import com.maciej.wojtaczka.messagebox.domain.model.UnreadConversationsCount;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.cassandra.ReactiveResultSet;
 import org.springframework.data.cassandra.core.ReactiveCassandraOperations;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-import static com.datastax.oss.driver.api.querybuilder.QueryBuilder.literal;
+import static com.datastax.oss.driver.api.querybuilder.QueryBuilder.bindMarker;
 
 @Repository
 public class CassandraConversationStorage implements ConversationStorage {
 
-	private final ReactiveCassandraOperations cassandraOperations;
+	private static final SimpleStatement INSERT_MESSAGE =
+			QueryBuilder.insertInto("message_box", "message")
+						.value("author_id", bindMarker())
+						.value("time", bindMarker())
+						.value("content", bindMarker())
+						.value("conversation_id", bindMarker())
+						.value("status_code", bindMarker())
+						.build();
+
+	static final SimpleStatement INSERT_BUCKETED_MESSAGE =
+			QueryBuilder.insertInto("message_box", "message_by_bucket")
+						.value("conversation_id", bindMarker())
+						.value("bucket", bindMarker())
+						.value("time", bindMarker())
+						.value("author_id", bindMarker())
+						.value("content", bindMarker())
+						.value("status_code", bindMarker())
+						.build();
+
+	static final SimpleStatement INSERT_MESSAGE_BUCKET =
+			QueryBuilder.insertInto("message_box", "message_bucket")
+						.value("conversation_id", bindMarker())
+						.value("bucket", bindMarker())
+						.build();
+
+	/**
+	 * Written with the activity as the write time, so the latest activity wins regardless of the order the messages arrive in.
+	 * The activity is also recorded in the set of activities whose index rows are still to be replaced, and the recipients
+	 * in the set of users who have the conversation unread.
+	 */
+	private static final SimpleStatement ADVANCE_CONVERSATION_LAST_ACTIVITY =
+			QueryBuilder.update("message_box", "conversation")
+						.usingTimestamp(bindMarker())
+						.setColumn("last_activity", bindMarker())
+						.append("activities", bindMarker())
+						.append("unread_by", bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build()
+						.setConsistencyLevel(DefaultConsistencyLevel.LOCAL_QUORUM);
+
+	/**
+	 * Written with the time of the status as the write time, so a message later than the status marks the conversation unread again
+	 * whatever order they arrive in.
+	 */
+	private static final SimpleStatement CLEAR_CONVERSATION_UNREAD =
+			QueryBuilder.update("message_box", "conversation")
+						.usingTimestamp(bindMarker())
+						.remove("unread_by", bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement SELECT_CONVERSATION_UNREAD_BY =
+			QueryBuilder.selectFrom("message_box", "conversation")
+						.column("unread_by")
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement REMOVE_CONVERSATION_ACTIVITIES =
+			QueryBuilder.update("message_box", "conversation")
+						.usingTimestamp(bindMarker())
+						.remove("activities", bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement SELECT_CONVERSATION_ACTIVITIES =
+			QueryBuilder.selectFrom("message_box", "conversation")
+						.column("interlocutors")
+						.column("activities")
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build()
+						.setConsistencyLevel(DefaultConsistencyLevel.LOCAL_QUORUM);
+
+	static final SimpleStatement INSERT_CONVERSATION_BY_ACTIVITY =
+			QueryBuilder.insertInto("message_box", "conversation_by_activity")
+						.value("user_id", bindMarker())
+						.value("last_activity", bindMarker())
+						.value("conversation_id", bindMarker())
+						.value("interlocutors", bindMarker())
+						.build();
+
+	static final SimpleStatement DELETE_CONVERSATION_BY_ACTIVITY =
+			QueryBuilder.deleteFrom("message_box", "conversation_by_activity")
+						.usingTimestamp(bindMarker())
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.whereColumn("last_activity").isEqualTo(bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build();
+
+	static final SimpleStatement INSERT_UNREAD_CONVERSATION =
+			QueryBuilder.insertInto("message_box", "conversation_unread")
+						.value("user_id", bindMarker())
+						.value("conversation_id", bindMarker())
+						.build();
+
+	static final SimpleStatement SELECT_UNREAD_CONVERSATION =
+			QueryBuilder.selectFrom("message_box", "conversation_unread")
+						.column("conversation_id")
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement INCREMENT_UNREAD_COUNT =
+			QueryBuilder.update("message_box", "conversation_unread_count")
+						.increment("unread")
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement DECREMENT_UNREAD_COUNT =
+			QueryBuilder.update("message_box", "conversation_unread_count")
+						.decrement("unread")
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement SELECT_UNREAD_COUNT =
+			QueryBuilder.selectFrom("message_box", "conversation_unread_count")
+						.column("unread")
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	static final SimpleStatement SELECT_MESSAGES =
+			QueryBuilder.selectFrom("message_box", "message")
+						.all()
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build();
+
+	static final SimpleStatement SELECT_MESSAGE_BUCKETS =
+			QueryBuilder.selectFrom("message_box", "message_bucket")
+						.column("bucket")
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build();
+
+	static final SimpleStatement SELECT_BUCKETED_MESSAGES =
+			QueryBuilder.selectFrom("message_box", "message_by_bucket")
+						.all()
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.whereColumn("bucket").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement SELECT_CONVERSATION =
+			QueryBuilder.selectFrom("message_box", "conversation")
+						.all()
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.limit(1)
+						.build();
+
+	/**
+	 * Written with the watermark as the write time, so the greatest watermark wins regardless of the order the updates arrive in.
+	 */
+	private static final SimpleStatement ADVANCE_SEEN_WATERMARK =
+			QueryBuilder.update("message_box", "message_status_watermark")
+						.usingTimestamp(bindMarker())
+						.setColumn("delivered_up_to", bindMarker())
+						.setColumn("seen_up_to", bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement ADVANCE_DELIVERED_WATERMARK =
+			QueryBuilder.update("message_box", "message_status_watermark")
+						.usingTimestamp(bindMarker())
+						.setColumn("delivered_up_to", bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	static final SimpleStatement SELECT_STATUS_WATERMARKS =
+			QueryBuilder.selectFrom("message_box", "message_status_watermark")
+						.all()
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build();
+
+	static final SimpleStatement DELETE_UNREAD_CONVERSATION =
+			QueryBuilder.deleteFrom("message_box", "conversation_unread")
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement SELECT_UNREAD_CONVERSATIONS =
+			QueryBuilder.selectFrom("message_box", "conversation_unread")
+						.all()
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement SELECT_CONVERSATIONS_BY_ACTIVITY =
+			QueryBuilder.selectFrom("message_box", "conversation_by_activity")
+						.all()
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement INSERT_CONVERSATION =
+			QueryBuilder.insertInto("message_box", "conversation")
+						.value("conversation_id", bindMarker())
+						.value("interlocutors", bindMarker())
+						.value("last_activity", bindMarker())
+						.usingTimestamp(bindMarker())
+						.build();
+
+	private static final SimpleStatement INSERT_CONVERSATION_BY_ACTIVITY_AT =
+			QueryBuilder.insertInto("message_box", "conversation_by_activity")
+						.value("user_id", bindMarker())
+						.value("last_activity", bindMarker())
+						.value("conversation_id", bindMarker())
+						.value("interlocutors", bindMarker())
+						.usingTimestamp(bindMarker())
+						.build();
+
+	private static final SimpleStatement UPDATE_USER_CONVERSATIONS_VERSION =
+			QueryBuilder.update("message_box", "user_conversations_version")
+						.setColumn("version", bindMarker())
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	/**
+	 * Written with the last activity as the write time, so the latest activity wins regardless of the order the writes arrive in.
+	 */
+	private static final SimpleStatement ADVANCE_USER_CONVERSATIONS_LAST_MODIFIED =
+			QueryBuilder.update("message_box", "user_conversations_version")
+						.usingTimestamp(bindMarker())
+						.setColumn("last_modified", bindMarker())
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement SELECT_USER_CONVERSATIONS_VERSION =
+			QueryBuilder.selectFrom("message_box", "user_conversations_version")
+						.all()
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement UPDATE_CONVERSATION_MESSAGES_VERSION =
+			QueryBuilder.update("message_box", "conversation_messages_version")
+						.setColumn("version", bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement ADVANCE_CONVERSATION_MESSAGES_LAST_MODIFIED =
+			QueryBuilder.update("message_box", "conversation_messages_version")
+						.usingTimestamp(bindMarker())
+						.setColumn("last_modified", bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement SELECT_CONVERSATION_MESSAGES_VERSION =
+			QueryBuilder.selectFrom("message_box", "conversation_messages_version")
+						.all()
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build();
 
-	public CassandraConversationStorage(ReactiveCassandraOperations cassandraOperations) {
+	private final ReactiveCassandraOperations cassandraOperations;
+	private final PreparedStatementRegistry preparedStatements;
+	private final PartitionAwareWriter writer;
+	private final CassandraMessageOutbox outbox;
+	private final MessageLayout messageLayout;
+	private final MessageBuckets messageBuckets;
+	private final int maxReadsInFlight;
+	private final int streamPageSize;
+	private final MessageRowMapper messageRowMapper = new MessageRowMapper();
+
+	public CassandraConversationStorage(ReactiveCassandraOperations cassandraOperations,
+										PreparedStatementRegistry preparedStatements,
+										PartitionAwareWriter writer,
+										CassandraMessageOutbox outbox,
+										@Value("${message-box.cassandra.message-layout:LEGACY}") MessageLayout messageLayout,
+										@Value("${message-box.cassandra.message-bucket-size:P30D}") Duration messageBucketSize,
+										@Value("${message-box.cassandra.read.max-in-flight:32}") int maxReadsInFlight,
+										@Value("${message-box.cassandra.read.stream-page-size:100}") int streamPageSize) {
 		this.cassandraOperations = cassandraOperations;
+		this.preparedStatements = preparedStatements;
+		this.writer = writer;
+		this.outbox = outbox;
+		this.messageLayout = messageLayout;
+		this.messageBuckets = new MessageBuckets(messageBucketSize);
+		this.maxReadsInFlight = maxReadsInFlight;
+		this.streamPageSize = streamPageSize;
 	}
 
 	@Override
 	public Mono<Void> storeNewMessage(Envelope<Message> envelope) {
-		BatchStatementBuilder statementsBuilder = BatchStatement.builder(BatchType.LOGGED);
-
-		Message message = envelope.getPayload();
-		SimpleStatement messageInsert = QueryBuilder.insertInto("message_box", "message")
-													.value("author_id", literal(message.getAuthorId()))
-													.value("time", literal(message.getTime()))
-													.value("content", literal(message.getContent()))
-													.value("conversation_id", literal(message.getConversationId()))
-													.value("status_by", literal(convertMapValuesToString(message.getStatusByInterlocutor())))
-													.build();
-		statementsBuilder.addStatement(messageInsert);
-
-		SimpleStatement updateConversationLastActivity =
-				QueryBuilder.update("message_box", "conversation")
-							.setColumn("last_activity", literal(message.getTime()))
-							.whereColumn("conversation_id").isEqualTo(literal(message.getConversationId()))
-							.build();
-		statementsBuilder.addStatements(updateConversationLastActivity);
-
-		ArrayList<UUID> usersIdsWeNeedToUpdateConversations = new ArrayList<>(envelope.getRecipients());
-		usersIdsWeNeedToUpdateConversations.add(message.getAuthorId());
-
-		for (UUID userId : usersIdsWeNeedToUpdateConversations) {
-
-			SimpleStatement insertUpdatedWithLastActivityConversationByUser =
-					QueryBuilder.insertInto("message_box", "conversation_by_user")
-								.value("conversation_id", literal(message.getConversationId()))
-								.value("last_activity", literal(message.getTime()))
-								.value("user_id", literal(userId))
-								.build();
-
-			SimpleStatement insertUnreadConversation = QueryBuilder.insertInto("message_box", "conversation_unread")
-																   .value("user_id", literal(userId))
-																   .value("conversation_id", literal(message.getConversationId()))
-																   .build();
-
-			if (userId.equals(message.getAuthorId())) {
-				statementsBuilder.addStatements(insertUpdatedWithLastActivityConversationByUser);
-			} else {
-				statementsBuilder.addStatements(insertUpdatedWithLastActivityConversationByUser, insertUnreadConversation);
+		return storeNewMessages(List.of(envelope));
+	}
+
+	/**
+	 * The users having each conversation unread are read first, one read per conversation, then all the statements go in one write,
+	 * grouped per partition by the writer. Once written, the activity rows shadowed by a later activity of the conversation are removed.
+	 */
+	@Override
+	public Mono<Void> storeNewMessages(List<Envelope<Message>> envelopes, Map<UUID, Conversation> conversations) {
+		return storeNewMessages(envelopes, conversations, false);
+	}
+
+	@Override
+	public Mono<Void> storeNewMessagesToDeliver(List<Envelope<Message>> envelopes, Map<UUID, Conversation> conversations) {
+		return storeNewMessages(envelopes, conversations, true);
+	}
+
+	private Mono<Void> storeNewMessages(List<Envelope<Message>> envelopes, Map<UUID, Conversation> conversations, boolean toDeliver) {
+		Map<UUID, List<Envelope<Message>>> envelopesByConversation =
+				envelopes.stream()
+						 .collect(Collectors.groupingBy(envelope -> envelope.getPayload().getConversationId(),
+														LinkedHashMap::new,
+														Collectors.toList()));
+
+		return Flux.fromIterable(envelopesByConversation.entrySet())
+				   .flatMap(conversationEnvelopes -> newMessagesStatements(conversationEnvelopes.getValue(),
+																		   conversations.get(conversationEnvelopes.getKey())),
+							maxReadsInFlight)
+				   .collectList()
+				   .flatMap(statements -> {
+					   List<Mono<BoundStatement>> allStatements = statements.stream()
+																			.flatMap(List::stream)
+																			.collect(Collectors.toCollection(ArrayList::new));
+					   if (toDeliver) {
+						   envelopes.forEach(envelope -> allStatements.add(outbox.enqueueing(envelope)));
+					   }
+					   return write(allStatements);
+				   })
+				   .then(Flux.fromIterable(envelopesByConversation.keySet())
+							 .flatMap(this::removeShadowedActivities, maxReadsInFlight)
+							 .then());
+	}
+
+	private Mono<List<Mono<BoundStatement>>> newMessagesStatements(List<Envelope<Message>> conversationEnvelopes, Conversation conversation) {
+		UUID conversationId = conversationEnvelopes.get(0).getPayload().getConversationId();
+		Set<UUID> recipients = conversationEnvelopes.stream()
+													.flatMap(envelope -> envelope.getRecipients().stream())
+													.collect(Collectors.toSet());
+		//timestamps are stored with millisecond precision
+		Instant lastActivity = conversationEnvelopes.stream()
+													.map(envelope -> envelope.getPayload().getTime())
+													.max(Comparator.naturalOrder())
+													.orElseThrow()
+													.truncatedTo(ChronoUnit.MILLIS);
+
+		//unread counter goes up only for the recipients who have not had the conversation unread yet, messages stored concurrently
+		//may both count the same recipient, the reconciliation repairs such a counter
+		Mono<Set<UUID>> newlyUnreadBy = getUnreadBy(conversationId)
+				.map(unreadBy -> recipients.stream()
+										   .filter(userId -> !unreadBy.contains(userId))
+										   .collect(Collectors.toSet()));
+
+		Instant knownActivity = conversation == null ? null : conversation.getLastActivity();
+		return newlyUnreadBy.map(unreadBy -> newMessagesStatements(conversationEnvelopes, recipients, lastActivity, knownActivity, unreadBy));
+	}
+
+	private Mono<Set<UUID>> getUnreadBy(UUID conversationId) {
+		return preparedStatements.bind(SELECT_CONVERSATION_UNREAD_BY, conversationId)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .next()
+								 .map(row -> row.getSet("unread_by", UUID.class))
+								 .defaultIfEmpty(Set.of());
+	}
+
+	/**
+	 * Only the latest of the messages moves the activity of the conversation, the activity rows of the earlier ones are never written,
+	 * nor is the row of messages no later than the activity the conversation was known to have.
+	 * The activity rows are written and removed at the write time of their activity, so the removal of a row wins over its writing
+	 * whatever order they arrive in. The row of the activity the conversation was known to have is removed right away, the rows of
+	 * activities written concurrently are left to {@link #removeShadowedActivities(UUID)}.
+	 */
+	private List<Mono<BoundStatement>> newMessagesStatements(List<Envelope<Message>> conversationEnvelopes, Set<UUID> recipients,
+															 Instant lastActivity, Instant knownActivity, Set<UUID> newlyUnreadBy) {
+		List<Mono<BoundStatement>> statements = new ArrayList<>();
+		Set<UUID> interlocutors = new HashSet<>(recipients);
+		for (Envelope<Message> envelope : conversationEnvelopes) {
+			Message message = envelope.getPayload();
+			statements.addAll(messageInsertion(message));
+			interlocutors.add(message.getAuthorId());
+		}
+		UUID conversationId = conversationEnvelopes.get(0).getPayload().getConversationId();
+		long writeTime = writeTimeOf(lastActivity);
+		boolean replacesKnownActivity = knownActivity != null && knownActivity.isBefore(lastActivity);
+		boolean movesActivity = knownActivity == null || replacesKnownActivity;
+
+		statements.add(preparedStatements.bind(ADVANCE_CONVERSATION_LAST_ACTIVITY,
+											   writeTime,
+											   lastActivity,
+											   movesActivity ? Set.of(lastActivity) : Set.of(),
+											   recipients,
+											   conversationId));
+		if (replacesKnownActivity) {
+			statements.add(preparedStatements.bind(REMOVE_CONVERSATION_ACTIVITIES, writeTime, Set.of(knownActivity), conversationId));
+		}
+
+		UUID version = Uuids.timeBased();
+		statements.addAll(messagesVersionUpdate(conversationId, version, lastActivity));
+
+		for (UUID userId : interlocutors) {
+			if (replacesKnownActivity) {
+				statements.add(preparedStatements.bind(DELETE_CONVERSATION_BY_ACTIVITY, writeTime, userId, knownActivity, conversationId));
+			}
+			if (movesActivity) {
+				statements.add(preparedStatements.bind(INSERT_CONVERSATION_BY_ACTIVITY_AT,
+													   userId,
+													   lastActivity,
+													   conversationId,
+													   interlocutors,
+													   writeTime));
+			}
+
+			statements.addAll(userConversationsVersionUpdate(userId, version, lastActivity));
+
+			if (recipients.contains(userId)) {
+				statements.add(preparedStatements.bind(INSERT_UNREAD_CONVERSATION, userId, conversationId));
+			}
+			if (newlyUnreadBy.contains(userId)) {
+				statements.add(preparedStatements.bind(INCREMENT_UNREAD_COUNT, userId));
 			}
 		}
 
-		return cassandraOperations.execute(statementsBuilder.build())
-								  .flatMap(result -> {
-									  if (result.wasApplied()) {
-										  return Mono.empty();
-									  } else {
-										  List<Map.Entry<Node, Throwable>> errors = result.getExecutionInfo().getErrors();
-										  if (errors.size() > 1) {
-											  Throwable throwable = errors.get(0).getValue();
-											  return Mono.error(throwable);
-										  }
-										  return Mono.error(() -> new RuntimeException("Unknown cql error"));
-									  }
-								  });
+		return statements;
 	}
 
-	public Flux<Message> fetchConversationMessages(UUID conversationId) {
-		SimpleStatement selectMessages = QueryBuilder.selectFrom("message_box", "message")
-													 .all()
-													 .whereColumn("conversation_id").isEqualTo(literal(conversationId))
-													 .build();
+	/**
+	 * Every message records its activity on the conversation before this read, so of two concurrent messages at least the later
+	 * reader sees both activities, both records and reads go at local quorum for that. All the activities but the latest are removed,
+	 * together with their index rows, at the write time of the latest one, which makes the removal win over any late or repeated write
+	 * of them and leaves the index with a single row of the conversation. Plain writes only, removing the same activity twice is harmless.
+	 */
+	private Mono<Void> removeShadowedActivities(UUID conversationId) {
+		return preparedStatements.bind(SELECT_CONVERSATION_ACTIVITIES, conversationId)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .next()
+								 .flatMap(row -> {
+									 Set<Instant> activities = row.getSet("activities", Instant.class);
+									 if (activities.size() < 2) {
+										 return Mono.empty();
+									 }
+									 Instant latest = Collections.max(activities);
+									 Set<Instant> shadowed = activities.stream()
+																	   .filter(activity -> activity.isBefore(latest))
+																	   .collect(Collectors.toSet());
+									 long writeTime = writeTimeOf(latest);
+
+									 List<Mono<BoundStatement>> statements = new ArrayList<>();
+									 statements.add(preparedStatements.bind(REMOVE_CONVERSATION_ACTIVITIES, writeTime, shadowed, conversationId));
+									 for (UUID userId : row.getSet("interlocutors", UUID.class)) {
+										 for (Instant activity : shadowed) {
+											 statements.add(preparedStatements.bind(DELETE_CONVERSATION_BY_ACTIVITY, writeTime, userId, activity, conversationId));
+										 }
+									 }
+									 return write(statements);
+								 });
+	}
 
-		return cassandraOperations.execute(selectMessages)
-								  .flatMapMany(ReactiveResultSet::rows)
-								  .map(row -> Message.builder()
-													 .conversationId(row.getUuid("conversation_id"))
-													 .authorId(row.getUuid("author_id"))
-													 .time(row.getInstant("time"))
-													 .content(row.getString("content"))
-													 .statusByInterlocutor(
-															 convertMapValuesToStatus(row.getMap("status_by", UUID.class, String.class)))
-													 .build());
+	private List<Mono<BoundStatement>> messageInsertion(Message message) {
+		List<Mono<BoundStatement>> statements = new ArrayList<>();
+		Map<UUID, Byte> statusCodes = MessageStatusCodec.encode(message.getStatusByInterlocutor());
+
+		if (messageLayout.writesLegacyTable()) {
+			statements.add(preparedStatements.bind(INSERT_MESSAGE,
+												   message.getAuthorId(),
+												   message.getTime(),
+												   message.getContent(),
+												   message.getConversationId(),
+												   statusCodes));
+		}
+		if (messageLayout.writesBucketedTable()) {
+			long bucket = messageBuckets.bucketOf(message.getTime());
+			statements.add(preparedStatements.bind(INSERT_BUCKETED_MESSAGE,
+												   message.getConversationId(),
+												   bucket,
+												   message.getTime(),
+												   message.getAuthorId(),
+												   message.getContent(),
+												   statusCodes));
+			statements.add(preparedStatements.bind(INSERT_MESSAGE_BUCKET, message.getConversationId(), bucket));
+		}
+
+		return statements;
+	}
+
+	public Flux<Message> fetchConversationMessages(UUID conversationId) {
+		return getMessages(conversationId);
 	}
 
 	@Override
 	public Mono<Conversation> getConversation(UUID conversationId) {
-		SimpleStatement selectConversation = QueryBuilder.selectFrom("message_box", "conversation")
-														 .all()
-														 .whereColumn("conversation_id").isEqualTo(literal(conversationId))
-														 .limit(1)
-														 .build();
-
-		return cassandraOperations.execute(selectConversation)
-								  .flatMapMany(ReactiveResultSet::rows)
-								  .next()
-								  .map(row -> {
-									  UUID id = row.getUuid("conversation_id");
-									  Set<UUID> interlocutors = row.getSet("interlocutors", UUID.class);
-									  Instant lastActivityTime = row.getInstant("last_activity");
-									  return Conversation.builder().conversationId(id)
-														 .interlocutors(interlocutors)
-														 .lastActivity(lastActivityTime)
-														 .build();
-								  });
+		return preparedStatements.bind(SELECT_CONVERSATION, conversationId)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .next()
+								 .map(this::toConversation);
+	}
+
+	/**
+	 * Point reads of single partitions routed token-aware by the driver, at most max-in-flight of them at a time.
+	 * IN queries over many partitions would put the whole fan-out on one coordinator instead.
+	 */
+	@Override
+	public Flux<Conversation> getConversations(Collection<UUID> conversationIds) {
+		return Flux.fromIterable(new LinkedHashSet<>(conversationIds))
+				   .flatMapSequential(this::getConversation, maxReadsInFlight);
 	}
 
 	@Override
 	public Flux<Message> getMessages(UUID conversationId) {
-		SimpleStatement selectMessages = QueryBuilder.selectFrom("message_box", "message")
-													 .all()
-													 .whereColumn("conversation_id").isEqualTo(literal(conversationId))
-													 .build();
+		return getStatusWatermarks(conversationId)
+				.flatMapMany(watermarks -> readMessages(conversationId).map(watermarks::apply));
+	}
+
+	@Override
+	public Mono<Page<Message>> getMessages(UUID conversationId, PageRequest pageRequest) {
+		return Mono.zip(getStatusWatermarks(conversationId), readMessages(conversationId, pageRequest))
+				   .map(watermarksAndPage -> {
+					   StatusWatermarks watermarks = watermarksAndPage.getT1();
+					   Page<Message> page = watermarksAndPage.getT2();
+					   List<Message> messages = page.getContent().stream()
+													.map(watermarks::apply)
+													.collect(Collectors.toList());
+					   return Page.of(messages, page.getNextCursor().orElse(null));
+				   });
+	}
+
+	private Mono<StatusWatermarks> getStatusWatermarks(UUID conversationId) {
+		return preparedStatements.bind(SELECT_STATUS_WATERMARKS, conversationId)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .collectList()
+								 .map(StatusWatermarks::from);
+	}
+
+	/**
+	 * Rows are fetched page by page as they are requested, so a slow consumer holds at most a page of rows in memory.
+	 */
+	private Flux<Message> readMessages(UUID conversationId) {
+		if (messageLayout.readsBucketedTable()) {
+			return getMessageBuckets(conversationId)
+					.concatMap(bucket -> preparedStatements.bind(SELECT_BUCKETED_MESSAGES, conversationId, bucket)
+														   .map(statement -> statement.setPageSize(streamPageSize))
+														   .flatMap(cassandraOperations::execute)
+														   .flatMapMany(ReactiveResultSet::rows))
+					.map(messageRowMapper::map);
+		}
+		return preparedStatements.bind(SELECT_MESSAGES, conversationId)
+								 .map(statement -> statement.setPageSize(streamPageSize))
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .map(messageRowMapper::map);
+	}
 
-		return cassandraOperations.execute(selectMessages)
-								  .flatMapMany(ReactiveResultSet::rows)
-								  .map(row -> Message.builder()
-													 .conversationId(row.getUuid("conversation_id"))
-													 .authorId(row.getUuid("author_id"))
-													 .content(row.getString("content"))
-													 .time(row.getInstant("time"))
-													 .statusByInterlocutor(
-															 convertMapValuesToStatus(row.getMap("status_by", UUID.class, String.class)))
-													 .build());
+	private Mono<Page<Message>> readMessages(UUID conversationId, PageRequest pageRequest) {
+		if (messageLayout.readsBucketedTable()) {
+			return getBucketedMessages(conversationId, pageRequest);
+		}
+		return preparedStatements.bind(SELECT_MESSAGES, conversationId)
+								 .map(statement -> PagingCursor.resume(statement.setPageSize(pageRequest.getLimit()),
+																	   pageRequest.getCursor()
+																				  .map(PagingCursor::decode)
+																				  .orElse(null)))
+								 .flatMap(cassandraOperations::execute)
+								 .flatMap(resultSet -> resultSet.availableRows()
+																.map(messageRowMapper::map)
+																.collectList()
+																.map(messages -> Page.of(messages, PagingCursor.encode(
+																		resultSet.getExecutionInfo().getSafePagingState()))));
+	}
+
+	/**
+	 * Walks the buckets newest first, filling the page from as many buckets as needed.
+	 * The cursor points at the bucket and the paging state within it where the next page starts.
+	 */
+	private Mono<Page<Message>> getBucketedMessages(UUID conversationId, PageRequest pageRequest) {
+		Optional<PagingCursor.BucketPosition> position = pageRequest.getCursor().map(PagingCursor::decodeBucketPosition);
+
+		return getMessageBuckets(conversationId)
+				.filter(bucket -> position.map(p -> bucket <= p.getBucket()).orElse(true))
+				.collectList()
+				.flatMap(buckets -> {
+					PagingState pagingState = position.filter(p -> !buckets.isEmpty() && buckets.get(0) == p.getBucket())
+													 .map(PagingCursor.BucketPosition::getPagingState)
+													 .orElse(null);
+					return readBuckets(conversationId, buckets, 0, pagingState, pageRequest.getLimit(), new ArrayList<>());
+				});
+	}
+
+	private Mono<Page<Message>> readBuckets(UUID conversationId, List<Long> buckets, int index, PagingState pagingState,
+											int remaining, List<Message> messages) {
+		if (index >= buckets.size()) {
+			return Mono.just(Page.of(messages, null));
+		}
+		long bucket = buckets.get(index);
+
+		return preparedStatements.bind(SELECT_BUCKETED_MESSAGES, conversationId, bucket)
+								 .map(statement -> PagingCursor.resume(statement.setPageSize(remaining), pagingState))
+								 .flatMap(cassandraOperations::execute)
+								 .flatMap(resultSet -> resultSet.availableRows()
+																.map(messageRowMapper::map)
+																.collectList()
+																.flatMap(bucketMessages -> {
+																	messages.addAll(bucketMessages);
+																	PagingState nextPagingState = resultSet.getExecutionInfo().getSafePagingState();
+																	if (nextPagingState != null) {
+																		return Mono.just(Page.of(messages, PagingCursor.encode(bucket, nextPagingState)));
+																	}
+																	boolean lastBucket = index + 1 >= buckets.size();
+																	if (lastBucket) {
+																		return Mono.just(Page.of(messages, null));
+																	}
+																	int left = remaining - bucketMessages.size();
+																	if (left <= 0) {
+																		return Mono.just(Page.of(messages, PagingCursor.encode(buckets.get(index + 1), null)));
+																	}
+																	return readBuckets(conversationId, buckets, index + 1, null, left, messages);
+																}));
+	}
+
+	private Flux<Long> getMessageBuckets(UUID conversationId) {
+		return preparedStatements.bind(SELECT_MESSAGE_BUCKETS, conversationId)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .map(row -> row.getLong("bucket"));
 	}
 
 	@Override
 	public Mono<Void> updateMessageSeen(MessageStatusUpdated messageStatus) {
-		SimpleStatement updateSeenBy = QueryBuilder.update("message_box", "message")
-												   .appendMapEntry("status_by",
-																   literal(messageStatus.getUpdatedBy()),
-																   literal(messageStatus.getStatus().name()))
-												   .whereColumn("conversation_id").isEqualTo(literal(messageStatus.getConversationId()))
-												   .whereColumn("time").isEqualTo(literal(messageStatus.getTime()))
-												   .whereColumn("author_id").isEqualTo(literal(messageStatus.getAuthorId()))
-												   .build();
-		SimpleStatement removeUnreadConversation = QueryBuilder.deleteFrom("message_box", "conversation_unread")
-															   .whereColumn("user_id").isEqualTo(literal(messageStatus.getUpdatedBy()))
-															   .whereColumn("conversation_id").isEqualTo(literal(messageStatus.getConversationId()))
-															   .build();
-		BatchStatement statements = BatchStatement.builder(BatchType.LOGGED)
-												  .addStatements(updateSeenBy, removeUnreadConversation)
-												  .build();
-		return cassandraOperations.execute(statements)
-								  .then();
+		return unreadConversationRemoval(messageStatus.getUpdatedBy(), messageStatus.getConversationId(), messageStatus.getTime())
+				.flatMap(unreadConversationRemoval -> {
+					List<Mono<BoundStatement>> statements = new ArrayList<>(unreadConversationRemoval);
+					statements.add(watermarkAdvance(messageStatus));
+					statements.addAll(messagesVersionUpdate(messageStatus.getConversationId(), Uuids.timeBased(), null));
+					return write(statements);
+				});
+	}
+
+	/**
+	 * A status of a message moves the watermark of the user up to the message, one write regardless of how many messages it covers.
+	 * Seen implies delivered. The write time is capped at now, a status from the future would shadow the later ones.
+	 */
+	private Mono<BoundStatement> watermarkAdvance(MessageStatusUpdated messageStatus) {
+		Instant upTo = messageStatus.getTime();
+		long writeTime = writeTimeOf(upTo);
+
+		if (messageStatus.getStatus() == MessageStatusUpdated.Status.SEEN) {
+			return preparedStatements.bind(ADVANCE_SEEN_WATERMARK,
+										   writeTime,
+										   upTo,
+										   upTo,
+										   messageStatus.getConversationId(),
+										   messageStatus.getUpdatedBy());
+		}
+		return preparedStatements.bind(ADVANCE_DELIVERED_WATERMARK,
+									   writeTime,
+									   upTo,
+									   messageStatus.getConversationId(),
+									   messageStatus.getUpdatedBy());
 	}
 
 	public Mono<Void> removeUnreadConversation(UUID conversationId, UUID userId) {
-		SimpleStatement removeUnreadConversation = QueryBuilder.deleteFrom("message_box", "conversation_unread")
-															   .whereColumn("user_id").isEqualTo(literal(userId))
-															   .whereColumn("conversation_id").isEqualTo(literal(conversationId))
-															   .build();
-		return cassandraOperations.execute(removeUnreadConversation)
-								  .then();
+		return unreadConversationRemoval(userId, conversationId, Instant.now())
+				.flatMap(this::write);
+	}
+
+	/**
+	 * Unread counter goes down only when the conversation was still unread, so repeated removals do not decrease it.
+	 */
+	private Mono<List<Mono<BoundStatement>>> unreadConversationRemoval(UUID userId, UUID conversationId, Instant readUpTo) {
+		Mono<BoundStatement> unreadByClearing = preparedStatements.bind(CLEAR_CONVERSATION_UNREAD, writeTimeOf(readUpTo), Set.of(userId), conversationId);
+		return isUnread(userId, conversationId)
+				.map(unread -> {
+					if (!unread) {
+						return List.of(unreadByClearing);
+					}
+					return List.of(unreadByClearing,
+								   preparedStatements.bind(DELETE_UNREAD_CONVERSATION, userId, conversationId),
+								   preparedStatements.bind(DECREMENT_UNREAD_COUNT, userId));
+				});
+	}
+
+	private Mono<Boolean> isUnread(UUID userId, UUID conversationId) {
+		return preparedStatements.bind(SELECT_UNREAD_CONVERSATION, userId, conversationId)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .hasElements();
 	}
 
 	@Override
-	public Flux<UUID> getUnreadConversationsIndices(UUID userId) {
-		SimpleStatement getUnreadConversations = QueryBuilder.selectFrom("message_box", "conversation_unread")
-															 .all()
-															 .whereColumn("user_id").isEqualTo(literal(userId))
-															 .build();
+	public Mono<Long> getUnreadConversationsCount(UUID userId) {
+		return preparedStatements.bind(SELECT_UNREAD_COUNT, userId)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .next()
+								 .map(row -> Math.max(0L, row.getLong("unread")))
+								 .defaultIfEmpty(0L);
+	}
 
-		return cassandraOperations.execute(getUnreadConversations)
-								  .flatMapMany(ReactiveResultSet::rows)
-								  .mapNotNull(row -> row.getUuid("conversation_id"));
+	/**
+	 * Point reads of the counters like {@link #getConversations(Collection)}, at most max-in-flight of them at a time.
+	 */
+	@Override
+	public Flux<UnreadConversationsCount> getUnreadConversationsCounts(Flux<UUID> userIds) {
+		return userIds.flatMapSequential(userId -> getUnreadConversationsCount(userId).map(count -> new UnreadConversationsCount(userId, count)),
+										 maxReadsInFlight);
+	}
+
+	@Override
+	public Flux<UUID> getUnreadConversationsIndices(UUID userId) {
+		return preparedStatements.bind(SELECT_UNREAD_CONVERSATIONS, userId)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .mapNotNull(row -> row.getUuid("conversation_id"));
 	}
 
 	@Override
 	public Flux<Conversation> getUserConversations(UUID userId) {
-		SimpleStatement selectConversations = QueryBuilder.selectFrom("message_box", "conversation_by_user")
-														  .all()
-														  .whereColumn("user_id").isEqualTo(literal(userId))
-														  .build();
+		return preparedStatements.bind(SELECT_CONVERSATIONS_BY_ACTIVITY, userId)
+								 .map(statement -> statement.setPageSize(streamPageSize))
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .map(this::toConversation);
+	}
 
-		return cassandraOperations.execute(selectConversations)
-								  .flatMapMany(ReactiveResultSet::rows)
-								  .mapNotNull(row -> row.getUuid("conversation_id"))
-								  .flatMap(this::getConversation)
-								  //TODO think off better solution - should be sorted in DB already in case pagination introduction
-								  .sort(Comparator.comparing(Conversation::getLastActivity).reversed());
+	@Override
+	public Mono<Page<Conversation>> getUserConversations(UUID userId, PageRequest pageRequest) {
+		return preparedStatements.bind(SELECT_CONVERSATIONS_BY_ACTIVITY, userId)
+								 .map(statement -> PagingCursor.resume(statement.setPageSize(pageRequest.getLimit()),
+																	   pageRequest.getCursor()
+																				  .map(PagingCursor::decode)
+																				  .orElse(null)))
+								 .flatMap(cassandraOperations::execute)
+								 .flatMap(resultSet -> resultSet.availableRows()
+																.map(this::toConversation)
+																.collectList()
+																.map(conversations -> Page.of(conversations, PagingCursor.encode(
+																		resultSet.getExecutionInfo().getSafePagingState()))));
 	}
 
 	@Override
 	public Mono<Void> insertConversation(Conversation conversation) {
-		BatchStatementBuilder batchStatementBuilder = BatchStatement.builder(BatchType.LOGGED);
-
-		SimpleStatement insertConversation = QueryBuilder.insertInto("message_box", "conversation")
-														 .value("conversation_id", literal(conversation.getConversationId()))
-														 .value("interlocutors", literal(conversation.getInterlocutors()))
-														 .value("last_activity", literal(conversation.getLastActivity()))
-														 .build();
-		batchStatementBuilder.addStatements(insertConversation);
-
-		for (UUID userId : conversation.getInterlocutors()) {
-			SimpleStatement insertConversationByUser = QueryBuilder.insertInto("message_box", "conversation_by_user")
-																   .value("conversation_id", literal(conversation.getConversationId()))
-																   .value("last_activity", literal(conversation.getLastActivity())) //todo
-																   .value("user_id", literal(userId))
-																   .build();
-			batchStatementBuilder.addStatements(insertConversationByUser);
+		return insertConversations(List.of(conversation));
+	}
+
+	/**
+	 * The conversations are written with their last activity as the write time, so inserting a conversation again
+	 * never overrides what the messages of the conversation have written since, nor brings back its deleted activity rows.
+	 */
+	@Override
+	public Mono<Void> insertConversations(Collection<Conversation> conversations) {
+		List<Mono<BoundStatement>> statements = new ArrayList<>();
+		UUID version = Uuids.timeBased();
+
+		for (Conversation conversation : conversations) {
+			long writeTime = writeTimeOf(conversation.getLastActivity());
+			statements.add(preparedStatements.bind(INSERT_CONVERSATION,
+												   conversation.getConversationId(),
+												   conversation.getInterlocutors(),
+												   conversation.getLastActivity(),
+												   writeTime));
+
+			for (UUID userId : conversation.getInterlocutors()) {
+				statements.add(preparedStatements.bind(INSERT_CONVERSATION_BY_ACTIVITY_AT,
+													   userId,
+													   conversation.getLastActivity(),
+													   conversation.getConversationId(),
+													   conversation.getInterlocutors(),
+													   writeTime));
+				statements.addAll(userConversationsVersionUpdate(userId, version, conversation.getLastActivity()));
+			}
 		}
 
-		BatchStatement batchStatement = batchStatementBuilder.build();
+		return write(statements);
+	}
+
+	@Override
+	public Mono<ListingVersion> getUserConversationsVersion(UUID userId) {
+		return getVersion(SELECT_USER_CONVERSATIONS_VERSION, userId);
+	}
+
+	@Override
+	public Mono<ListingVersion> getMessagesVersion(UUID conversationId) {
+		return getVersion(SELECT_CONVERSATION_MESSAGES_VERSION, conversationId);
+	}
+
+	private Mono<ListingVersion> getVersion(SimpleStatement selectVersion, UUID listingId) {
+		return preparedStatements.bind(selectVersion, listingId)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .next()
+								 .filter(row -> row.getUuid("version") != null)
+								 .map(row -> ListingVersion.of(row.getUuid("version"), row.getInstant("last_modified")));
+	}
 
-		return cassandraOperations.execute(batchStatement)
-								  .flatMap(result -> Mono.empty());
+	private List<Mono<BoundStatement>> userConversationsVersionUpdate(UUID userId, UUID version, Instant lastModified) {
+		return versionUpdate(UPDATE_USER_CONVERSATIONS_VERSION, ADVANCE_USER_CONVERSATIONS_LAST_MODIFIED, userId, version, lastModified);
 	}
 
-	Map<UUID, String> convertMapValuesToString(Map<UUID, MessageStatusUpdated.Status> map) {
-		return map.entrySet().stream()
-				  .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().name()));
+	private List<Mono<BoundStatement>> messagesVersionUpdate(UUID conversationId, UUID version, Instant lastModified) {
+		return versionUpdate(UPDATE_CONVERSATION_MESSAGES_VERSION, ADVANCE_CONVERSATION_MESSAGES_LAST_MODIFIED, conversationId, version, lastModified);
 	}
 
-	Map<UUID, MessageStatusUpdated.Status> convertMapValuesToStatus(Map<UUID, String> map) {
-		if (map == null) {
-			return Map.of();
+	/**
+	 * The last modification moves only with the activity, a change which does not move it (a message status) passes null.
+	 */
+	private List<Mono<BoundStatement>> versionUpdate(SimpleStatement updateVersion, SimpleStatement advanceLastModified,
+													 UUID listingId, UUID version, Instant lastModified) {
+		if (lastModified == null) {
+			return List.of(preparedStatements.bind(updateVersion, version, listingId));
 		}
-		return map.entrySet().stream()
-				  .collect(Collectors.toMap(Map.Entry::getKey, e -> MessageStatusUpdated.Status.valueOf(e.getValue())));
+		return List.of(preparedStatements.bind(updateVersion, version, listingId),
+					   preparedStatements.bind(advanceLastModified, writeTimeOf(lastModified), lastModified, listingId));
+	}
+
+	static long writeTimeOf(Instant lastActivity) {
+		Instant now = Instant.now();
+		return micros(lastActivity.isAfter(now) ? now : lastActivity);
+	}
+
+	private static long micros(Instant time) {
+		return TimeUnit.SECONDS.toMicros(time.getEpochSecond()) + TimeUnit.NANOSECONDS.toMicros(time.getNano());
+	}
+
+	private Conversation toConversation(Row row) {
+		return Conversation.builder()
+						   .conversationId(row.getUuid("conversation_id"))
+						   .interlocutors(row.getSet("interlocutors", UUID.class))
+						   .lastActivity(row.getInstant("last_activity"))
+						   .build();
+	}
+
+	private Mono<Void> write(List<Mono<BoundStatement>> statements) {
+		return Flux.concat(statements)
+				   .collectList()
+				   .flatMap(writer::write);
 	}
 }
@@ -0,0 +1,303 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
+import com.maciej.wojtaczka.messagebox.domain.MessageOutbox;
+import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.cassandra.ReactiveResultSet;
+import org.springframework.data.cassandra.core.ReactiveCassandraOperations;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.datastax.oss.driver.api.querybuilder.QueryBuilder.bindMarker;
+
+/**
+ * Outbox spread over a fixed number of shards, a conversation always falls into the same shard. Every shard is split into
+ * time buckets of the enqueuing time, each bucket a partition clustered by the enqueuing time, so the messages of a conversation
+ * are drained in order.
+ * <p>
+ * Nothing is deleted, which would leave the partitions full of tombstones: the position up to which a shard is delivered is stored
+ * apart and the entries expire with their TTL. Entries are read only once they settled, the position never moves past an entry,
+ * nor past the end of a bucket, before the settle delay and the clock skew have passed since, by the clock of the draining instance.
+ * An entry written later than that after its enqueuing time would be passed over, so the settle delay has to be well beyond
+ * the longest a write can take, the request timeout times the attempts of the writer, and the clock skew bound beyond the most
+ * the clocks of the writing instances may be ahead of the draining one.
+ * <p>
+ * A shard is drained by the instance holding its {@link Lease}, the shards go to the instances taking them first and move on
+ * when their holder stops renewing the lease. The number of shards must not be changed while there are pending messages.
+ */
+@Slf4j
+@Repository
+public class CassandraMessageOutbox implements MessageOutbox {
+
+	private static final UUID MIN_UUID = new UUID(0, 0);
+
+	private static final SimpleStatement INSERT_PENDING_MESSAGE =
+			QueryBuilder.insertInto("message_box", "message_outbox")
+						.value("shard", bindMarker())
+						.value("bucket", bindMarker())
+						.value("enqueued_at", bindMarker())
+						.value("conversation_id", bindMarker())
+						.value("author_id", bindMarker())
+						.value("time", bindMarker())
+						.value("content", bindMarker())
+						.value("status_code", bindMarker())
+						.value("recipients", bindMarker())
+						.usingTtl(bindMarker())
+						.build();
+
+	private static final SimpleStatement SELECT_PENDING_MESSAGES =
+			QueryBuilder.selectFrom("message_box", "message_outbox")
+						.all()
+						.whereColumn("shard").isEqualTo(bindMarker())
+						.whereColumn("bucket").isEqualTo(bindMarker())
+						.whereColumns("enqueued_at", "conversation_id", "author_id", "time")
+						.isGreaterThan(QueryBuilder.tuple(bindMarker(), bindMarker(), bindMarker(), bindMarker()))
+						.limit(bindMarker())
+						.build();
+
+	private static final SimpleStatement SELECT_POSITION =
+			QueryBuilder.selectFrom("message_box", "message_outbox_position")
+						.all()
+						.whereColumn("shard").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement UPDATE_POSITION =
+			QueryBuilder.insertInto("message_box", "message_outbox_position")
+						.value("shard", bindMarker())
+						.value("bucket", bindMarker())
+						.value("enqueued_at", bindMarker())
+						.value("conversation_id", bindMarker())
+						.value("author_id", bindMarker())
+						.value("time", bindMarker())
+						.build();
+
+	private final ReactiveCassandraOperations cassandraOperations;
+	private final PreparedStatementRegistry preparedStatements;
+	private final MessageRowMapper messageRowMapper = new MessageRowMapper();
+	private final int shards;
+	private final long bucketSizeMillis;
+	private final int ttlSeconds;
+	private final Duration settleDelay;
+	private final Duration maxClockSkew;
+	private final List<Lease> leases;
+	private final long leaseRenewalNanos;
+
+	private volatile List<Integer> ownedShards = List.of();
+	private volatile long leasesRenewedAt;
+
+	@Autowired
+	public CassandraMessageOutbox(ReactiveCassandraOperations cassandraOperations,
+								  PreparedStatementRegistry preparedStatements,
+								  @Value("${message-box.cassandra.outbox-shards:16}") int shards,
+								  @Value("${message-box.cassandra.outbox-bucket-size:PT1M}") Duration bucketSize,
+								  @Value("${message-box.cassandra.outbox-time-to-live:P1D}") Duration timeToLive,
+								  @Value("${message-box.cassandra.outbox-settle-delay:PT30S}") Duration settleDelay,
+								  @Value("${message-box.cassandra.outbox-max-clock-skew:PT1S}") Duration maxClockSkew,
+								  @Value("${message-box.cassandra.outbox-lease-duration:PT30S}") Duration leaseDuration,
+								  @Value("${spring.data.cassandra.request.timeout:PT2S}") Duration requestTimeout,
+								  @Value("${message-box.cassandra.write.max-retries:3}") int writeRetries) {
+		this(cassandraOperations, preparedStatements, shards, bucketSize, timeToLive, settleDelay, maxClockSkew, leaseDuration,
+			 UUID.randomUUID().toString());
+		Duration longestWrite = requestTimeout.multipliedBy(writeRetries + 1L);
+		if (settleDelay.compareTo(longestWrite) <= 0) {
+			log.warn("Outbox settle delay {} is not beyond the longest write {}, entries written late will never be delivered",
+					 settleDelay, longestWrite);
+		}
+	}
+
+	CassandraMessageOutbox(ReactiveCassandraOperations cassandraOperations,
+						   PreparedStatementRegistry preparedStatements,
+						   int shards,
+						   Duration bucketSize,
+						   Duration timeToLive,
+						   Duration settleDelay,
+						   Duration maxClockSkew,
+						   Duration leaseDuration,
+						   String holder) {
+		this.cassandraOperations = cassandraOperations;
+		this.preparedStatements = preparedStatements;
+		this.shards = shards;
+		this.bucketSizeMillis = bucketSize.toMillis();
+		this.ttlSeconds = (int) timeToLive.toSeconds();
+		this.settleDelay = settleDelay;
+		this.maxClockSkew = maxClockSkew;
+		this.leases = IntStream.range(0, shards)
+							   .mapToObj(shard -> new Lease(cassandraOperations, preparedStatements, "message-outbox-" + shard, holder, leaseDuration))
+							   .collect(Collectors.toList());
+		this.leaseRenewalNanos = leaseDuration.toNanos() / 3;
+		this.leasesRenewedAt = System.nanoTime() - leaseRenewalNanos;
+	}
+
+	/**
+	 * Statements putting the message into the outbox, to be written together with the message itself.
+	 */
+	Mono<BoundStatement> enqueueing(Envelope<Message> envelope) {
+		Message message = envelope.getPayload();
+		Instant enqueuedAt = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+		return preparedStatements.bind(INSERT_PENDING_MESSAGE,
+									   shardOf(message.getConversationId()),
+									   bucketOf(enqueuedAt),
+									   enqueuedAt,
+									   message.getConversationId(),
+									   message.getAuthorId(),
+									   message.getTime(),
+									   message.getContent(),
+									   MessageStatusCodec.encode(message.getStatusByInterlocutor()),
+									   envelope.getRecipients(),
+									   ttlSeconds);
+	}
+
+	@Override
+	public Mono<Void> drain(int batchSize, Function<List<Envelope<Message>>, Mono<Void>> delivery) {
+		return ownedShards().flatMapMany(Flux::fromIterable)
+							.concatMap(shard -> drain(shard, batchSize, delivery))
+							.then();
+	}
+
+	private Mono<Void> drain(int shard, int batchSize, Function<List<Envelope<Message>>, Mono<Void>> delivery) {
+		Instant settledUpTo = Instant.now().minus(settleDelay).minus(maxClockSkew);
+
+		return readPosition(shard)
+				.expand(position -> advance(shard, position, settledUpTo, batchSize, delivery))
+				.then();
+	}
+
+	/**
+	 * Delivers the next batch of the settled entries and moves the position past it, or moves the position to the next bucket
+	 * when the bucket is read to its end and no more entries can come into it. Empty when the shard is drained.
+	 */
+	private Mono<Position> advance(int shard, Position position, Instant settledUpTo, int batchSize,
+								   Function<List<Envelope<Message>>, Mono<Void>> delivery) {
+		return preparedStatements.bind(SELECT_PENDING_MESSAGES, shard, position.bucket,
+									   position.enqueuedAt, position.conversationId, position.authorId, position.time, batchSize)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .collectList()
+								 .flatMap(rows -> {
+									 List<Row> settled = rows.stream()
+															 .takeWhile(row -> !row.getInstant("enqueued_at").isAfter(settledUpTo))
+															 .collect(Collectors.toList());
+									 if (!settled.isEmpty()) {
+										 Position next = Position.of(position.bucket, settled.get(settled.size() - 1));
+										 return delivery.apply(settled.stream()
+																	  .map(this::toEnvelope)
+																	  .collect(Collectors.toList()))
+														.then(savePosition(shard, next));
+									 }
+									 if (rows.isEmpty() && !bucketEnd(position.bucket).isAfter(settledUpTo)) {
+										 return savePosition(shard, Position.startOf(position.bucket + 1, bucketSizeMillis));
+									 }
+									 return Mono.empty();
+								 });
+	}
+
+	/**
+	 * A shard never drained before starts with the previous bucket, its entries were enqueued while the outbox was being introduced.
+	 */
+	private Mono<Position> readPosition(int shard) {
+		return preparedStatements.bind(SELECT_POSITION, shard)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .next()
+								 .map(row -> Position.of(row.getLong("bucket"), row))
+								 .defaultIfEmpty(Position.startOf(bucketOf(Instant.now()) - 1, bucketSizeMillis));
+	}
+
+	private Mono<Position> savePosition(int shard, Position position) {
+		return preparedStatements.bind(UPDATE_POSITION, shard, position.bucket, position.enqueuedAt,
+									   position.conversationId, position.authorId, position.time)
+								 .flatMap(cassandraOperations::execute)
+								 .thenReturn(position);
+	}
+
+	/**
+	 * Shards whose leases this instance holds, the leases are renewed a few times within their duration. The shards are tried
+	 * from a random one, so instances starting together do not compete for the same shards.
+	 */
+	private Mono<List<Integer>> ownedShards() {
+		if (System.nanoTime() - leasesRenewedAt < leaseRenewalNanos) {
+			return Mono.just(ownedShards);
+		}
+		int first = ThreadLocalRandom.current().nextInt(shards);
+		return Flux.range(0, shards)
+				   .map(i -> (first + i) % shards)
+				   .concatMap(shard -> leases.get(shard)
+											 .acquire()
+											 .filter(Boolean::booleanValue)
+											 .map(held -> shard))
+				   .sort()
+				   .collectList()
+				   .doOnNext(owned -> {
+					   if (!owned.equals(ownedShards)) {
+						   log.info("Outbox shards drained by this instance: {}", owned);
+					   }
+					   ownedShards = owned;
+					   leasesRenewedAt = System.nanoTime();
+				   });
+	}
+
+	private Envelope<Message> toEnvelope(Row row) {
+		return Envelope.wrap(messageRowMapper.map(row), row.getList("recipients", UUID.class));
+	}
+
+	private int shardOf(UUID conversationId) {
+		return Math.floorMod(conversationId.hashCode(), shards);
+	}
+
+	private long bucketOf(Instant enqueuedAt) {
+		return Math.floorDiv(enqueuedAt.toEpochMilli(), bucketSizeMillis);
+	}
+
+	private Instant bucketEnd(long bucket) {
+		return Instant.ofEpochMilli((bucket + 1) * bucketSizeMillis);
+	}
+
+	/**
+	 * Key of the last delivered entry of a shard, the entries after it are pending.
+	 */
+	private static class Position {
+		private final long bucket;
+		private final Instant enqueuedAt;
+		private final UUID conversationId;
+		private final UUID authorId;
+		private final Instant time;
+
+		private Position(long bucket, Instant enqueuedAt, UUID conversationId, UUID authorId, Instant time) {
+			this.bucket = bucket;
+			this.enqueuedAt = enqueuedAt;
+			this.conversationId = conversationId;
+			this.authorId = authorId;
+			this.time = time;
+		}
+
+		static Position of(long bucket, Row row) {
+			return new Position(bucket, row.getInstant("enqueued_at"), row.getUuid("conversation_id"),
+								row.getUuid("author_id"), row.getInstant("time"));
+		}
+
+		/**
+		 * Position before every entry of the bucket.
+		 */
+		static Position startOf(long bucket, long bucketSizeMillis) {
+			return new Position(bucket, Instant.ofEpochMilli(bucket * bucketSizeMillis - 1), MIN_UUID, MIN_UUID, Instant.EPOCH);
+		}
+	}
+}
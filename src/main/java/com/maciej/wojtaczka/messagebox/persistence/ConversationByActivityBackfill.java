@@ -0,0 +1,76 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.cassandra.ReactiveResultSet;
+import org.springframework.data.cassandra.core.ReactiveCassandraOperations;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+
+import static com.maciej.wojtaczka.messagebox.persistence.CassandraConversationStorage.INSERT_CONVERSATION_BY_ACTIVITY;
+
+/**
+ * Fills conversation_by_activity from the conversation table, for conversations created before the table existed.
+ * It is safe to run it more than once and next to the live traffic.
+ */
+@Slf4j
+public class ConversationByActivityBackfill {
+
+	private static final SimpleStatement SELECT_ALL_CONVERSATIONS =
+			QueryBuilder.selectFrom("message_box", "conversation")
+						.columns("conversation_id", "interlocutors", "last_activity")
+						.build();
+
+	private final ReactiveCassandraOperations cassandraOperations;
+	private final PreparedStatementRegistry preparedStatements;
+	private final PartitionAwareWriter writer;
+	private final int concurrency;
+
+	public ConversationByActivityBackfill(ReactiveCassandraOperations cassandraOperations,
+										  PreparedStatementRegistry preparedStatements,
+										  PartitionAwareWriter writer,
+										  int concurrency) {
+		this.cassandraOperations = cassandraOperations;
+		this.preparedStatements = preparedStatements;
+		this.writer = writer;
+		this.concurrency = concurrency;
+	}
+
+	void start() {
+		backfill().subscribe(count -> log.info("Activity index backfilled for {} conversations", count),
+							 throwable -> log.error("Activity index backfill failed: {}", throwable.getMessage()));
+	}
+
+	public Mono<Long> backfill() {
+		return preparedStatements.bind(SELECT_ALL_CONVERSATIONS)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .flatMap(this::backfill, concurrency)
+								 .count();
+	}
+
+	private Mono<Void> backfill(Row conversation) {
+		UUID conversationId = conversation.getUuid("conversation_id");
+		Set<UUID> interlocutors = conversation.getSet("interlocutors", UUID.class);
+		Instant lastActivity = conversation.getInstant("last_activity");
+		if (lastActivity == null) {
+			return Mono.empty();
+		}
+
+		return Flux.fromIterable(interlocutors)
+				   .concatMap(userId -> preparedStatements.bind(INSERT_CONVERSATION_BY_ACTIVITY,
+																userId,
+																lastActivity,
+																conversationId,
+																interlocutors))
+				   .collectList()
+				   .flatMap(writer::write);
+	}
+}
@@ -0,0 +1,104 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bounded in-memory cache evicting the least recently used entry once full and every entry older than the time to live.
+ */
+class ExpiringLruCache<K, V> {
+
+	private final int maxSize;
+	private final long timeToLiveNanos;
+	private final LongSupplier nanoTicker;
+	private final Map<K, CachedValue<V>> entries;
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	ExpiringLruCache(int maxSize, Duration timeToLive) {
+		this(maxSize, timeToLive, System::nanoTime);
+	}
+
+	ExpiringLruCache(int maxSize, Duration timeToLive, LongSupplier nanoTicker) {
+		this.maxSize = maxSize;
+		this.timeToLiveNanos = timeToLive.toNanos();
+		this.nanoTicker = nanoTicker;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+				boolean evict = size() > ExpiringLruCache.this.maxSize;
+				if (evict) {
+					evictionCount.increment();
+				}
+				return evict;
+			}
+		};
+	}
+
+	synchronized Optional<V> get(K key) {
+		CachedValue<V> entry = entries.get(key);
+		if (entry == null) {
+			missCount.increment();
+			return Optional.empty();
+		}
+		if (isExpired(entry)) {
+			entries.remove(key);
+			evictionCount.increment();
+			missCount.increment();
+			return Optional.empty();
+		}
+		hitCount.increment();
+		return Optional.of(entry.value);
+	}
+
+	synchronized void put(K key, V value) {
+		entries.put(key, new CachedValue<>(value, nanoTicker.getAsLong()));
+	}
+
+	/**
+	 * Replaces the value only when it is cached, the entry keeps its original expiration.
+	 */
+	synchronized void updateIfPresent(K key, UnaryOperator<V> update) {
+		entries.computeIfPresent(key, (k, entry) -> isExpired(entry) ? null : new CachedValue<>(update.apply(entry.value), entry.createdAt));
+	}
+
+	synchronized void invalidate(K key) {
+		entries.remove(key);
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	long getHitCount() {
+		return hitCount.sum();
+	}
+
+	long getMissCount() {
+		return missCount.sum();
+	}
+
+	long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	private boolean isExpired(CachedValue<V> entry) {
+		return nanoTicker.getAsLong() - entry.createdAt >= timeToLiveNanos;
+	}
+
+	private static class CachedValue<V> {
+		private final V value;
+		private final long createdAt;
+
+		private CachedValue(V value, long createdAt) {
+			this.value = value;
+			this.createdAt = createdAt;
+		}
+	}
+}
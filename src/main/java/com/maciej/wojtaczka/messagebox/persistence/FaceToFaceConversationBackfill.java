@@ -0,0 +1,259 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
+import com.maciej.wojtaczka.messagebox.domain.model.Conversation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.cassandra.ReactiveResultSet;
+import org.springframework.data.cassandra.core.ReactiveCassandraOperations;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static com.datastax.oss.driver.api.querybuilder.QueryBuilder.bindMarker;
+import static com.maciej.wojtaczka.messagebox.persistence.CassandraConversationStorage.DELETE_CONVERSATION_BY_ACTIVITY;
+import static com.maciej.wojtaczka.messagebox.persistence.CassandraConversationStorage.DELETE_UNREAD_CONVERSATION;
+import static com.maciej.wojtaczka.messagebox.persistence.CassandraConversationStorage.INSERT_MESSAGE_BUCKET;
+import static com.maciej.wojtaczka.messagebox.persistence.CassandraConversationStorage.INSERT_UNREAD_CONVERSATION;
+import static com.maciej.wojtaczka.messagebox.persistence.CassandraConversationStorage.SELECT_BUCKETED_MESSAGES;
+import static com.maciej.wojtaczka.messagebox.persistence.CassandraConversationStorage.SELECT_MESSAGES;
+import static com.maciej.wojtaczka.messagebox.persistence.CassandraConversationStorage.SELECT_MESSAGE_BUCKETS;
+import static com.maciej.wojtaczka.messagebox.persistence.CassandraConversationStorage.SELECT_STATUS_WATERMARKS;
+import static com.maciej.wojtaczka.messagebox.persistence.CassandraConversationStorage.SELECT_UNREAD_CONVERSATION;
+import static com.maciej.wojtaczka.messagebox.persistence.CassandraConversationStorage.writeTimeOf;
+import static com.maciej.wojtaczka.messagebox.persistence.MessageBucketsBackfill.MERGE_BUCKETED_MESSAGE;
+
+/**
+ * Moves the face to face conversations created before their ids were derived from the users under the derived id, so they are
+ * found by {@link Conversation#faceToFaceId(UUID, UUID)} alone. Every conversation of two users with another id is taken for one.
+ * <p>
+ * The messages, the status watermarks and the unread state are copied, then the conversation under the old id is removed from
+ * the conversations and the lists of its users. The messages are left under the old id, so a message stored there while
+ * the conversation is being moved is not lost, only not moved. Copies merge into what is there, so it is safe to run it more than once
+ * and next to the live traffic. A conversation already present under the derived id is merged with, the unread counters of its users
+ * are then left to the reconciliation.
+ */
+@Slf4j
+public class FaceToFaceConversationBackfill {
+
+	private static final SimpleStatement SELECT_ALL_CONVERSATIONS =
+			QueryBuilder.selectFrom("message_box", "conversation")
+						.columns("conversation_id", "interlocutors", "last_activity")
+						.build();
+
+	private static final SimpleStatement MERGE_MESSAGE =
+			QueryBuilder.update("message_box", "message")
+						.setColumn("content", bindMarker())
+						.append("status_by", bindMarker())
+						.append("status_code", bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.whereColumn("time").isEqualTo(bindMarker())
+						.whereColumn("author_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement COPY_DELIVERED_WATERMARK =
+			QueryBuilder.update("message_box", "message_status_watermark")
+						.usingTimestamp(bindMarker())
+						.setColumn("delivered_up_to", bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement COPY_SEEN_WATERMARK =
+			QueryBuilder.update("message_box", "message_status_watermark")
+						.usingTimestamp(bindMarker())
+						.setColumn("seen_up_to", bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement MARK_CONVERSATION_UNREAD =
+			QueryBuilder.update("message_box", "conversation")
+						.usingTimestamp(bindMarker())
+						.append("unread_by", bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement DELETE_CONVERSATION =
+			QueryBuilder.deleteFrom("message_box", "conversation")
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.build();
+
+	private final ReactiveCassandraOperations cassandraOperations;
+	private final PreparedStatementRegistry preparedStatements;
+	private final PartitionAwareWriter writer;
+	private final CassandraConversationStorage conversationStorage;
+	private final int concurrency;
+
+	public FaceToFaceConversationBackfill(ReactiveCassandraOperations cassandraOperations,
+										  PreparedStatementRegistry preparedStatements,
+										  PartitionAwareWriter writer,
+										  CassandraConversationStorage conversationStorage,
+										  int concurrency) {
+		this.cassandraOperations = cassandraOperations;
+		this.preparedStatements = preparedStatements;
+		this.writer = writer;
+		this.conversationStorage = conversationStorage;
+		this.concurrency = concurrency;
+	}
+
+	void start() {
+		backfill().subscribe(count -> log.info("Face to face ids backfilled for {} conversations", count),
+							 throwable -> log.error("Face to face ids backfill failed: {}", throwable.getMessage()));
+	}
+
+	public Mono<Long> backfill() {
+		return preparedStatements.bind(SELECT_ALL_CONVERSATIONS)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .filter(FaceToFaceConversationBackfill::hasRandomFaceToFaceId)
+								 .flatMap(this::backfill, concurrency)
+								 .count();
+	}
+
+	private static boolean hasRandomFaceToFaceId(Row conversation) {
+		Set<UUID> interlocutors = conversation.getSet("interlocutors", UUID.class);
+		if (interlocutors.size() != 2 || conversation.getInstant("last_activity") == null) {
+			return false;
+		}
+		Iterator<UUID> users = interlocutors.iterator();
+		return !conversation.getUuid("conversation_id").equals(Conversation.faceToFaceId(users.next(), users.next()));
+	}
+
+	/**
+	 * The conversation is written under the derived id first and removed from under the old one last, so it is never missing
+	 * from the lists of its users.
+	 */
+	private Mono<UUID> backfill(Row legacy) {
+		UUID legacyId = legacy.getUuid("conversation_id");
+		Set<UUID> interlocutors = legacy.getSet("interlocutors", UUID.class);
+		Iterator<UUID> users = interlocutors.iterator();
+		UUID faceToFaceId = Conversation.faceToFaceId(users.next(), users.next());
+		Instant lastActivity = legacy.getInstant("last_activity");
+
+		return conversationStorage.getConversation(faceToFaceId)
+								  .mapNotNull(Conversation::getLastActivity)
+								  .filter(presentActivity -> !presentActivity.equals(lastActivity))
+								  .map(Optional::of)
+								  .defaultIfEmpty(Optional.empty())
+								  .flatMap(presentActivity -> {
+									  Instant movedActivity = presentActivity.filter(present -> present.isAfter(lastActivity))
+																			 .orElse(lastActivity);
+									  Conversation moved = Conversation.builder()
+																	   .conversationId(faceToFaceId)
+																	   .interlocutors(interlocutors)
+																	   .lastActivity(movedActivity)
+																	   .build();
+									  //the index is left with the later of the activities, the row of the earlier one goes with the old id
+									  Instant replacedActivity = presentActivity.filter(present -> present.isBefore(lastActivity))
+																				.orElse(null);
+									  return conversationStorage.insertConversation(moved)
+																.then(copyMessages(legacyId, faceToFaceId))
+																.then(copyStatusWatermarks(legacyId, faceToFaceId))
+																.then(moveUnreadState(legacyId, faceToFaceId, interlocutors, lastActivity))
+																.then(removeReplaced(legacyId, faceToFaceId, interlocutors, lastActivity, replacedActivity,
+																					 movedActivity));
+								  })
+								  .doOnSuccess(done -> log.info("Face to face conversation {} moved to {}", legacyId, faceToFaceId))
+								  .thenReturn(faceToFaceId);
+	}
+
+	private Mono<Void> copyMessages(UUID legacyId, UUID faceToFaceId) {
+		Flux<Mono<BoundStatement>> legacyTable = rows(SELECT_MESSAGES, legacyId)
+				.map(message -> preparedStatements.bind(MERGE_MESSAGE,
+														message.getString("content"),
+														message.getMap("status_by", UUID.class, String.class),
+														message.getMap("status_code", UUID.class, Byte.class),
+														faceToFaceId,
+														message.getInstant("time"),
+														message.getUuid("author_id")));
+		Flux<Mono<BoundStatement>> bucketedTable = rows(SELECT_MESSAGE_BUCKETS, legacyId)
+				.map(row -> row.getLong("bucket"))
+				.concatMap(bucket -> rows(SELECT_BUCKETED_MESSAGES, legacyId, bucket)
+						.map(message -> preparedStatements.bind(MERGE_BUCKETED_MESSAGE,
+																message.getString("content"),
+																message.getMap("status_by", UUID.class, String.class),
+																message.getMap("status_code", UUID.class, Byte.class),
+																faceToFaceId,
+																bucket,
+																message.getInstant("time"),
+																message.getUuid("author_id")))
+						.concatWith(Mono.just(preparedStatements.bind(INSERT_MESSAGE_BUCKET, faceToFaceId, bucket))));
+
+		return write(Flux.concat(legacyTable, bucketedTable));
+	}
+
+	/**
+	 * Copied at the write time of the watermarks, so they never shadow a later status of the conversation under the derived id.
+	 */
+	private Mono<Void> copyStatusWatermarks(UUID legacyId, UUID faceToFaceId) {
+		return write(rows(SELECT_STATUS_WATERMARKS, legacyId)
+							 .flatMapIterable(watermark -> {
+								 UUID userId = watermark.getUuid("user_id");
+								 List<Mono<BoundStatement>> statements = new ArrayList<>();
+								 Instant deliveredUpTo = watermark.getInstant("delivered_up_to");
+								 if (deliveredUpTo != null) {
+									 statements.add(preparedStatements.bind(COPY_DELIVERED_WATERMARK, writeTimeOf(deliveredUpTo), deliveredUpTo,
+																			faceToFaceId, userId));
+								 }
+								 Instant seenUpTo = watermark.getInstant("seen_up_to");
+								 if (seenUpTo != null) {
+									 statements.add(preparedStatements.bind(COPY_SEEN_WATERMARK, writeTimeOf(seenUpTo), seenUpTo,
+																			faceToFaceId, userId));
+								 }
+								 return statements;
+							 }));
+	}
+
+	/**
+	 * The unread conversation of a user stays one unread conversation, so the unread counter is not touched.
+	 */
+	private Mono<Void> moveUnreadState(UUID legacyId, UUID faceToFaceId, Set<UUID> interlocutors, Instant lastActivity) {
+		return write(Flux.fromIterable(interlocutors)
+						 .filterWhen(userId -> rows(SELECT_UNREAD_CONVERSATION, userId, legacyId).hasElements())
+						 .flatMapIterable(userId -> List.of(
+								 preparedStatements.bind(INSERT_UNREAD_CONVERSATION, userId, faceToFaceId),
+								 preparedStatements.bind(MARK_CONVERSATION_UNREAD, writeTimeOf(lastActivity), Set.of(userId), faceToFaceId),
+								 preparedStatements.bind(DELETE_UNREAD_CONVERSATION, userId, legacyId))));
+	}
+
+	/**
+	 * The activity rows are removed at the write time of the activity the conversation moved with, so a late write of them
+	 * cannot bring the old id, nor the earlier activity of the derived id, back to the lists.
+	 */
+	private Mono<Void> removeReplaced(UUID legacyId, UUID faceToFaceId, Set<UUID> interlocutors, Instant lastActivity,
+									  Instant replacedActivity, Instant movedActivity) {
+		List<Mono<BoundStatement>> statements = new ArrayList<>();
+		long writeTime = writeTimeOf(movedActivity);
+		for (UUID userId : interlocutors) {
+			statements.add(preparedStatements.bind(DELETE_CONVERSATION_BY_ACTIVITY, writeTime, userId, lastActivity, legacyId));
+			if (replacedActivity != null) {
+				statements.add(preparedStatements.bind(DELETE_CONVERSATION_BY_ACTIVITY, writeTime, userId, replacedActivity, faceToFaceId));
+			}
+		}
+		statements.add(preparedStatements.bind(DELETE_CONVERSATION, legacyId));
+		return write(Flux.fromIterable(statements));
+	}
+
+	private Flux<Row> rows(SimpleStatement statement, Object... values) {
+		return preparedStatements.bind(statement, values)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows);
+	}
+
+	private Mono<Void> write(Flux<Mono<BoundStatement>> statements) {
+		return statements.concatMap(statement -> statement)
+						 .collectList()
+						 .filter(bound -> !bound.isEmpty())
+						 .flatMap(writer::write);
+	}
+}
@@ -0,0 +1,67 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
+import org.springframework.data.cassandra.ReactiveResultSet;
+import org.springframework.data.cassandra.core.ReactiveCassandraOperations;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static com.datastax.oss.driver.api.querybuilder.QueryBuilder.bindMarker;
+
+/**
+ * Named lease held by one instance at a time, taken and renewed with lightweight transactions and expiring with its TTL,
+ * so a background job runs on a single instance and moves to another one when its holder stops renewing the lease.
+ */
+class Lease {
+
+	private static final SimpleStatement TAKE_LEASE =
+			QueryBuilder.insertInto("message_box", "lease")
+						.value("name", bindMarker())
+						.value("holder", bindMarker())
+						.ifNotExists()
+						.usingTtl(bindMarker())
+						.build();
+
+	private static final SimpleStatement RENEW_LEASE =
+			QueryBuilder.update("message_box", "lease")
+						.usingTtl(bindMarker())
+						.setColumn("holder", bindMarker())
+						.whereColumn("name").isEqualTo(bindMarker())
+						.ifColumn("holder").isEqualTo(bindMarker())
+						.build();
+
+	private final ReactiveCassandraOperations cassandraOperations;
+	private final PreparedStatementRegistry preparedStatements;
+	private final String name;
+	private final String holder;
+	private final int ttlSeconds;
+
+	Lease(ReactiveCassandraOperations cassandraOperations, PreparedStatementRegistry preparedStatements,
+		  String name, String holder, Duration duration) {
+		this.cassandraOperations = cassandraOperations;
+		this.preparedStatements = preparedStatements;
+		this.name = name;
+		this.holder = holder;
+		this.ttlSeconds = (int) Math.max(1, duration.toSeconds());
+	}
+
+	/**
+	 * Takes the lease when nobody holds it or renews it when this holder does, true when this holder has the lease for its duration.
+	 */
+	Mono<Boolean> acquire() {
+		return execute(TAKE_LEASE, name, holder, ttlSeconds)
+				.flatMap(taken -> taken ? Mono.just(true) : execute(RENEW_LEASE, ttlSeconds, holder, name, holder));
+	}
+
+	String getName() {
+		return name;
+	}
+
+	private Mono<Boolean> execute(SimpleStatement statement, Object... values) {
+		return preparedStatements.bind(statement, values)
+								 .flatMap(cassandraOperations::execute)
+								 .map(ReactiveResultSet::wasApplied);
+	}
+}
@@ -0,0 +1,24 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Maps message time to the bucket of message_by_bucket. The bucket size must not change once messages are bucketed,
+ * otherwise the stored messages are not found in the buckets computed for them.
+ */
+class MessageBuckets {
+
+	private final long bucketSizeMillis;
+
+	MessageBuckets(Duration bucketSize) {
+		if (bucketSize.isZero() || bucketSize.isNegative()) {
+			throw new IllegalArgumentException("Message bucket size must be positive: " + bucketSize);
+		}
+		this.bucketSizeMillis = bucketSize.toMillis();
+	}
+
+	long bucketOf(Instant time) {
+		return Math.floorDiv(time.toEpochMilli(), bucketSizeMillis);
+	}
+}
@@ -0,0 +1,90 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.cassandra.ReactiveResultSet;
+import org.springframework.data.cassandra.core.ReactiveCassandraOperations;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import static com.datastax.oss.driver.api.querybuilder.QueryBuilder.bindMarker;
+import static com.maciej.wojtaczka.messagebox.persistence.CassandraConversationStorage.INSERT_MESSAGE_BUCKET;
+
+/**
+ * Copies the messages of the legacy message table into message_by_bucket, to be run while the storage is in
+ * {@link MessageLayout#DUAL_WRITE}. Statuses are merged into the bucketed rows rather than overwritten, so
+ * it is safe to run it more than once and next to the live traffic.
+ */
+@Slf4j
+public class MessageBucketsBackfill {
+
+	private static final SimpleStatement SELECT_ALL_MESSAGES =
+			QueryBuilder.selectFrom("message_box", "message")
+						.all()
+						.build();
+
+	static final SimpleStatement MERGE_BUCKETED_MESSAGE =
+			QueryBuilder.update("message_box", "message_by_bucket")
+						.setColumn("content", bindMarker())
+						.append("status_by", bindMarker())
+						.append("status_code", bindMarker())
+						.whereColumn("conversation_id").isEqualTo(bindMarker())
+						.whereColumn("bucket").isEqualTo(bindMarker())
+						.whereColumn("time").isEqualTo(bindMarker())
+						.whereColumn("author_id").isEqualTo(bindMarker())
+						.build();
+
+	private final ReactiveCassandraOperations cassandraOperations;
+	private final PreparedStatementRegistry preparedStatements;
+	private final PartitionAwareWriter writer;
+	private final MessageBuckets messageBuckets;
+	private final int concurrency;
+
+	public MessageBucketsBackfill(ReactiveCassandraOperations cassandraOperations,
+								  PreparedStatementRegistry preparedStatements,
+								  PartitionAwareWriter writer,
+								  MessageBuckets messageBuckets,
+								  int concurrency) {
+		this.cassandraOperations = cassandraOperations;
+		this.preparedStatements = preparedStatements;
+		this.writer = writer;
+		this.messageBuckets = messageBuckets;
+		this.concurrency = concurrency;
+	}
+
+	void start() {
+		backfill().subscribe(count -> log.info("Message buckets backfilled with {} messages", count),
+							 throwable -> log.error("Message buckets backfill failed: {}", throwable.getMessage()));
+	}
+
+	public Mono<Long> backfill() {
+		return preparedStatements.bind(SELECT_ALL_MESSAGES)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .flatMap(this::backfill, concurrency)
+								 .count();
+	}
+
+	private Mono<Void> backfill(Row message) {
+		UUID conversationId = message.getUuid("conversation_id");
+		Instant time = message.getInstant("time");
+		long bucket = messageBuckets.bucketOf(time);
+
+		return Flux.concat(preparedStatements.bind(MERGE_BUCKETED_MESSAGE,
+												   message.getString("content"),
+												   message.getMap("status_by", UUID.class, String.class),
+												   message.getMap("status_code", UUID.class, Byte.class),
+												   conversationId,
+												   bucket,
+												   time,
+												   message.getUuid("author_id")),
+						   preparedStatements.bind(INSERT_MESSAGE_BUCKET, conversationId, bucket))
+				   .collectList()
+				   .flatMap(writer::write);
+	}
+}
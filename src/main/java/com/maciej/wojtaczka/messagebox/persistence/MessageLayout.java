@@ -0,0 +1,26 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+/**
+ * Table layout the messages are stored in.
+ * <p>
+ * LEGACY keeps every message of a conversation in one partition of the message table. BUCKETED splits the conversation
+ * into time buckets of message_by_bucket, so a partition never outgrows the messages of one bucket.
+ * Moving an existing deployment goes LEGACY, DUAL_WRITE together with {@link MessageBucketsBackfill}, then BUCKETED.
+ */
+public enum MessageLayout {
+	LEGACY,
+	DUAL_WRITE,
+	BUCKETED;
+
+	boolean writesLegacyTable() {
+		return this != BUCKETED;
+	}
+
+	boolean writesBucketedTable() {
+		return this != LEGACY;
+	}
+
+	boolean readsBucketedTable() {
+		return this == BUCKETED;
+	}
+}
@@ -0,0 +1,41 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Maps rows of both message tables. Column identifiers are resolved once instead of parsing the column names for every row.
+ */
+class MessageRowMapper {
+
+	private static final CqlIdentifier CONVERSATION_ID = CqlIdentifier.fromCql("conversation_id");
+	private static final CqlIdentifier AUTHOR_ID = CqlIdentifier.fromCql("author_id");
+	private static final CqlIdentifier CONTENT = CqlIdentifier.fromCql("content");
+	private static final CqlIdentifier TIME = CqlIdentifier.fromCql("time");
+	private static final CqlIdentifier STATUS_CODE = CqlIdentifier.fromCql("status_code");
+	private static final CqlIdentifier STATUS_BY = CqlIdentifier.fromCql("status_by");
+
+	Message map(Row row) {
+		return Message.builder()
+					  .conversationId(row.getUuid(CONVERSATION_ID))
+					  .authorId(row.getUuid(AUTHOR_ID))
+					  .content(row.getString(CONTENT))
+					  .time(row.getInstant(TIME))
+					  .statusByInterlocutor(statuses(row))
+					  .build();
+	}
+
+	private Map<UUID, MessageStatusUpdated.Status> statuses(Row row) {
+		Map<UUID, Byte> codes = row.getMap(STATUS_CODE, UUID.class, Byte.class);
+		//the outbox has never had the legacy column
+		if (!codes.isEmpty() || !row.getColumnDefinitions().contains(STATUS_BY)) {
+			return MessageStatusCodec.decode(codes);
+		}
+		return MessageStatusCodec.decodeNames(row.getMap(STATUS_BY, UUID.class, String.class));
+	}
+}
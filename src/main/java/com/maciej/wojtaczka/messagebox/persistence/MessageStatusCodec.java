@@ -0,0 +1,79 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Stores message statuses as tinyint codes instead of their names. The codes are persisted, existing ones must never change.
+ * <p>
+ * A message almost always has one or two interlocutors with a status, such maps are built as compact immutable maps.
+ */
+final class MessageStatusCodec {
+
+	private static final byte DELIVERED_CODE = 1;
+	private static final byte SEEN_CODE = 2;
+
+	private MessageStatusCodec() {
+	}
+
+	static Map<UUID, Byte> encode(Map<UUID, Status> statuses) {
+		return transformValues(statuses, MessageStatusCodec::encode);
+	}
+
+	static Map<UUID, Status> decode(Map<UUID, Byte> codes) {
+		return transformValues(codes, MessageStatusCodec::decode);
+	}
+
+	/**
+	 * Statuses of the messages written before the codes were introduced.
+	 */
+	static Map<UUID, Status> decodeNames(Map<UUID, String> names) {
+		return transformValues(names, Status::valueOf);
+	}
+
+	static byte encode(Status status) {
+		switch (status) {
+			case DELIVERED:
+				return DELIVERED_CODE;
+			case SEEN:
+				return SEEN_CODE;
+			default:
+				throw new IllegalArgumentException("Status without a code: " + status);
+		}
+	}
+
+	static Status decode(byte code) {
+		switch (code) {
+			case DELIVERED_CODE:
+				return Status.DELIVERED;
+			case SEEN_CODE:
+				return Status.SEEN;
+			default:
+				throw new IllegalArgumentException("Unknown status code: " + code);
+		}
+	}
+
+	private static <A, B> Map<UUID, B> transformValues(Map<UUID, A> map, Function<A, B> transformation) {
+		if (map == null || map.isEmpty()) {
+			return Map.of();
+		}
+		Iterator<Map.Entry<UUID, A>> entries = map.entrySet().iterator();
+		Map.Entry<UUID, A> first = entries.next();
+		if (map.size() == 1) {
+			return Map.of(first.getKey(), transformation.apply(first.getValue()));
+		}
+		if (map.size() == 2) {
+			Map.Entry<UUID, A> second = entries.next();
+			return Map.of(first.getKey(), transformation.apply(first.getValue()),
+						  second.getKey(), transformation.apply(second.getValue()));
+		}
+		Map<UUID, B> transformed = new HashMap<>((int) (map.size() / 0.75f) + 1);
+		map.forEach((key, value) -> transformed.put(key, transformation.apply(value)));
+		return transformed;
+	}
+}
@@ -0,0 +1,109 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PagingState;
+import com.maciej.wojtaczka.messagebox.domain.InvalidCursorException;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Turns the driver paging state into an opaque, url safe cursor handed out to the clients and back.
+ * <p>
+ * The cursor carries the safe paging state of the driver, which remembers the query and the values it was produced for,
+ * so a cursor cannot be replayed against another query, another conversation or another user.
+ */
+class PagingCursor {
+
+	private PagingCursor() {
+	}
+
+	static String encode(PagingState pagingState) {
+		if (pagingState == null) {
+			return null;
+		}
+		return encode(ByteBuffer.wrap(pagingState.toBytes()));
+	}
+
+	/**
+	 * @throws InvalidCursorException when the cursor was not produced by {@link #encode(PagingState)}
+	 */
+	static PagingState decode(String cursor) {
+		if (cursor == null) {
+			return null;
+		}
+		return toPagingState(bytesOf(cursor), cursor);
+	}
+
+	/**
+	 * The statement resuming where the paging state stopped, the statement itself when there is no paging state.
+	 *
+	 * @throws InvalidCursorException when the paging state was produced for another statement or other values
+	 */
+	static BoundStatement resume(BoundStatement statement, PagingState pagingState) {
+		if (pagingState == null) {
+			return statement;
+		}
+		if (!pagingState.matches(statement)) {
+			throw new InvalidCursorException("Cursor does not belong to the requested listing");
+		}
+		return statement.setPagingState(pagingState);
+	}
+
+	/**
+	 * Cursor of a read walking several partitions, the paging state is null when the bucket is read from its beginning.
+	 */
+	static String encode(long bucket, PagingState pagingState) {
+		byte[] state = pagingState == null ? new byte[0] : pagingState.toBytes();
+		ByteBuffer position = ByteBuffer.allocate(Long.BYTES + state.length)
+										.putLong(bucket)
+										.put(state);
+		position.flip();
+		return encode(position);
+	}
+
+	/**
+	 * @throws InvalidCursorException when the cursor was not produced by {@link #encode(long, PagingState)}
+	 */
+	static BucketPosition decodeBucketPosition(String cursor) {
+		ByteBuffer position = ByteBuffer.wrap(bytesOf(cursor));
+		if (position.remaining() < Long.BYTES) {
+			throw new InvalidCursorException("Invalid cursor: " + cursor);
+		}
+		long bucket = position.getLong();
+		if (!position.hasRemaining()) {
+			return new BucketPosition(bucket, null);
+		}
+		byte[] state = new byte[position.remaining()];
+		position.get(state);
+		return new BucketPosition(bucket, toPagingState(state, cursor));
+	}
+
+	private static String encode(ByteBuffer bytes) {
+		byte[] array = new byte[bytes.remaining()];
+		bytes.get(array);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(array);
+	}
+
+	private static byte[] bytesOf(String cursor) {
+		try {
+			return Base64.getUrlDecoder().decode(cursor);
+		} catch (IllegalArgumentException e) {
+			throw new InvalidCursorException("Invalid cursor: " + cursor, e);
+		}
+	}
+
+	private static PagingState toPagingState(byte[] bytes, String cursor) {
+		try {
+			return PagingState.fromBytes(bytes);
+		} catch (RuntimeException e) {
+			throw new InvalidCursorException("Invalid cursor: " + cursor, e);
+		}
+	}
+
+	@lombok.Value
+	static class BucketPosition {
+		long bucket;
+		PagingState pagingState;
+	}
+}
@@ -0,0 +1,145 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BatchType;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinition;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.metadata.schema.ColumnMetadata;
+import com.datastax.oss.driver.api.core.type.DataTypes;
+import org.springframework.data.cassandra.core.cql.ReactiveSessionCallback;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.cassandra.core.ReactiveCassandraOperations;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes statements grouped by the partition they target instead of putting them all into one multi-partition LOGGED batch.
+ * Statements of the same partition go as a single-partition UNLOGGED batch (atomic and isolated on the replica),
+ * different partitions are written concurrently with bounded parallelism. Counter updates cannot be mixed with regular
+ * mutations, so a group targeting a counter table goes as a COUNTER batch.
+ * <p>
+ * There is no batchlog, so a write spanning several partitions is made durable by retrying: idempotent groups are retried
+ * on transient failures and, as all writes of the storage are idempotent, the whole write can safely be repeated by the caller.
+ */
+@Component
+public class PartitionAwareWriter {
+
+	private final ReactiveCassandraOperations cassandraOperations;
+	private final int maxConcurrency;
+	private final Retry retry;
+	private final Map<TableKey, BatchType> batchTypes = new ConcurrentHashMap<>();
+
+	public PartitionAwareWriter(ReactiveCassandraOperations cassandraOperations,
+								@Value("${message-box.cassandra.write.max-concurrency:16}") int maxConcurrency,
+								@Value("${message-box.cassandra.write.max-retries:3}") int maxRetries,
+								@Value("${message-box.cassandra.write.retry-backoff:50ms}") Duration retryBackoff) {
+		this.cassandraOperations = cassandraOperations;
+		this.maxConcurrency = maxConcurrency;
+		this.retry = Retry.backoff(maxRetries, retryBackoff)
+						  .filter(TransientDataAccessException.class::isInstance)
+						  .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+	}
+
+	public Mono<Void> write(Collection<BoundStatement> statements) {
+		Map<PartitionKey, List<BoundStatement>> statementsByPartition = new LinkedHashMap<>();
+		for (BoundStatement statement : statements) {
+			statementsByPartition.computeIfAbsent(PartitionKey.of(statement), key -> new ArrayList<>())
+								 .add(statement);
+		}
+
+		return Flux.fromIterable(statementsByPartition.values())
+				   .flatMapDelayError(this::writePartition, maxConcurrency, 1)
+				   .then();
+	}
+
+	private Mono<Void> writePartition(List<BoundStatement> statements) {
+		boolean idempotent = statements.stream().allMatch(statement -> Boolean.TRUE.equals(statement.isIdempotent()));
+
+		if (statements.size() == 1) {
+			return execute(statements.get(0), idempotent);
+		}
+		return batchTypeOf(TableKey.of(statements.get(0)))
+				.flatMap(batchType -> execute(BatchStatement.builder(batchType)
+															.addStatements(List.copyOf(statements))
+															.setIdempotence(idempotent)
+															.build(), idempotent))
+				//table is unknown to the driver, statements are sent one by one as they cannot be safely batched
+				.switchIfEmpty(Flux.fromIterable(statements)
+								   .concatMap(statement -> execute(statement, idempotent))
+								   .then());
+	}
+
+	private Mono<Void> execute(Statement<?> statement, boolean idempotent) {
+		Mono<Void> write = Mono.defer(() -> cassandraOperations.execute(statement)).then();
+		if (idempotent) {
+			return write.retryWhen(retry);
+		}
+		return write;
+	}
+
+	private Mono<BatchType> batchTypeOf(TableKey table) {
+		BatchType cached = batchTypes.get(table);
+		if (cached != null) {
+			return Mono.just(cached);
+		}
+		return cassandraOperations.getReactiveCqlOperations()
+								  .execute((ReactiveSessionCallback<Optional<BatchType>>) session -> Mono.just(
+										  session.getMetadata()
+												 .getKeyspace(table.getKeyspace())
+												 .flatMap(keyspace -> keyspace.getTable(table.getTable()))
+												 .map(metadata -> isCounterTable(metadata.getColumns().values())
+														 ? BatchType.COUNTER
+														 : BatchType.UNLOGGED)))
+								  .next()
+								  .flatMap(Mono::justOrEmpty)
+								  .doOnNext(batchType -> batchTypes.put(table, batchType));
+	}
+
+	private static boolean isCounterTable(Collection<ColumnMetadata> columns) {
+		return columns.stream().anyMatch(column -> DataTypes.COUNTER.equals(column.getType()));
+	}
+
+	@lombok.Value
+	private static class PartitionKey {
+		CqlIdentifier keyspace;
+		CqlIdentifier table;
+		ByteBuffer routingKey;
+		Object statement;
+
+		static PartitionKey of(BoundStatement statement) {
+			ByteBuffer routingKey = statement.getRoutingKey();
+			TableKey table = TableKey.of(statement);
+			if (routingKey == null) {
+				//partition is unknown, such statement is never grouped with others
+				return new PartitionKey(table.getKeyspace(), table.getTable(), null, statement);
+			}
+			return new PartitionKey(table.getKeyspace(), table.getTable(), routingKey, null);
+		}
+	}
+
+	@lombok.Value
+	private static class TableKey {
+		CqlIdentifier keyspace;
+		CqlIdentifier table;
+
+		static TableKey of(BoundStatement statement) {
+			ColumnDefinition firstVariable = statement.getPreparedStatement().getVariableDefinitions().get(0);
+			return new TableKey(firstVariable.getKeyspace(), firstVariable.getTable());
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.maciej.wojtaczka.messagebox.domain.UnreadCountInvalidations;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.cassandra.core.ReactiveCassandraOperations;
+
+import java.time.Duration;
+import java.util.UUID;
+
+@Configuration
+public class PersistenceConfiguration {
+
+	/**
+	 * Holder of the leases taken by this instance.
+	 */
+	private final String instanceId = UUID.randomUUID().toString();
+
+	@Bean
+	@Primary
+	@ConditionalOnProperty(name = "message-box.cache.conversations.enabled", havingValue = "true", matchIfMissing = true)
+	CachingConversationStorage cachingConversationStorage(CassandraConversationStorage storage,
+														  @Value("${message-box.cache.conversations.max-size:10000}") int maxSize,
+														  @Value("${message-box.cache.conversations.time-to-live:PT10M}") Duration timeToLive,
+														  UnreadCountInvalidations unreadCountInvalidations,
+														  @Value("${message-box.cache.unread-counts.max-size:100000}") int unreadCountsMaxSize,
+														  @Value("${message-box.cache.unread-counts.time-to-live:PT1M}") Duration unreadCountsTimeToLive,
+														  @Value("${message-box.cache.unread-counts.invalidation-window:PT0.05S}") Duration invalidationWindow,
+														  @Value("${message-box.cache.unread-counts.invalidation-batch-size:500}") int invalidationBatchSize) {
+		var cachingStorage = new CachingConversationStorage(storage, maxSize, timeToLive,
+															unreadCountInvalidations, unreadCountsMaxSize, unreadCountsTimeToLive,
+															invalidationWindow, invalidationBatchSize);
+		cachingStorage.start();
+
+		return cachingStorage;
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "message-box.cassandra.backfill-conversation-by-activity", havingValue = "true")
+	ConversationByActivityBackfill conversationByActivityBackfill(ReactiveCassandraOperations cassandraOperations,
+																  PreparedStatementRegistry preparedStatements,
+																  PartitionAwareWriter writer,
+																  @Value("${message-box.cassandra.backfill-concurrency:8}") int concurrency) {
+		var backfill = new ConversationByActivityBackfill(cassandraOperations, preparedStatements, writer, concurrency);
+		backfill.start();
+
+		return backfill;
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "message-box.cassandra.backfill-face-to-face-ids", havingValue = "true")
+	FaceToFaceConversationBackfill faceToFaceConversationBackfill(ReactiveCassandraOperations cassandraOperations,
+																  PreparedStatementRegistry preparedStatements,
+																  PartitionAwareWriter writer,
+																  CassandraConversationStorage conversationStorage,
+																  @Value("${message-box.cassandra.backfill-concurrency:8}") int concurrency) {
+		var backfill = new FaceToFaceConversationBackfill(cassandraOperations, preparedStatements, writer, conversationStorage, concurrency);
+		backfill.start();
+
+		return backfill;
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "message-box.cassandra.backfill-message-buckets", havingValue = "true")
+	MessageBucketsBackfill messageBucketsBackfill(ReactiveCassandraOperations cassandraOperations,
+												  PreparedStatementRegistry preparedStatements,
+												  PartitionAwareWriter writer,
+												  @Value("${message-box.cassandra.message-bucket-size:P30D}") Duration messageBucketSize,
+												  @Value("${message-box.cassandra.backfill-concurrency:8}") int concurrency) {
+		var backfill = new MessageBucketsBackfill(cassandraOperations, preparedStatements, writer,
+												  new MessageBuckets(messageBucketSize), concurrency);
+		backfill.start();
+
+		return backfill;
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "message-box.cassandra.unread-counters.reconciliation-enabled", havingValue = "true")
+	UnreadCountersReconciliation unreadCountersReconciliation(ReactiveCassandraOperations cassandraOperations,
+															  PreparedStatementRegistry preparedStatements,
+															  @Value("${message-box.cassandra.unread-counters.reconciliation-interval:PT6H}")
+																	  Duration interval,
+															  @Value("${message-box.cassandra.unread-counters.reconciliation-concurrency:8}")
+																	  int concurrency) {
+		//the lease lasts the whole interval, other instances cannot take it over while the reconciliation runs
+		var lease = new Lease(cassandraOperations, preparedStatements, "unread-counters-reconciliation", instanceId, interval);
+		var reconciliation = new UnreadCountersReconciliation(cassandraOperations, preparedStatements, lease, interval, concurrency);
+		reconciliation.start();
+
+		return reconciliation;
+	}
+}
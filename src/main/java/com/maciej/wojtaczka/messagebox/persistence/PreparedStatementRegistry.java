@@ -0,0 +1,61 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import org.springframework.data.cassandra.core.ReactiveCassandraOperations;
+import org.springframework.data.cassandra.core.cql.ReactiveSessionCallback;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prepares every query once (lazily, on its first use) and hands out bound statements afterwards,
+ * so Cassandra does not re-parse the query on each call and the driver can route requests token-aware.
+ */
+@Component
+public class PreparedStatementRegistry {
+
+	private final ReactiveCassandraOperations cassandraOperations;
+	private final Map<String, Mono<PreparedStatement>> preparedStatements = new ConcurrentHashMap<>();
+	private final LongAdder prepareCount = new LongAdder();
+	private final LongAdder hitCount = new LongAdder();
+
+	public PreparedStatementRegistry(ReactiveCassandraOperations cassandraOperations) {
+		this.cassandraOperations = cassandraOperations;
+	}
+
+	public Mono<BoundStatement> bind(SimpleStatement statement, Object... values) {
+		return prepare(statement).map(preparedStatement -> preparedStatement.bind(values));
+	}
+
+	public Mono<PreparedStatement> prepare(SimpleStatement statement) {
+		Mono<PreparedStatement> prepared = preparedStatements.get(statement.getQuery());
+		if (prepared != null) {
+			hitCount.increment();
+			return prepared;
+		}
+		return preparedStatements.computeIfAbsent(statement.getQuery(), query -> doPrepare(statement));
+	}
+
+	private Mono<PreparedStatement> doPrepare(SimpleStatement statement) {
+		return cassandraOperations.getReactiveCqlOperations()
+								  .execute((ReactiveSessionCallback<PreparedStatement>) session -> session.prepare(statement))
+								  .single()
+								  .doOnNext(preparedStatement -> prepareCount.increment())
+								  //do not keep a failed preparation, next call will try again
+								  .doOnError(throwable -> preparedStatements.remove(statement.getQuery()))
+								  .cache();
+	}
+
+	long getPrepareCount() {
+		return prepareCount.sum();
+	}
+
+	long getHitCount() {
+		return hitCount.sum();
+	}
+}
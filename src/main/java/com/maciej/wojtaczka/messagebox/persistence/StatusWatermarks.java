@@ -0,0 +1,72 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status.DELIVERED;
+import static com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status.SEEN;
+
+/**
+ * Delivered and seen watermarks of the interlocutors of one conversation.
+ * A message not newer than the watermark of a user has the status for that user.
+ */
+class StatusWatermarks {
+
+	private final Map<UUID, Instant> deliveredUpTo;
+	private final Map<UUID, Instant> seenUpTo;
+
+	private StatusWatermarks(Map<UUID, Instant> deliveredUpTo, Map<UUID, Instant> seenUpTo) {
+		this.deliveredUpTo = deliveredUpTo;
+		this.seenUpTo = seenUpTo;
+	}
+
+	static StatusWatermarks from(List<Row> rows) {
+		Map<UUID, Instant> deliveredUpTo = new HashMap<>();
+		Map<UUID, Instant> seenUpTo = new HashMap<>();
+		for (Row row : rows) {
+			UUID userId = row.getUuid("user_id");
+			Instant delivered = row.getInstant("delivered_up_to");
+			if (delivered != null) {
+				deliveredUpTo.put(userId, delivered);
+			}
+			Instant seen = row.getInstant("seen_up_to");
+			if (seen != null) {
+				seenUpTo.put(userId, seen);
+			}
+		}
+		return new StatusWatermarks(deliveredUpTo, seenUpTo);
+	}
+
+	/**
+	 * Statuses stored with the message itself (written before the watermarks existed) are kept, the watermarks only raise them.
+	 */
+	Message apply(Message message) {
+		if (deliveredUpTo.isEmpty() && seenUpTo.isEmpty()) {
+			return message;
+		}
+		Map<UUID, MessageStatusUpdated.Status> stored = message.getStatusByInterlocutor();
+		Map<UUID, MessageStatusUpdated.Status> statuses = null;
+		for (Map.Entry<UUID, Instant> watermark : seenUpTo.entrySet()) {
+			if (!watermark.getValue().isBefore(message.getTime()) && stored.get(watermark.getKey()) != SEEN) {
+				statuses = statuses == null ? new HashMap<>(stored) : statuses;
+				statuses.put(watermark.getKey(), SEEN);
+			}
+		}
+		for (Map.Entry<UUID, Instant> watermark : deliveredUpTo.entrySet()) {
+			Map<UUID, MessageStatusUpdated.Status> current = statuses == null ? stored : statuses;
+			if (!watermark.getValue().isBefore(message.getTime()) && !current.containsKey(watermark.getKey())) {
+				statuses = statuses == null ? new HashMap<>(stored) : statuses;
+				statuses.put(watermark.getKey(), DELIVERED);
+			}
+		}
+		//messages already up to date with the watermarks are not copied
+		return statuses == null ? message : message.withStatusByInterlocutor(statuses);
+	}
+}
@@ -0,0 +1,131 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.cassandra.ReactiveResultSet;
+import org.springframework.data.cassandra.core.ReactiveCassandraOperations;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static com.datastax.oss.driver.api.querybuilder.QueryBuilder.bindMarker;
+
+/**
+ * Unread counters are maintained with a read before write, so concurrent updates can make them drift.
+ * The reconciliation recomputes them from conversation_unread, which stays the source of truth.
+ * <p>
+ * Counters can only be adjusted by a difference, so two adjustments of one drift would make it drift the other way. The reconciliation
+ * runs on the single instance holding its {@link Lease} and leaves alone a counter changed while its drift was being computed.
+ */
+@Slf4j
+public class UnreadCountersReconciliation {
+
+	private static final SimpleStatement COUNT_UNREAD_CONVERSATIONS =
+			QueryBuilder.selectFrom("message_box", "conversation_unread")
+						.countAll()
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement SELECT_UNREAD_COUNT =
+			QueryBuilder.selectFrom("message_box", "conversation_unread_count")
+						.column("unread")
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement ADJUST_UNREAD_COUNT =
+			QueryBuilder.update("message_box", "conversation_unread_count")
+						.increment("unread", bindMarker())
+						.whereColumn("user_id").isEqualTo(bindMarker())
+						.build();
+
+	private static final SimpleStatement SELECT_USERS_WITH_UNREAD_CONVERSATIONS =
+			QueryBuilder.selectFrom("message_box", "conversation_unread")
+						.distinct()
+						.column("user_id")
+						.build();
+
+	private static final SimpleStatement SELECT_USERS_WITH_UNREAD_COUNT =
+			QueryBuilder.selectFrom("message_box", "conversation_unread_count")
+						.column("user_id")
+						.build();
+
+	private final ReactiveCassandraOperations cassandraOperations;
+	private final PreparedStatementRegistry preparedStatements;
+	private final Lease lease;
+	private final Duration interval;
+	private final int concurrency;
+
+	UnreadCountersReconciliation(ReactiveCassandraOperations cassandraOperations,
+								 PreparedStatementRegistry preparedStatements,
+								 Lease lease,
+								 Duration interval,
+								 int concurrency) {
+		this.cassandraOperations = cassandraOperations;
+		this.preparedStatements = preparedStatements;
+		this.lease = lease;
+		this.interval = interval;
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Every instance tries to take the lease on each interval, the one holding it keeps renewing it and runs the reconciliation.
+	 */
+	void start() {
+		Flux.interval(interval)
+			.onBackpressureDrop()
+			.concatMap(tick -> lease.acquire()
+									.filter(Boolean::booleanValue)
+									.flatMap(held -> reconcileAll())
+					.doOnNext(count -> log.info("Unread counters reconciled for {} users", count))
+					.onErrorResume(throwable -> {
+						log.error("Unread counters reconciliation failed: {}", throwable.getMessage());
+						return Mono.empty();
+					}))
+			.subscribe();
+	}
+
+	/**
+	 * Users present in both tables are reconciled twice, which is harmless as every run recomputes the difference.
+	 */
+	public Mono<Long> reconcileAll() {
+		return Flux.concat(selectUsers(SELECT_USERS_WITH_UNREAD_CONVERSATIONS), selectUsers(SELECT_USERS_WITH_UNREAD_COUNT))
+				   .flatMap(this::reconcile, concurrency)
+				   .count();
+	}
+
+	/**
+	 * The counter is read before and after the unread conversations are counted, a counter which changed in between is skipped
+	 * until the next run rather than adjusted by a drift that is no longer true.
+	 */
+	public Mono<Void> reconcile(UUID userId) {
+		return selectLong(SELECT_UNREAD_COUNT, userId)
+				.flatMap(unreadCount -> selectLong(COUNT_UNREAD_CONVERSATIONS, userId)
+						.filter(unreadConversations -> unreadConversations.longValue() != unreadCount.longValue())
+						.flatMap(unreadConversations -> selectLong(SELECT_UNREAD_COUNT, userId)
+								.filter(recheckedCount -> recheckedCount.longValue() == unreadCount.longValue())
+								.map(recheckedCount -> unreadConversations - unreadCount)))
+				.flatMap(drift -> preparedStatements.bind(ADJUST_UNREAD_COUNT, drift, userId))
+				.flatMap(cassandraOperations::execute)
+				.then();
+	}
+
+	private Flux<UUID> selectUsers(SimpleStatement statement) {
+		return preparedStatements.bind(statement)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .mapNotNull(row -> row.getUuid("user_id"));
+	}
+
+	private Mono<Long> selectLong(SimpleStatement statement, UUID userId) {
+		return preparedStatements.bind(statement, userId)
+								 .flatMap(cassandraOperations::execute)
+								 .flatMapMany(ReactiveResultSet::rows)
+								 .next()
+								 .map((Row row) -> row.getLong(0))
+								 .defaultIfEmpty(0L);
+	}
+}
@@ -0,0 +1,58 @@
+package com.maciej.wojtaczka.messagebox.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AcceptanceClockTest {
+
+	@Test
+	void shouldMoveTimeOfConversationAfterItsLastTime() {
+		//given
+		AcceptanceClock clock = new AcceptanceClock(10);
+		UUID conversationId = UUID.randomUUID();
+		Instant now = Instant.parse("2022-01-01T10:00:00.000500Z");
+		clock.next(conversationId, now);
+
+		//when
+		Instant sameMillisecond = clock.next(conversationId, now.plusNanos(100_000));
+		Instant earlier = clock.next(conversationId, now.minusSeconds(1));
+
+		//then
+		assertThat(sameMillisecond).isEqualTo(Instant.parse("2022-01-01T10:00:00.001Z"));
+		assertThat(earlier).isEqualTo(Instant.parse("2022-01-01T10:00:00.002Z"));
+	}
+
+	@Test
+	void shouldKeepTimesOfConversationsApart() {
+		//given
+		AcceptanceClock clock = new AcceptanceClock(10);
+		Instant now = Instant.parse("2022-01-01T10:00:00.000500Z");
+		clock.next(UUID.randomUUID(), now);
+
+		//when
+		Instant time = clock.next(UUID.randomUUID(), now);
+
+		//then
+		assertThat(time).isEqualTo(Instant.parse("2022-01-01T10:00:00Z"));
+	}
+
+	@Test
+	void shouldForgetLeastRecentlyActiveConversation() {
+		//given
+		AcceptanceClock clock = new AcceptanceClock(1);
+		UUID forgotten = UUID.randomUUID();
+		Instant now = Instant.parse("2022-01-01T10:00:00Z");
+		clock.next(forgotten, now);
+		clock.next(UUID.randomUUID(), now);
+
+		//when
+		Instant time = clock.next(forgotten, now);
+
+		//then
+		assertThat(time).isEqualTo(now);
+	}
+}
@@ -0,0 +1,93 @@
+package com.maciej.wojtaczka.messagebox.domain;
+
+import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LiveFeedTest {
+
+	@Test
+	void shouldPushEventsOnlyToTheirRecipients() {
+		//given
+		LiveFeed liveFeed = new LiveFeed(16, LiveFeed.SlowClientPolicy.DISCONNECT);
+		UUID recipient = UUID.randomUUID();
+		UUID other = UUID.randomUUID();
+		Message message = message();
+
+		//when
+		//then
+		StepVerifier.create(liveFeed.subscribe(recipient))
+					.then(() -> {
+						assertThat(liveFeed.getConnectionCount()).isEqualTo(1);
+						liveFeed.publish(Envelope.wrap(message, Set.of(other)));
+						liveFeed.publish(Envelope.wrap(message, Set.of(recipient, other)));
+					})
+					.assertNext(event -> {
+						assertThat(event.getPayload()).isEqualTo(message);
+						assertThat(event.getRecipients()).containsExactly(recipient);
+					})
+					.thenCancel()
+					.verify();
+		assertThat(liveFeed.getConnectionCount()).isZero();
+		assertThat(liveFeed.getConnectedUserCount()).isZero();
+	}
+
+	@Test
+	void shouldDisconnectClientWhichDoesNotKeepUp() {
+		//given
+		LiveFeed liveFeed = new LiveFeed(2, LiveFeed.SlowClientPolicy.DISCONNECT);
+		UUID recipient = UUID.randomUUID();
+
+		//when
+		//then
+		StepVerifier.create(liveFeed.subscribe(recipient), 0)
+					.then(() -> {
+						for (int i = 0; i < 3; i++) {
+							liveFeed.publish(Envelope.wrap(message(), Set.of(recipient)));
+						}
+					})
+					.thenRequest(Long.MAX_VALUE)
+					.expectNextCount(2)
+					.verifyComplete();
+		assertThat(liveFeed.getDroppedEventCount()).isEqualTo(1);
+		assertThat(liveFeed.getSlowClientDisconnectCount()).isEqualTo(1);
+	}
+
+	@Test
+	void shouldDropEventsWhichDoNotFitBuffer() {
+		//given
+		LiveFeed liveFeed = new LiveFeed(2, LiveFeed.SlowClientPolicy.DROP);
+		UUID recipient = UUID.randomUUID();
+
+		//when
+		//then
+		StepVerifier.create(liveFeed.subscribe(recipient), 0)
+					.then(() -> {
+						for (int i = 0; i < 3; i++) {
+							liveFeed.publish(Envelope.wrap(message(), Set.of(recipient)));
+						}
+					})
+					.thenRequest(Long.MAX_VALUE)
+					.expectNextCount(2)
+					.thenCancel()
+					.verify();
+		assertThat(liveFeed.getDroppedEventCount()).isEqualTo(1);
+		assertThat(liveFeed.getSlowClientDisconnectCount()).isZero();
+	}
+
+	private Message message() {
+		return Message.builder()
+					  .conversationId(UUID.randomUUID())
+					  .authorId(UUID.randomUUID())
+					  .time(Instant.now())
+					  .content("Hello")
+					  .build();
+	}
+}
@@ -2,6 +2,7 @@ package com.maciej.wojtaczka.messagebox.domain.model;
 
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Map;
 import java.util.Set;
@@ -31,6 +32,27 @@ class ConversationTest {
 		assertThat(newConversation.getInterlocutors()).containsExactlyInAnyOrder(user1, user2);
 	}
 
+	@Test
+	void shouldCreateSameFaceToFaceConversationForSameUsers() {
+		//given
+		UUID user1 = UUID.randomUUID();
+		UUID user2 = UUID.randomUUID();
+		Instant connectionDate = Instant.parse("2007-12-03T10:15:30.00Z");
+		UserConnection connection = UserConnection.builder().user1(user1).user2(user2).connectionDate(connectionDate).build();
+		UserConnection reversed = UserConnection.builder().user1(user2).user2(user1).connectionDate(connectionDate).build();
+
+		//when
+		Conversation conversation = Conversation.createFaceToFace(connection);
+		Conversation again = Conversation.createFaceToFace(reversed);
+
+		//then
+		assertThat(again).isEqualTo(conversation);
+		assertThat(conversation.getConversationId()).isEqualTo(Conversation.faceToFaceId(user2, user1));
+		assertThat(conversation.getLastActivity()).isEqualTo(connectionDate);
+		assertThat(conversation.isFaceToFaceOf(user1, user2)).isTrue();
+		assertThat(conversation.isFaceToFaceOf(user1, UUID.randomUUID())).isFalse();
+	}
+
 	@Test
 	void shouldCreateNewGroupConversation() {
 		//given
@@ -182,6 +204,31 @@ class ConversationTest {
 		assertThat(result).isFalse();
 	}
 
+	@Test
+	void shouldMessageSeenBeInvalid_whenMsgIsFromFuture() {
+		//given
+		UUID msgAuthorId = UUID.randomUUID();
+		UUID seenBy = UUID.randomUUID();
+		UUID conversationId = UUID.randomUUID();
+
+		Conversation givenConversation =
+				Conversation.builder()
+							.conversationId(conversationId)
+							.interlocutors(Set.of(msgAuthorId, seenBy))
+							.build();
+		var messageSeen = MessageStatusUpdated.builder()
+									 .conversationId(conversationId)
+									 .authorId(msgAuthorId)
+									 .updatedBy(seenBy)
+									 .time(Instant.now().plus(Duration.ofDays(1)))
+									 .build();
+		//when
+		boolean result = givenConversation.isValid(messageSeen);
+
+		//then
+		assertThat(result).isFalse();
+	}
+
 	@Test
 	void shouldMessageSeenBeInvalid_whenUserThatSawMsgDoesntBelongToConversation() {
 		//given
@@ -0,0 +1,93 @@
+package com.maciej.wojtaczka.messagebox.domain.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status.DELIVERED;
+import static com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status.SEEN;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageStatusUpdatedTest {
+
+	private static final Instant TIME = Instant.parse("2007-12-03T10:15:30.00Z");
+
+	@Test
+	void shouldCoalesceStatusesIntoLatestSeen() {
+		//given
+		UUID conversationId = UUID.randomUUID();
+		UUID reader = UUID.randomUUID();
+		MessageStatusUpdated delivered = status(conversationId, reader, TIME, DELIVERED);
+		MessageStatusUpdated firstSeen = status(conversationId, reader, TIME, SEEN);
+		MessageStatusUpdated lastSeen = status(conversationId, reader, TIME.plusSeconds(2), SEEN);
+		MessageStatusUpdated middleSeen = status(conversationId, reader, TIME.plusSeconds(1), SEEN);
+
+		//when
+		List<MessageStatusUpdated> coalesced = MessageStatusUpdated.coalesce(List.of(delivered, firstSeen, lastSeen, middleSeen));
+
+		//then
+		assertThat(coalesced).containsExactly(lastSeen);
+	}
+
+	@Test
+	void shouldKeepDeliveredLaterThanSeenBeforeSeen() {
+		//given
+		UUID conversationId = UUID.randomUUID();
+		UUID reader = UUID.randomUUID();
+		MessageStatusUpdated seen = status(conversationId, reader, TIME, SEEN);
+		MessageStatusUpdated delivered = status(conversationId, reader, TIME.plusSeconds(1), DELIVERED);
+		MessageStatusUpdated earlierDelivered = status(conversationId, reader, TIME.minusSeconds(1), DELIVERED);
+
+		//when
+		List<MessageStatusUpdated> coalesced = MessageStatusUpdated.coalesce(List.of(seen, earlierDelivered, delivered));
+
+		//then
+		assertThat(coalesced).containsExactly(delivered, seen);
+	}
+
+	@Test
+	void shouldCoalesceStatusesOfEachUserInEachConversationSeparately() {
+		//given
+		UUID conversationId = UUID.randomUUID();
+		UUID otherConversationId = UUID.randomUUID();
+		UUID reader = UUID.randomUUID();
+		UUID otherReader = UUID.randomUUID();
+		MessageStatusUpdated seen = status(conversationId, reader, TIME, SEEN);
+		MessageStatusUpdated seenByOther = status(conversationId, otherReader, TIME, SEEN);
+		MessageStatusUpdated seenInOther = status(otherConversationId, reader, TIME, DELIVERED);
+
+		//when
+		List<MessageStatusUpdated> coalesced = MessageStatusUpdated.coalesce(List.of(seen, seenByOther, seenInOther));
+
+		//then
+		assertThat(coalesced).containsExactly(seen, seenByOther, seenInOther);
+	}
+
+	@Test
+	void shouldCoalesceStatusesWithoutTimeAsOldest() {
+		//given
+		UUID conversationId = UUID.randomUUID();
+		UUID reader = UUID.randomUUID();
+		MessageStatusUpdated seenWithoutTime = status(conversationId, reader, null, SEEN);
+		MessageStatusUpdated seen = status(conversationId, reader, TIME, SEEN);
+		MessageStatusUpdated deliveredWithoutTime = status(conversationId, reader, null, DELIVERED);
+
+		//when
+		List<MessageStatusUpdated> coalesced = MessageStatusUpdated.coalesce(List.of(seenWithoutTime, seen, deliveredWithoutTime));
+
+		//then
+		assertThat(coalesced).containsExactly(seen);
+	}
+
+	private MessageStatusUpdated status(UUID conversationId, UUID updatedBy, Instant time, MessageStatusUpdated.Status status) {
+		return MessageStatusUpdated.builder()
+								   .conversationId(conversationId)
+								   .authorId(UUID.randomUUID())
+								   .time(time)
+								   .updatedBy(updatedBy)
+								   .status(status)
+								   .build();
+	}
+}
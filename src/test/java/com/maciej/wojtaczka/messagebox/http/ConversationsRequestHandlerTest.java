@@ -3,6 +3,7 @@ package com.maciej.wojtaczka.messagebox.http;
 import com.datastax.oss.driver.api.core.CqlSession;
 import com.maciej.wojtaczka.messagebox.domain.model.Conversation;
 import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import com.maciej.wojtaczka.messagebox.domain.model.UnreadConversationsCount;
 import com.maciej.wojtaczka.messagebox.utils.ConversationFixture;
 import org.assertj.core.api.Assertions;
 import org.cassandraunit.CQLDataLoader;
@@ -14,7 +15,10 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.test.StepVerifier;
 
@@ -25,8 +29,11 @@ import java.util.Map;
 import java.util.UUID;
 
 import static com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status.SEEN;
+import static com.maciej.wojtaczka.messagebox.http.CountUnreadConversationsRequestHandler.UNREAD_CONVERSATIONS_COUNTS_URL;
 import static com.maciej.wojtaczka.messagebox.http.GetConversationsRequestHandler.CONVERSATIONS_URL;
+import static com.maciej.wojtaczka.messagebox.http.GetFaceToFaceConversationRequestHandler.FACE_TO_FACE_CONVERSATION_URL;
 import static com.maciej.wojtaczka.messagebox.http.GetMessagesRequestHandler.MESSAGES_URL;
+import static com.maciej.wojtaczka.messagebox.http.Paging.NEXT_CURSOR_HEADER;
 import static com.maciej.wojtaczka.messagebox.http.GetUnreadConversationsCountRequestHandler.UNREAD_CONVERSATIONS_COUNT_URL;
 import static java.time.Instant.parse;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -99,6 +106,60 @@ class ConversationsRequestHandlerTest {
 			  });
 	}
 
+	@Test
+	void getConversations_shouldReturnUserConversationsPageByPage() {
+		//given
+		UUID userId = UUID.randomUUID();
+		UUID firstConversation = UUID.randomUUID();
+		UUID secondConversation = UUID.randomUUID();
+		UUID thirdConversation = UUID.randomUUID();
+		Instant time = parse("2007-12-03T10:15:30.00Z");
+
+		$.givenConversationWithId(firstConversation).betweenUsers(userId, UUID.randomUUID())
+		 .withMessage().writtenBy(userId).atTime(time.plusSeconds(1))
+		 .andTheConversation().exists();
+
+		$.givenConversationWithId(secondConversation).betweenUsers(userId, UUID.randomUUID())
+		 .withMessage().writtenBy(userId).atTime(time.plusSeconds(2))
+		 .andTheConversation().exists();
+
+		$.givenConversationWithId(thirdConversation).betweenUsers(userId, UUID.randomUUID())
+		 .withMessage().writtenBy(userId).atTime(time.plusSeconds(3))
+		 .andTheConversation().exists();
+
+		//when
+		EntityExchangeResult<List<Conversation>> firstPage = webClient.get()
+																	  .uri(uriBuilder -> uriBuilder.path(CONVERSATIONS_URL)
+																								   .queryParam("userId", userId)
+																								   .queryParam("limit", 2)
+																								   .build())
+																	  .exchange()
+																	  .expectStatus().isOk()
+																	  .expectBodyList(Conversation.class)
+																	  .hasSize(2)
+																	  .returnResult();
+		String cursor = firstPage.getResponseHeaders().getFirst(NEXT_CURSOR_HEADER);
+
+		WebTestClient.ResponseSpec secondPage = webClient.get()
+														 .uri(uriBuilder -> uriBuilder.path(CONVERSATIONS_URL)
+																					  .queryParam("userId", userId)
+																					  .queryParam("limit", 2)
+																					  .queryParam("cursor", cursor)
+																					  .build())
+														 .exchange();
+
+		//then
+		List<Conversation> firstPageConversations = firstPage.getResponseBody();
+		assertThat(firstPageConversations).isNotNull();
+		assertThat(firstPageConversations.get(0).getConversationId()).isEqualTo(thirdConversation);
+		assertThat(firstPageConversations.get(1).getConversationId()).isEqualTo(secondConversation);
+
+		secondPage.expectStatus().isOk()
+				  .expectBodyList(Conversation.class)
+				  .hasSize(1)
+				  .value(conversations -> assertThat(conversations.get(0).getConversationId()).isEqualTo(firstConversation));
+	}
+
 	@Test //TODO
 	void getMessages_shouldReturnMessage() {
 		//given
@@ -167,6 +228,199 @@ class ConversationsRequestHandlerTest {
 			  });
 	}
 
+	@Test
+	void getMessages_shouldStreamMessagesAsNdjson() {
+		//given
+		UUID userId1 = UUID.randomUUID();
+		UUID userId2 = UUID.randomUUID();
+		UUID conversationId = UUID.randomUUID();
+		Instant time = parse("2007-12-03T10:15:30.00Z");
+
+		$.givenConversationWithId(conversationId).betweenUsers(userId1, userId2)
+		 .withMessage().writtenBy(userId1).withContent("Hello").atTime(time.plusSeconds(1))
+		 .andMessage().writtenBy(userId2).withContent("Hi!").atTime(time.plusSeconds(2))
+		 .andMessage().writtenBy(userId1).withContent("What's up?").atTime(time.plusSeconds(3))
+		 .andTheConversation().exists();
+
+		//when
+		WebTestClient.ResponseSpec result = webClient.get()
+													 .uri(uriBuilder -> uriBuilder.path(MESSAGES_URL)
+																				  .build(conversationId.toString()))
+													 .accept(MediaType.APPLICATION_NDJSON)
+													 .exchange();
+		//then
+		result.expectStatus().isOk()
+			  .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON);
+		StepVerifier.create(result.returnResult(Message.class).getResponseBody())
+					.assertNext(message -> assertThatMessageHasExpected(message, conversationId, userId1, time.plusSeconds(3), "What's up?"))
+					.assertNext(message -> assertThatMessageHasExpected(message, conversationId, userId2, time.plusSeconds(2), "Hi!"))
+					.assertNext(message -> assertThatMessageHasExpected(message, conversationId, userId1, time.plusSeconds(1), "Hello"))
+					.verifyComplete();
+	}
+
+	@Test
+	void getMessages_shouldReturnMessagesPageByPage() {
+		//given
+		UUID userId1 = UUID.randomUUID();
+		UUID userId2 = UUID.randomUUID();
+		UUID conversationId = UUID.randomUUID();
+		Instant time = parse("2007-12-03T10:15:30.00Z");
+
+		$.givenConversationWithId(conversationId).betweenUsers(userId1, userId2)
+		 .withMessage().writtenBy(userId1).withContent("Hello").atTime(time.plusSeconds(1))
+		 .andMessage().writtenBy(userId2).withContent("Hi!").atTime(time.plusSeconds(2))
+		 .andMessage().writtenBy(userId1).withContent("What's up?").atTime(time.plusSeconds(3))
+		 .andMessage().writtenBy(userId2).withContent("Fine :)").atTime(time.plusSeconds(4))
+		 .andMessage().writtenBy(userId1).withContent("Good, bye ;)").atTime(time.plusSeconds(5))
+		 .andMessage().writtenBy(userId2).withContent("Bye xD").atTime(time.plusSeconds(6))
+		 .andTheConversation().exists();
+
+		//when
+		EntityExchangeResult<List<Message>> firstPage = webClient.get()
+																 .uri(uriBuilder -> uriBuilder.path(MESSAGES_URL)
+																							  .queryParam("limit", 4)
+																							  .build(conversationId.toString()))
+																 .exchange()
+																 .expectStatus().isOk()
+																 .expectBodyList(Message.class)
+																 .hasSize(4)
+																 .returnResult();
+		String cursor = firstPage.getResponseHeaders().getFirst(NEXT_CURSOR_HEADER);
+
+		WebTestClient.ResponseSpec secondPage = webClient.get()
+														 .uri(uriBuilder -> uriBuilder.path(MESSAGES_URL)
+																					  .queryParam("limit", 4)
+																					  .queryParam("cursor", cursor)
+																					  .build(conversationId.toString()))
+														 .exchange();
+
+		//then
+		assertThat(cursor).isNotBlank();
+		List<Message> firstPageMessages = firstPage.getResponseBody();
+		assertThat(firstPageMessages).isNotNull();
+		assertThatMessageHasExpected(firstPageMessages.get(0), conversationId, userId2, time.plusSeconds(6), "Bye xD");
+		assertThatMessageHasExpected(firstPageMessages.get(3), conversationId, userId1, time.plusSeconds(3), "What's up?");
+
+		secondPage.expectStatus().isOk()
+				  .expectHeader().doesNotExist(NEXT_CURSOR_HEADER)
+				  .expectBodyList(Message.class)
+				  .hasSize(2)
+				  .value(messages -> {
+					  assertThatMessageHasExpected(messages.get(0), conversationId, userId2, time.plusSeconds(2), "Hi!");
+					  assertThatMessageHasExpected(messages.get(1), conversationId, userId1, time.plusSeconds(1), "Hello");
+				  });
+	}
+
+	@Test
+	void getMessages_shouldAnswerNotModifiedUntilConversationGetsMessage() {
+		//given
+		UUID userId1 = UUID.randomUUID();
+		UUID userId2 = UUID.randomUUID();
+		UUID conversationId = UUID.randomUUID();
+		Instant time = parse("2007-12-03T10:15:30.00Z");
+
+		$.givenConversationWithId(conversationId).betweenUsers(userId1, userId2)
+		 .withMessage().writtenBy(userId1).withContent("Hello").atTime(time)
+		 .andTheConversation().exists();
+
+		String eTag = webClient.get()
+							   .uri(uriBuilder -> uriBuilder.path(MESSAGES_URL)
+															.build(conversationId.toString()))
+							   .exchange()
+							   .expectStatus().isOk()
+							   .expectHeader().lastModified(time.toEpochMilli())
+							   .returnResult(Message.class)
+							   .getResponseHeaders()
+							   .getETag();
+
+		//when
+		WebTestClient.ResponseSpec unchanged = webClient.get()
+														.uri(uriBuilder -> uriBuilder.path(MESSAGES_URL)
+																					 .build(conversationId.toString()))
+														.ifNoneMatch(eTag)
+														.exchange();
+		//then
+		unchanged.expectStatus().isNotModified()
+				 .expectBody().isEmpty();
+
+		//when
+		$.givenConversationWithId(conversationId).betweenUsers(userId1, userId2)
+		 .withMessage().writtenBy(userId2).withContent("Hi!").atTime(time.plusSeconds(1))
+		 .andTheConversation().exists();
+
+		WebTestClient.ResponseSpec changed = webClient.get()
+													  .uri(uriBuilder -> uriBuilder.path(MESSAGES_URL)
+																				   .build(conversationId.toString()))
+													  .ifNoneMatch(eTag)
+													  .exchange();
+		//then
+		changed.expectStatus().isOk()
+			   .expectBodyList(Message.class)
+			   .hasSize(2);
+	}
+
+	@Test
+	void getMessages_shouldRejectInvalidPageRequest() {
+		//given
+		UUID conversationId = UUID.randomUUID();
+
+		//when
+		WebTestClient.ResponseSpec tooBigLimit = webClient.get()
+														  .uri(uriBuilder -> uriBuilder.path(MESSAGES_URL)
+																					   .queryParam("limit", 100_000)
+																					   .build(conversationId.toString()))
+														  .exchange();
+		WebTestClient.ResponseSpec malformedCursor = webClient.get()
+															  .uri(uriBuilder -> uriBuilder.path(MESSAGES_URL)
+																						   .queryParam("cursor", "not a cursor!")
+																						   .build(conversationId.toString()))
+															  .exchange();
+
+		//then
+		tooBigLimit.expectStatus().isBadRequest();
+		malformedCursor.expectStatus().isBadRequest();
+	}
+
+	@Test
+	void getMessages_shouldRejectCursorOfAnotherConversation() {
+		//given
+		UUID userId1 = UUID.randomUUID();
+		UUID userId2 = UUID.randomUUID();
+		UUID conversationId = UUID.randomUUID();
+		UUID anotherConversationId = UUID.randomUUID();
+		Instant time = parse("2007-12-03T10:15:30.00Z");
+
+		$.givenConversationWithId(conversationId).betweenUsers(userId1, userId2)
+		 .withMessage().writtenBy(userId1).withContent("Hello").atTime(time)
+		 .andMessage().writtenBy(userId2).withContent("Hi!").atTime(time.plusSeconds(1))
+		 .andTheConversation().exists();
+		$.givenConversationWithId(anotherConversationId).betweenUsers(userId1, userId2)
+		 .withMessage().writtenBy(userId1).withContent("Hello").atTime(time)
+		 .andTheConversation().exists();
+
+		String cursor = webClient.get()
+								 .uri(uriBuilder -> uriBuilder.path(MESSAGES_URL)
+															  .queryParam("limit", 1)
+															  .build(conversationId.toString()))
+								 .exchange()
+								 .expectStatus().isOk()
+								 .returnResult(Message.class)
+								 .getResponseHeaders()
+								 .getFirst(NEXT_CURSOR_HEADER);
+
+		//when
+		WebTestClient.ResponseSpec foreignCursor = webClient.get()
+															.uri(uriBuilder -> uriBuilder.path(MESSAGES_URL)
+																						 .queryParam("limit", 1)
+																						 .queryParam("cursor", cursor)
+																						 .build(anotherConversationId.toString()))
+															.exchange();
+
+		//then
+		assertThat(cursor).isNotBlank();
+		foreignCursor.expectStatus().isBadRequest();
+	}
+
 	private void assertThatMessageHasExpected(Message message, UUID conversationId, UUID author, Instant time, String content) {
 		assertThat(message.getConversationId()).isEqualTo(conversationId);
 		assertThat(message.getAuthorId()).isEqualTo(author);
@@ -214,6 +468,68 @@ class ConversationsRequestHandlerTest {
 			  .expectBody(String.class).isEqualTo("2");
 	}
 
+	@Test
+	void postUnreadConversationsCount_shouldStreamCountsOfAllUsers() {
+		//given
+		UUID userId1 = UUID.randomUUID();
+		UUID userId2 = UUID.randomUUID();
+		UUID userId3 = UUID.randomUUID();
+		UUID userWithoutConversations = UUID.randomUUID();
+		Instant time = parse("2007-12-03T10:15:30.00Z");
+
+		$.givenConversation().betweenUsers(userId1, userId2)
+		 .withMessage().writtenBy(userId2).atTime(time.plusSeconds(1))
+		 .andTheConversation().exists();
+
+		$.givenConversation().betweenUsers(userId1, userId3)
+		 .withMessage().writtenBy(userId3).atTime(time.plusSeconds(2))
+		 .andTheConversation().exists();
+
+		//when
+		WebTestClient.ResponseSpec result = webClient.post()
+													 .uri(UNREAD_CONVERSATIONS_COUNTS_URL)
+													 .accept(MediaType.APPLICATION_NDJSON)
+													 .bodyValue(List.of(userId1, userId2, userWithoutConversations))
+													 .exchange();
+		//then
+		result.expectStatus().isOk();
+		StepVerifier.create(result.returnResult(UnreadConversationsCount.class).getResponseBody())
+					.expectNext(new UnreadConversationsCount(userId1, 2))
+					.expectNext(new UnreadConversationsCount(userId2, 0))
+					.expectNext(new UnreadConversationsCount(userWithoutConversations, 0))
+					.verifyComplete();
+	}
+
+	@Test
+	void postUnreadConversationsCount_shouldStreamNdjsonByDefault() {
+		//given
+		UUID userId = UUID.randomUUID();
+
+		//when
+		WebTestClient.ResponseSpec result = webClient.post()
+													 .uri(UNREAD_CONVERSATIONS_COUNTS_URL)
+													 .bodyValue(List.of(userId))
+													 .exchange();
+		//then
+		result.expectStatus().isOk()
+			  .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON);
+		StepVerifier.create(result.returnResult(UnreadConversationsCount.class).getResponseBody())
+					.expectNext(new UnreadConversationsCount(userId, 0))
+					.verifyComplete();
+	}
+
+	@Test
+	void postUnreadConversationsCount_shouldRejectClientAcceptingOnlyJsonArray() {
+		//when
+		WebTestClient.ResponseSpec result = webClient.post()
+													 .uri(UNREAD_CONVERSATIONS_COUNTS_URL)
+													 .accept(MediaType.APPLICATION_JSON)
+													 .bodyValue(List.of(UUID.randomUUID()))
+													 .exchange();
+		//then
+		result.expectStatus().isEqualTo(HttpStatus.NOT_ACCEPTABLE);
+	}
+
 	@Test
 	void postConversations_shouldCreateGroupConversation() {
 		//given
@@ -243,4 +559,43 @@ class ConversationsRequestHandlerTest {
 														  .containsExactlyInAnyOrder(groupMember1, groupMember2, groupMember3, groupMember4))
 					.verifyComplete();
 	}
+
+	@Test
+	void getFaceToFaceConversation_shouldReturnConversationOfUsers() {
+		//given
+		UUID user1 = UUID.randomUUID();
+		UUID user2 = UUID.randomUUID();
+		UUID conversationId = Conversation.faceToFaceId(user1, user2);
+		$.givenConversationWithId(conversationId).betweenUsers(user1, user2).exists();
+
+		//when
+		WebTestClient.ResponseSpec result = webClient.get()
+													 .uri(uriBuilder -> uriBuilder.path(FACE_TO_FACE_CONVERSATION_URL)
+																				  .queryParam("user1", user2)
+																				  .queryParam("user2", user1)
+																				  .build())
+													 .exchange();
+		//then
+		Conversation found = result.expectStatus().isOk()
+								   .returnResult(Conversation.class)
+								   .getResponseBody()
+								   .blockFirst();
+
+		assertThat(found).isNotNull();
+		assertThat(found.getConversationId()).isEqualTo(conversationId);
+		assertThat(found.getInterlocutors()).containsExactlyInAnyOrder(user1, user2);
+	}
+
+	@Test
+	void getFaceToFaceConversation_shouldReturnNotFoundWhenUsersHaveNoConversation() {
+		//when
+		WebTestClient.ResponseSpec result = webClient.get()
+													 .uri(uriBuilder -> uriBuilder.path(FACE_TO_FACE_CONVERSATION_URL)
+																				  .queryParam("user1", UUID.randomUUID())
+																				  .queryParam("user2", UUID.randomUUID())
+																				  .build())
+													 .exchange();
+		//then
+		result.expectStatus().isNotFound();
+	}
 }
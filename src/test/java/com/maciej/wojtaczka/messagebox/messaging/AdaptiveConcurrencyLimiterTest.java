@@ -0,0 +1,81 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimiterTest {
+
+	@Test
+	void shouldHoldProcessingOverLimitUntilPermitIsReleased() {
+		//given
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, Duration.ofSeconds(1), 0.5);
+		List<Boolean> saturation = new CopyOnWriteArrayList<>();
+		limiter.saturation().subscribe(saturation::add);
+		Sinks.Empty<Void> first = Sinks.empty();
+		AtomicInteger started = new AtomicInteger();
+
+		//when
+		limiter.run(() -> {
+			started.incrementAndGet();
+			return first.asMono();
+		}).subscribe();
+		limiter.run(() -> {
+			started.incrementAndGet();
+			return Mono.empty();
+		}).subscribe();
+
+		//then
+		assertThat(started).hasValue(1);
+		assertThat(limiter.getInFlight()).isEqualTo(1);
+		assertThat(saturation).containsExactly(true);
+
+		//when
+		first.tryEmitEmpty();
+
+		//then
+		assertThat(started).hasValue(2);
+		assertThat(limiter.getInFlight()).isZero();
+		assertThat(saturation).containsExactly(true, false);
+	}
+
+	@Test
+	void shouldLowerLimitOnFailureAndRaiseItOnSuccess() {
+		//given
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 20, Duration.ofSeconds(1), 0.5);
+
+		//when
+		limiter.run(() -> Mono.error(new IllegalStateException("Timeout"))).onErrorResume(e -> Mono.empty()).block();
+
+		//then
+		assertThat(limiter.getLimit()).isEqualTo(5);
+
+		//when
+		limiter.run(Mono::empty).block();
+
+		//then
+		//a single processing in flight does not use half of the permits, the limit stays
+		assertThat(limiter.getLimit()).isEqualTo(5);
+	}
+
+	@Test
+	void shouldRaiseLimitOnSuccessUnderLoad() {
+		//given
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 20, Duration.ofSeconds(1), 0.5);
+		Sinks.Empty<Void> other = Sinks.empty();
+		limiter.run(other::asMono).subscribe();
+
+		//when
+		limiter.run(Mono::empty).block();
+
+		//then
+		assertThat(limiter.getLimit()).isEqualTo(3);
+	}
+}
@@ -0,0 +1,107 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FailedRecordPublisherTest {
+
+	private static final String SOURCE_TOPIC = "source";
+	private static final byte[] PAYLOAD = "payload".getBytes(StandardCharsets.UTF_8);
+
+	private final FailedRecordPublisher publisher = new FailedRecordPublisher(null, List.of(Duration.ofSeconds(1), Duration.ofSeconds(10)));
+
+	@Test
+	void shouldMoveFailedRecordThroughRetryTopicsToDeadLetterTopic() {
+		//given
+		ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(SOURCE_TOPIC, 3, 42L, "key", PAYLOAD);
+		IllegalStateException failure = new IllegalStateException("Timeout");
+
+		//when
+		ProducerRecord<String, byte[]> firstRetry = publisher.failedRecord(record, failure);
+		ProducerRecord<String, byte[]> secondRetry = publisher.failedRecord(received(firstRetry), failure);
+		ProducerRecord<String, byte[]> deadLetter = publisher.failedRecord(received(secondRetry), failure);
+
+		//then
+		assertThat(firstRetry.topic()).isEqualTo("source-retry-1");
+		assertThat(secondRetry.topic()).isEqualTo("source-retry-2");
+		assertThat(deadLetter.topic()).isEqualTo("source-dlt");
+		assertThat(List.of(firstRetry, secondRetry, deadLetter)).allSatisfy(failed -> {
+			assertThat(failed.key()).isEqualTo("key");
+			assertThat(failed.value()).isEqualTo(PAYLOAD);
+			assertThat(header(failed, FailedRecordPublisher.ORIGINAL_TOPIC_HEADER)).isEqualTo(SOURCE_TOPIC);
+			assertThat(header(failed, FailedRecordPublisher.ORIGINAL_PARTITION_HEADER)).isEqualTo("3");
+			assertThat(header(failed, FailedRecordPublisher.ORIGINAL_OFFSET_HEADER)).isEqualTo("42");
+			assertThat(header(failed, FailedRecordPublisher.EXCEPTION_CLASS_HEADER)).isEqualTo(IllegalStateException.class.getName());
+			assertThat(header(failed, FailedRecordPublisher.EXCEPTION_MESSAGE_HEADER)).isEqualTo("Timeout");
+		});
+		assertThat(header(deadLetter, FailedRecordPublisher.ATTEMPT_HEADER)).isEqualTo("3");
+		assertThat(deadLetter.headers().lastHeader(FailedRecordPublisher.NOT_BEFORE_HEADER)).isNull();
+	}
+
+	@Test
+	void shouldDelayRetryUntilItsTime() {
+		//given
+		ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(SOURCE_TOPIC, 0, 0L, "key", PAYLOAD);
+
+		//when
+		ConsumerRecord<String, byte[]> retry = received(publisher.failedRecord(record, new IllegalStateException()));
+
+		//then
+		assertThat(FailedRecordPublisher.delayOf(record)).isZero();
+		assertThat(FailedRecordPublisher.delayOf(retry)).isPositive().isLessThanOrEqualTo(Duration.ofSeconds(1));
+	}
+
+	@Test
+	void shouldKeepHeadersOfFailedRecord() {
+		//given
+		ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(SOURCE_TOPIC, 0, 0L, "key", PAYLOAD);
+		WireFormat.BINARY.writeTo(record.headers());
+
+		//when
+		ProducerRecord<String, byte[]> retry = publisher.failedRecord(record, new IllegalStateException());
+		ProducerRecord<String, byte[]> secondRetry = publisher.failedRecord(received(retry), new IllegalStateException());
+
+		//then
+		assertThat(WireFormat.readFrom(retry.headers())).isEqualTo(WireFormat.BINARY);
+		assertThat(WireFormat.readFrom(secondRetry.headers())).isEqualTo(WireFormat.BINARY);
+		assertThat(secondRetry.headers().headers(FailedRecordPublisher.ATTEMPT_HEADER)).hasSize(1);
+		assertThat(FailedRecordPublisher.withoutFailureHeaders(secondRetry.headers()).toArray())
+				.extracting(Header::key)
+				.containsExactly(WireFormat.CONTENT_TYPE_HEADER);
+	}
+
+	@Test
+	void shouldMoveRecordStraightToDeadLetterTopic() {
+		//given
+		ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(SOURCE_TOPIC, 3, 42L, "key", PAYLOAD);
+
+		//when
+		ProducerRecord<String, byte[]> deadLetter = publisher.failedRecord(record, new IllegalArgumentException("Not JSON"), true);
+
+		//then
+		assertThat(deadLetter.topic()).isEqualTo("source-dlt");
+		assertThat(deadLetter.value()).isEqualTo(PAYLOAD);
+		assertThat(header(deadLetter, FailedRecordPublisher.ATTEMPT_HEADER)).isEqualTo("1");
+		assertThat(header(deadLetter, FailedRecordPublisher.EXCEPTION_MESSAGE_HEADER)).isEqualTo("Not JSON");
+	}
+
+	private ConsumerRecord<String, byte[]> received(ProducerRecord<String, byte[]> sent) {
+		ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(sent.topic(), 0, 0L, sent.key(), sent.value());
+		for (Header header : sent.headers()) {
+			record.headers().add(header);
+		}
+		return record;
+	}
+
+	private String header(ProducerRecord<String, byte[]> record, String key) {
+		return new String(record.headers().lastHeader(key).value(), StandardCharsets.UTF_8);
+	}
+}
@@ -4,12 +4,14 @@ import com.datastax.oss.driver.api.core.CqlSession;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.maciej.wojtaczka.messagebox.domain.ConversationStorage;
 import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
 import com.maciej.wojtaczka.messagebox.domain.model.Message;
 import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
 import com.maciej.wojtaczka.messagebox.domain.model.UserConnection;
 import com.maciej.wojtaczka.messagebox.utils.ConversationFixture;
 import com.maciej.wojtaczka.messagebox.utils.KafkaTestListener;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.assertj.core.api.Assertions;
 import org.cassandraunit.CQLDataLoader;
 import org.cassandraunit.dataset.cql.ClassPathCQLDataSet;
@@ -27,6 +29,8 @@ import reactor.core.publisher.Flux;
 import reactor.test.StepVerifier;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
@@ -56,6 +60,9 @@ class ListenersTest {
 	@Autowired
 	private ConversationFixture $;
 
+	@Autowired
+	private ConversationStorage conversationStorage;
+
 	@BeforeAll
 	static void startCassandra() throws IOException, InterruptedException {
 		EmbeddedCassandraServerHelper.startEmbeddedCassandra();
@@ -121,6 +128,70 @@ class ListenersTest {
 					.verifyComplete();
 	}
 
+	@Test
+	void shouldAcceptRetriedMessageAtTimeOfItsFirstAttempt() throws JsonProcessingException, ExecutionException, InterruptedException {
+		//given
+		UUID conversationId = UUID.randomUUID();
+		UUID msgAuthorId = UUID.randomUUID();
+		UUID msgReceiver = UUID.randomUUID();
+		$.givenConversationWithId(conversationId).betweenUsers(msgAuthorId, msgReceiver).exists();
+
+		Message inboundMsg = Message.builder()
+									.authorId(msgAuthorId)
+									.content("Retried")
+									.conversationId(conversationId)
+									.build();
+		Instant firstAttempt = Instant.parse("2022-01-01T10:00:00.123Z");
+		ProducerRecord<String, String> retry = new ProducerRecord<>(MessagingConfiguration.MESSAGE_RECEIVED_TOPIC,
+																	objectMapper.writeValueAsString(inboundMsg));
+		retry.headers().add(MessageAcceptance.ACCEPTED_TIME_HEADER,
+							String.valueOf(firstAttempt.toEpochMilli()).getBytes(StandardCharsets.UTF_8));
+
+		//when
+		kafkaTestMessageTemplate.send(retry).get();
+
+		//then
+		StepVerifier.create($.cassandraConversationStorage.fetchConversationMessages(conversationId)
+														  .collectList()
+														  .filter(messages -> !messages.isEmpty())
+														  .repeatWhenEmpty(repeats -> repeats.delayElements(Duration.ofMillis(50)).take(40)))
+					.assertNext(messages -> assertThat(messages).extracting(Message::getTime).containsExactly(firstAttempt))
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldMoveUndecodableMessageToDeadLetterTopicAndGoOn() throws JsonProcessingException, ExecutionException, InterruptedException {
+		//given
+		kafkaTestListener.listenToTopic(FailedRecordPublisher.deadLetterTopic(MessagingConfiguration.MESSAGE_RECEIVED_TOPIC), 1);
+
+		UUID conversationId = UUID.randomUUID();
+		UUID msgAuthorId = UUID.randomUUID();
+		UUID msgReceiver = UUID.randomUUID();
+		$.givenConversationWithId(conversationId).betweenUsers(msgAuthorId, msgReceiver).exists();
+
+		Message inboundMsg = Message.builder()
+									.authorId(msgAuthorId)
+									.content("After the poison pill")
+									.conversationId(conversationId)
+									.build();
+
+		//when
+		kafkaTestMessageTemplate.send(MessagingConfiguration.MESSAGE_RECEIVED_TOPIC, "{not a message").get();
+		kafkaTestMessageTemplate.send(MessagingConfiguration.MESSAGE_RECEIVED_TOPIC, objectMapper.writeValueAsString(inboundMsg)).get();
+
+		//then
+		String deadLetter = kafkaTestListener.receiveContentFromTopic(
+				FailedRecordPublisher.deadLetterTopic(MessagingConfiguration.MESSAGE_RECEIVED_TOPIC)).orElseThrow();
+		assertThat(deadLetter).isEqualTo("{not a message");
+
+		StepVerifier.create($.cassandraConversationStorage.fetchConversationMessages(conversationId)
+														  .collectList()
+														  .filter(messages -> !messages.isEmpty())
+														  .repeatWhenEmpty(repeats -> repeats.delayElements(Duration.ofMillis(50)).take(40)))
+					.assertNext(messages -> assertThat(messages).extracting(Message::getContent).containsExactly("After the poison pill"))
+					.verifyComplete();
+	}
+
 	@Test
 	void shouldCreateNewFaceToFaceConversation() throws ExecutionException, InterruptedException, JsonProcessingException {
 		//given
@@ -203,4 +274,67 @@ class ListenersTest {
 					.verifyComplete();
 	}
 
+	@Test
+	void shouldInvalidateCachedUnreadCountOfMessageReceiver() throws JsonProcessingException, ExecutionException, InterruptedException {
+		//given
+		kafkaTestListener.listenToTopic(KafkaPostMan.MESSAGE_ACCEPTED_TOPIC, 1);
+
+		UUID conversationId = UUID.randomUUID();
+		UUID msgAuthorId = UUID.randomUUID();
+		UUID msgReceiver = UUID.randomUUID();
+
+		$.givenConversationWithId(conversationId).betweenUsers(msgAuthorId, msgReceiver).exists();
+		StepVerifier.create(conversationStorage.getUnreadConversationsCount(msgReceiver))
+					.expectNext(0L)
+					.verifyComplete();
+
+		Message inboundMsg = Message.builder()
+									.authorId(msgAuthorId)
+									.content("Hello!")
+									.conversationId(conversationId)
+									.build();
+
+		//when
+		kafkaTestMessageTemplate.send(MessagingConfiguration.MESSAGE_RECEIVED_TOPIC, objectMapper.writeValueAsString(inboundMsg)).get();
+
+		//then
+		kafkaTestListener.receiveContentFromTopic(KafkaPostMan.MESSAGE_ACCEPTED_TOPIC).orElseThrow();
+
+		StepVerifier.create(conversationStorage.getUnreadConversationsCount(msgReceiver)
+											   .filter(count -> count == 1L)
+											   .repeatWhenEmpty(repeats -> repeats.delayElements(Duration.ofMillis(50)).take(40)))
+					.expectNext(1L)
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldInvalidateCachedUnreadCountChangedByAnotherInstance() throws JsonProcessingException, ExecutionException, InterruptedException {
+		//given
+		UUID msgAuthorId = UUID.randomUUID();
+		UUID msgReceiver = UUID.randomUUID();
+
+		StepVerifier.create(conversationStorage.getUnreadConversationsCount(msgReceiver))
+					.expectNext(0L)
+					.verifyComplete();
+
+		//stored behind the cache, as another instance would
+		$.givenConversation().betweenUsers(msgAuthorId, msgReceiver)
+		 .withMessage().writtenBy(msgAuthorId).atTime(Instant.parse("2007-12-03T10:15:30.00Z"))
+		 .andTheConversation().exists();
+
+		assertThat(kafkaTestListener.awaitAssignment("-unread-count-", KafkaUnreadCountInvalidations.UNREAD_COUNT_INVALIDATED_TOPIC,
+													  Duration.ofSeconds(10))).isTrue();
+
+		//when
+		kafkaTestMessageTemplate.send(KafkaUnreadCountInvalidations.UNREAD_COUNT_INVALIDATED_TOPIC,
+									  objectMapper.writeValueAsString(List.of(msgReceiver))).get();
+
+		//then
+		StepVerifier.create(conversationStorage.getUnreadConversationsCount(msgReceiver)
+											   .filter(count -> count == 1L)
+											   .repeatWhenEmpty(repeats -> repeats.delayElements(Duration.ofMillis(50)).take(40)))
+					.expectNext(1L)
+					.verifyComplete();
+	}
+
 }
@@ -0,0 +1,65 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RecipientFanOutTest {
+
+	private static final String TOPIC = "topic";
+	private static final int PARTITIONS = 4;
+
+	@Test
+	void shouldSplitSmallGroupIntoRecordPerRecipient() {
+		//given
+		UUID first = UUID.randomUUID();
+		UUID second = UUID.randomUUID();
+		Envelope<Message> envelope = Envelope.wrap(message(), List.of(first, second));
+
+		//when
+		List<ProducerRecord<String, Envelope<Message>>> records = new RecipientFanOut(TOPIC, 2).split(envelope, PARTITIONS);
+
+		//then
+		assertThat(records).extracting(ProducerRecord::key).containsExactly(first.toString(), second.toString());
+		assertThat(records).extracting(record -> record.value().getRecipients()).containsExactly(List.of(first), List.of(second));
+		assertThat(records).extracting(ProducerRecord::value).extracting(Envelope::getPayload).containsOnly(envelope.getPayload());
+		assertThat(records).extracting(ProducerRecord::topic).containsOnly(TOPIC);
+	}
+
+	@Test
+	void shouldSplitBigGroupIntoRecordPerPartition() {
+		//given
+		List<UUID> recipients = IntStream.range(0, 20)
+										 .mapToObj(i -> UUID.randomUUID())
+										 .collect(Collectors.toList());
+		Envelope<Message> envelope = Envelope.wrap(message(), recipients);
+
+		//when
+		List<ProducerRecord<String, Envelope<Message>>> records = new RecipientFanOut(TOPIC, 2).split(envelope, PARTITIONS);
+
+		//then
+		assertThat(records).hasSizeLessThanOrEqualTo(PARTITIONS);
+		assertThat(records).extracting(ProducerRecord::partition).doesNotHaveDuplicates();
+		assertThat(records).flatExtracting(record -> record.value().getRecipients()).containsExactlyInAnyOrderElementsOf(recipients);
+		records.forEach(record -> assertThat(record.value().getRecipients())
+				.allSatisfy(recipient -> assertThat(RecipientFanOut.partitionOf(recipient, PARTITIONS)).isEqualTo(record.partition())));
+	}
+
+	private Message message() {
+		return Message.builder()
+					  .conversationId(UUID.randomUUID())
+					  .authorId(UUID.randomUUID())
+					  .time(Instant.parse("2007-12-03T10:15:30.00Z"))
+					  .content("Hello")
+					  .build();
+	}
+}
@@ -0,0 +1,105 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.kafka.receiver.ReceiverOffset;
+import reactor.kafka.receiver.ReceiverRecord;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RecordAcknowledgementTest {
+
+	private static final String SOURCE_TOPIC = "source";
+
+	private final AtomicInteger acknowledged = new AtomicInteger();
+
+	@Test
+	void shouldAcknowledgeFailedRecordOnlyOnceForwarded() {
+		//given
+		ReceivedRecord<String> record = ReceivedRecord.decode(receiverRecord(), new StringDeserializer());
+		FailingForwarding failedRecords = new FailingForwarding(2);
+
+		//when
+		StepVerifier.create(RecordAcknowledgement.acknowledgeWhenProcessed(record, failingProcessing(), failedRecords))
+					.verifyComplete();
+
+		//then
+		assertThat(failedRecords.attempts).hasValue(3);
+		assertThat(acknowledged).hasValue(1);
+	}
+
+	@Test
+	void shouldNotAcknowledgeFailedRecordWhichCannotBeForwarded() {
+		//given
+		ReceivedRecord<String> record = ReceivedRecord.decode(receiverRecord(), new StringDeserializer());
+		FailingForwarding failedRecords = new FailingForwarding(Integer.MAX_VALUE);
+
+		//when
+		StepVerifier.create(RecordAcknowledgement.acknowledgeWhenProcessed(record, failingProcessing(), failedRecords))
+					.expectSubscription()
+					.expectNoEvent(Duration.ofSeconds(1))
+					.thenCancel()
+					.verify();
+
+		//then
+		assertThat(failedRecords.attempts.get()).isGreaterThan(1);
+		assertThat(acknowledged).hasValue(0);
+	}
+
+	private static Function<ReceivedRecord<String>, Mono<Void>> failingProcessing() {
+		return record -> Mono.error(new IllegalStateException("Timeout"));
+	}
+
+	private ReceiverRecord<String, byte[]> receiverRecord() {
+		ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(SOURCE_TOPIC, 0, 42L, "key", "payload".getBytes(StandardCharsets.UTF_8));
+		return new ReceiverRecord<>(record, new ReceiverOffset() {
+			@Override
+			public TopicPartition topicPartition() {
+				return new TopicPartition(SOURCE_TOPIC, 0);
+			}
+
+			@Override
+			public long offset() {
+				return 42L;
+			}
+
+			@Override
+			public void acknowledge() {
+				acknowledged.incrementAndGet();
+			}
+
+			@Override
+			public Mono<Void> commit() {
+				return Mono.empty();
+			}
+		});
+	}
+
+	private static class FailingForwarding extends FailedRecordPublisher {
+
+		private final int failures;
+		private final AtomicInteger attempts = new AtomicInteger();
+
+		FailingForwarding(int failures) {
+			super(null, List.of(Duration.ofSeconds(1)));
+			this.failures = failures;
+		}
+
+		@Override
+		Mono<Void> forward(ConsumerRecord<String, byte[]> record, Throwable failure) {
+			return Mono.defer(() -> attempts.incrementAndGet() <= failures
+					? Mono.error(new IllegalStateException("Broker not available"))
+					: Mono.empty());
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status.SEEN;
+
+/**
+ * Serialization throughput of a message-accepted envelope in JSON and in the binary format.
+ * Record sizes of both formats are compared in {@link WireFormatTest}.
+ * <pre>
+ * java -cp target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *   org.openjdk.jmh.Main WireFormatBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+	private static final String TOPIC = WireFormatBenchmark.class.getSimpleName();
+
+	@Param({"1", "50"})
+	private int recipients;
+
+	private Envelope<Message> envelope;
+	private WireFormatSerializer<Envelope<Message>> jsonSerializer;
+	private WireFormatSerializer<Envelope<Message>> binarySerializer;
+	private WireFormatDeserializer<Envelope<Message>> deserializer;
+	private byte[] json;
+	private byte[] binary;
+	private RecordHeaders jsonHeaders;
+	private RecordHeaders binaryHeaders;
+
+	@Setup
+	public void setUp() {
+		UUID author = UUID.randomUUID();
+		List<UUID> recipientIds = new ArrayList<>();
+		for (int i = 0; i < recipients; i++) {
+			recipientIds.add(UUID.randomUUID());
+		}
+		envelope = Envelope.wrap(Message.builder()
+										.conversationId(UUID.randomUUID())
+										.authorId(author)
+										.time(Instant.now())
+										.content("Hello, how are you doing today?")
+										.statusByInterlocutor(Map.of(author, SEEN))
+										.build(),
+								 recipientIds);
+
+		BinaryCodec<Envelope<Message>> codec = BinaryCodec.envelope(BinaryCodec.MESSAGE);
+		jsonSerializer = new WireFormatSerializer<>(WireFormat.JSON, new JsonSerializer<>(), codec);
+		binarySerializer = new WireFormatSerializer<>(WireFormat.BINARY, new JsonSerializer<>(), codec);
+		deserializer = new WireFormatDeserializer<>(new JsonDeserializer<>(new TypeReference<Envelope<Message>>() {}, false), codec);
+
+		jsonHeaders = new RecordHeaders();
+		binaryHeaders = new RecordHeaders();
+		json = jsonSerializer.serialize(TOPIC, jsonHeaders, envelope);
+		binary = binarySerializer.serialize(TOPIC, binaryHeaders, envelope);
+	}
+
+	@Benchmark
+	public byte[] serializeJson() {
+		return jsonSerializer.serialize(TOPIC, new RecordHeaders(), envelope);
+	}
+
+	@Benchmark
+	public byte[] serializeBinary() {
+		return binarySerializer.serialize(TOPIC, new RecordHeaders(), envelope);
+	}
+
+	@Benchmark
+	public Envelope<Message> deserializeJson() {
+		return deserializer.deserialize(TOPIC, jsonHeaders, json);
+	}
+
+	@Benchmark
+	public Envelope<Message> deserializeBinary() {
+		return deserializer.deserialize(TOPIC, binaryHeaders, binary);
+	}
+}
@@ -0,0 +1,144 @@
+package com.maciej.wojtaczka.messagebox.messaging;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
+import com.maciej.wojtaczka.messagebox.domain.model.UserConnection;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status.DELIVERED;
+import static com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status.SEEN;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WireFormatTest {
+
+	private static final String TOPIC = "topic";
+
+	@Test
+	void shouldDecodeEncodedEvents() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID recipient = UUID.randomUUID();
+		Message message = Message.builder()
+								 .conversationId(UUID.randomUUID())
+								 .authorId(author)
+								 .time(Instant.parse("2007-12-03T10:15:30.123456Z"))
+								 .content("Zażółć gęślą jaźń")
+								 .statusByInterlocutor(Map.of(author, SEEN, recipient, DELIVERED))
+								 .build();
+		MessageStatusUpdated status = MessageStatusUpdated.builder()
+														  .conversationId(UUID.randomUUID())
+														  .authorId(author)
+														  .time(Instant.parse("2007-12-03T10:15:30.00Z"))
+														  .updatedBy(recipient)
+														  .status(SEEN)
+														  .build();
+		UserConnection connection = UserConnection.builder()
+												  .user1(author)
+												  .user2(recipient)
+												  .build();
+
+		//when
+		//then
+		BinaryCodec<Envelope<Message>> messageCodec = BinaryCodec.envelope(BinaryCodec.MESSAGE);
+		Envelope<Message> messageEnvelope = Envelope.wrap(message, Set.of(recipient));
+		assertThat(messageCodec.decode(messageCodec.encode(messageEnvelope))).isEqualTo(messageEnvelope);
+		assertThat(BinaryCodec.MESSAGE_STATUS.decode(BinaryCodec.MESSAGE_STATUS.encode(status))).isEqualTo(status);
+		assertThat(BinaryCodec.USER_CONNECTION.decode(BinaryCodec.USER_CONNECTION.encode(connection))).isEqualTo(connection);
+	}
+
+	@Test
+	void shouldReadJsonAndBinaryRecordsFromTheSameTopic() {
+		//given
+		Envelope<Message> envelope = Envelope.wrap(Message.builder()
+														  .conversationId(UUID.randomUUID())
+														  .authorId(UUID.randomUUID())
+														  .time(Instant.parse("2007-12-03T10:15:30.00Z"))
+														  .content("Hello!")
+														  .statusByInterlocutor(Map.of())
+														  .build(),
+												   List.of(UUID.randomUUID(), UUID.randomUUID()));
+		BinaryCodec<Envelope<Message>> codec = BinaryCodec.envelope(BinaryCodec.MESSAGE);
+		var jsonSerializer = new WireFormatSerializer<>(WireFormat.JSON, new JsonSerializer<>(), codec);
+		var binarySerializer = new WireFormatSerializer<>(WireFormat.BINARY, new JsonSerializer<>(), codec);
+		var deserializer = new WireFormatDeserializer<>(new JsonDeserializer<>(new TypeReference<Envelope<Message>>() {}, false), codec);
+
+		RecordHeaders jsonHeaders = new RecordHeaders();
+		RecordHeaders binaryHeaders = new RecordHeaders();
+
+		//when
+		byte[] json = jsonSerializer.serialize(TOPIC, jsonHeaders, envelope);
+		byte[] binary = binarySerializer.serialize(TOPIC, binaryHeaders, envelope);
+
+		//then
+		assertThat(deserializer.deserialize(TOPIC, jsonHeaders, json)).isEqualTo(envelope);
+		assertThat(deserializer.deserialize(TOPIC, binaryHeaders, binary)).isEqualTo(envelope);
+		assertThat(deserializer.deserialize(TOPIC, new RecordHeaders(), json)).isEqualTo(envelope);
+		assertThat(binary.length).isLessThan(json.length);
+	}
+
+	@Test
+	void shouldWriteJsonWhenRecordHasNoHeaders() {
+		//given
+		Envelope<Message> envelope = Envelope.wrap(Message.builder()
+														  .conversationId(UUID.randomUUID())
+														  .authorId(UUID.randomUUID())
+														  .time(Instant.parse("2007-12-03T10:15:30.00Z"))
+														  .content("Hello!")
+														  .statusByInterlocutor(Map.of())
+														  .build(),
+												   List.of(UUID.randomUUID()));
+		BinaryCodec<Envelope<Message>> codec = BinaryCodec.envelope(BinaryCodec.MESSAGE);
+		var binarySerializer = new WireFormatSerializer<>(WireFormat.BINARY, new JsonSerializer<>(), codec);
+		var deserializer = new WireFormatDeserializer<>(new JsonDeserializer<>(new TypeReference<Envelope<Message>>() {}, false), codec);
+
+		//when
+		byte[] written = binarySerializer.serialize(TOPIC, envelope);
+
+		//then
+		assertThat(deserializer.deserialize(TOPIC, written)).isEqualTo(envelope);
+		assertThat(deserializer.deserialize(TOPIC, new RecordHeaders(), written)).isEqualTo(envelope);
+	}
+
+	@Test
+	void shouldWriteBinaryRecordsSmallerThanJsonWhateverTheNumberOfRecipients() {
+		//given
+		BinaryCodec<Envelope<Message>> codec = BinaryCodec.envelope(BinaryCodec.MESSAGE);
+		var jsonSerializer = new WireFormatSerializer<>(WireFormat.JSON, new JsonSerializer<>(), codec);
+		var binarySerializer = new WireFormatSerializer<>(WireFormat.BINARY, new JsonSerializer<>(), codec);
+
+		for (int recipients : new int[]{1, 50}) {
+			List<UUID> recipientIds = new ArrayList<>();
+			for (int i = 0; i < recipients; i++) {
+				recipientIds.add(UUID.randomUUID());
+			}
+			UUID author = UUID.randomUUID();
+			Envelope<Message> envelope = Envelope.wrap(Message.builder()
+															  .conversationId(UUID.randomUUID())
+															  .authorId(author)
+															  .time(Instant.now())
+															  .content("Hello, how are you doing today?")
+															  .statusByInterlocutor(Map.of(author, SEEN))
+															  .build(),
+													   recipientIds);
+
+			//when
+			byte[] json = jsonSerializer.serialize(TOPIC, new RecordHeaders(), envelope);
+			byte[] binary = binarySerializer.serialize(TOPIC, new RecordHeaders(), envelope);
+
+			//then
+			assertThat(binary.length).as("binary record of %d recipients", recipients).isLessThan(json.length);
+		}
+	}
+}
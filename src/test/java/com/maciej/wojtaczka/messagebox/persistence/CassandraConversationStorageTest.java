@@ -0,0 +1,646 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.SimpleStatement;
+import com.datastax.oss.driver.api.querybuilder.QueryBuilder;
+import com.maciej.wojtaczka.messagebox.domain.InvalidCursorException;
+import com.maciej.wojtaczka.messagebox.domain.model.Conversation;
+import com.maciej.wojtaczka.messagebox.domain.model.Envelope;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated;
+import com.maciej.wojtaczka.messagebox.domain.model.Page;
+import com.maciej.wojtaczka.messagebox.domain.model.PageRequest;
+import com.maciej.wojtaczka.messagebox.domain.model.UserConnection;
+import com.maciej.wojtaczka.messagebox.utils.ConversationFixture;
+import org.cassandraunit.CQLDataLoader;
+import org.cassandraunit.dataset.cql.ClassPathCQLDataSet;
+import org.cassandraunit.utils.EmbeddedCassandraServerHelper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.cassandra.core.ReactiveCassandraOperations;
+import org.springframework.test.annotation.DirtiesContext;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static com.datastax.oss.driver.api.querybuilder.QueryBuilder.bindMarker;
+import static com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status.DELIVERED;
+import static com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status.SEEN;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+		"message-box.cassandra.unread-counters.reconciliation-enabled=true",
+		"message-box.cassandra.outbox-settle-delay=PT0S",
+		"message-box.cassandra.outbox-max-clock-skew=PT0S"
+})
+@DirtiesContext
+class CassandraConversationStorageTest {
+
+	@Autowired
+	private PreparedStatementRegistry preparedStatements;
+
+	@Autowired
+	private ReactiveCassandraOperations cassandraOperations;
+
+	@Autowired
+	private PartitionAwareWriter writer;
+
+	@Autowired
+	private CassandraMessageOutbox outbox;
+
+	@Autowired
+	private UnreadCountersReconciliation unreadCountersReconciliation;
+
+	@Autowired
+	private ConversationFixture $;
+
+	@BeforeAll
+	static void startCassandra() throws IOException, InterruptedException {
+		EmbeddedCassandraServerHelper.startEmbeddedCassandra();
+		CqlSession session = EmbeddedCassandraServerHelper.getSession();
+		new CQLDataLoader(session).load(new ClassPathCQLDataSet("schema.cql"));
+	}
+
+	@AfterAll
+	static void cleanCassandra() {
+		EmbeddedCassandraServerHelper.cleanEmbeddedCassandra();
+	}
+
+	@Test
+	void shouldPrepareQueryOnlyOnce() {
+		//given
+		UUID conversationId = UUID.randomUUID();
+		$.givenConversationWithId(conversationId).betweenUsers(UUID.randomUUID(), UUID.randomUUID()).exists();
+		$.cassandraConversationStorage.getConversation(conversationId).block();
+
+		long prepareCount = preparedStatements.getPrepareCount();
+		long hitCount = preparedStatements.getHitCount();
+
+		//when
+		StepVerifier.create($.cassandraConversationStorage.getConversation(conversationId))
+					.assertNext(conversation -> assertThat(conversation.getConversationId()).isEqualTo(conversationId))
+					.verifyComplete();
+		StepVerifier.create($.cassandraConversationStorage.getConversation(conversationId))
+					.assertNext(conversation -> assertThat(conversation.getConversationId()).isEqualTo(conversationId))
+					.verifyComplete();
+
+		//then
+		assertThat(preparedStatements.getPrepareCount()).isEqualTo(prepareCount);
+		assertThat(preparedStatements.getHitCount()).isEqualTo(hitCount + 2);
+	}
+
+	@Test
+	void shouldReturnOnlyLatestActivityOfConversation() {
+		//given
+		UUID userId = UUID.randomUUID();
+		UUID conversationId = UUID.randomUUID();
+		Instant time = Instant.parse("2007-12-03T10:15:30.00Z");
+		Conversation conversation = Conversation.builder()
+												.conversationId(conversationId)
+												.interlocutors(Set.of(userId, UUID.randomUUID()))
+												.lastActivity(time)
+												.build();
+		$.cassandraConversationStorage.insertConversation(conversation).block();
+		conversation.setLastActivity(time.plusSeconds(1));
+		$.cassandraConversationStorage.insertConversation(conversation).block();
+
+		//when
+		Page<Conversation> page = $.cassandraConversationStorage.getUserConversations(userId, PageRequest.first(10)).block();
+
+		//then
+		assertThat(page).isNotNull();
+		assertThat(page.getContent()).singleElement()
+									 .satisfies(latest -> assertThat(latest.getLastActivity()).isEqualTo(time.plusSeconds(1)));
+		StepVerifier.create($.cassandraConversationStorage.getUserConversations(userId))
+					.assertNext(latest -> assertThat(latest.getLastActivity()).isEqualTo(time.plusSeconds(1)))
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldLeaveSingleActivityOfConversationStoringConcurrentMessages() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID recipient = UUID.randomUUID();
+		Instant time = Instant.parse("2007-12-03T10:15:30.00Z");
+		Conversation conversation = Conversation.builder()
+												.conversationId(UUID.randomUUID())
+												.interlocutors(Set.of(author, recipient))
+												.lastActivity(time)
+												.build();
+		$.cassandraConversationStorage.insertConversation(conversation).block();
+		Map<UUID, Conversation> loaded = Map.of(conversation.getConversationId(), conversation);
+		Message first = message(conversation.getConversationId(), author, time.plusSeconds(1));
+		Message second = message(conversation.getConversationId(), author, time.plusSeconds(2));
+
+		//when both messages are stored expecting the activity of the conversation before either of them
+		Mono.when($.cassandraConversationStorage.storeNewMessages(List.of(Envelope.wrap(first, Set.of(recipient))), loaded),
+				  $.cassandraConversationStorage.storeNewMessages(List.of(Envelope.wrap(second, Set.of(recipient))), loaded))
+			.block();
+
+		//then
+		Page<Conversation> firstPage = $.cassandraConversationStorage.getUserConversations(recipient, PageRequest.first(1)).block();
+		assertThat(firstPage).isNotNull();
+		assertThat(firstPage.getContent()).singleElement()
+										  .satisfies(latest -> assertThat(latest.getLastActivity()).isEqualTo(second.getTime()));
+		firstPage.getNextCursor()
+				 .ifPresent(cursor -> assertThat($.cassandraConversationStorage.getUserConversations(recipient, PageRequest.of(1, cursor))
+																			  .block()
+																			  .getContent()).isEmpty());
+		StepVerifier.create($.cassandraConversationStorage.getConversation(conversation.getConversationId()))
+					.assertNext(found -> assertThat(found.getLastActivity()).isEqualTo(second.getTime()))
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldLeaveSingleActivityOfConversationStoringEarlierMessageLast() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID recipient = UUID.randomUUID();
+		Instant time = Instant.parse("2007-12-03T10:15:30.00Z");
+		Conversation conversation = Conversation.builder()
+												.conversationId(UUID.randomUUID())
+												.interlocutors(Set.of(author, recipient))
+												.lastActivity(time)
+												.build();
+		$.cassandraConversationStorage.insertConversation(conversation).block();
+		Map<UUID, Conversation> loaded = Map.of(conversation.getConversationId(), conversation);
+		Message first = message(conversation.getConversationId(), author, time.plusSeconds(1));
+		Message second = message(conversation.getConversationId(), author, time.plusSeconds(2));
+		$.cassandraConversationStorage.storeNewMessages(List.of(Envelope.wrap(second, Set.of(recipient))), loaded).block();
+
+		//when
+		$.cassandraConversationStorage.storeNewMessages(List.of(Envelope.wrap(first, Set.of(recipient))), loaded).block();
+
+		//then
+		StepVerifier.create($.cassandraConversationStorage.getUserConversations(recipient))
+					.assertNext(latest -> assertThat(latest.getLastActivity()).isEqualTo(second.getTime()))
+					.verifyComplete();
+		StepVerifier.create($.cassandraConversationStorage.getConversation(conversation.getConversationId()))
+					.assertNext(found -> assertThat(found.getLastActivity()).isEqualTo(second.getTime()))
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldKeepActivityOfConversationStoringMessageEarlierThanIt() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID recipient = UUID.randomUUID();
+		Instant time = Instant.parse("2007-12-03T10:15:30.00Z");
+		Conversation conversation = Conversation.builder()
+												.conversationId(UUID.randomUUID())
+												.interlocutors(Set.of(author, recipient))
+												.lastActivity(time)
+												.build();
+		$.cassandraConversationStorage.insertConversation(conversation).block();
+		Map<UUID, Conversation> loaded = Map.of(conversation.getConversationId(), conversation);
+		Message earlier = message(conversation.getConversationId(), author, time.minusSeconds(1));
+
+		//when
+		$.cassandraConversationStorage.storeNewMessages(List.of(Envelope.wrap(earlier, Set.of(recipient))), loaded).block();
+
+		//then
+		StepVerifier.create($.cassandraConversationStorage.getUserConversations(recipient))
+					.assertNext(found -> assertThat(found.getLastActivity()).isEqualTo(time))
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldRejectCursorOfAnotherConversation() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID conversationId = UUID.randomUUID();
+		UUID anotherConversationId = UUID.randomUUID();
+		Instant time = Instant.parse("2007-12-03T10:15:30.00Z");
+		$.givenConversationWithId(conversationId).betweenUsers(author, UUID.randomUUID())
+		 .withMessage().writtenBy(author).atTime(time)
+		 .andMessage().writtenBy(author).atTime(time.plusSeconds(1))
+		 .andTheConversation().exists();
+		$.givenConversationWithId(anotherConversationId).betweenUsers(author, UUID.randomUUID())
+		 .withMessage().writtenBy(author).atTime(time)
+		 .andMessage().writtenBy(author).atTime(time.plusSeconds(1))
+		 .andTheConversation().exists();
+		Page<Message> firstPage = $.cassandraConversationStorage.getMessages(conversationId, PageRequest.first(1)).block();
+		assertThat(firstPage).isNotNull();
+		String cursor = firstPage.getNextCursor().orElseThrow();
+
+		//when
+		//then
+		StepVerifier.create($.cassandraConversationStorage.getMessages(anotherConversationId, PageRequest.of(1, cursor)))
+					.expectError(InvalidCursorException.class)
+					.verify();
+		StepVerifier.create($.cassandraConversationStorage.getMessages(conversationId, PageRequest.of(1, "not a cursor")))
+					.expectError(InvalidCursorException.class)
+					.verify();
+		StepVerifier.create($.cassandraConversationStorage.getMessages(conversationId, PageRequest.of(1, cursor)))
+					.assertNext(page -> assertThat(page.getContent()).singleElement()
+																	 .satisfies(message -> assertThat(message.getTime()).isEqualTo(time)))
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldCountConversationAsUnreadOnlyOnce() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID recipient = UUID.randomUUID();
+		Instant time = Instant.parse("2007-12-03T10:15:30.00Z");
+		$.givenConversation().betweenUsers(author, recipient)
+		 .withMessage().writtenBy(author).atTime(time)
+		 .andMessage().writtenBy(author).atTime(time.plusSeconds(1))
+		 .andTheConversation().exists();
+
+		//when
+		//then
+		StepVerifier.create($.cassandraConversationStorage.getUnreadConversationsCount(recipient))
+					.expectNext(1L)
+					.verifyComplete();
+		StepVerifier.create($.cassandraConversationStorage.getUnreadConversationsCount(author))
+					.expectNext(0L)
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldCountConversationAsUnreadAgainAfterItWasSeen() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID recipient = UUID.randomUUID();
+		UUID conversationId = UUID.randomUUID();
+		Instant time = Instant.parse("2007-12-03T10:15:30.00Z");
+		$.givenConversationWithId(conversationId).betweenUsers(author, recipient)
+		 .withMessage().writtenBy(author).atTime(time)
+		 .andTheConversation().exists();
+		$.cassandraConversationStorage.updateMessageSeen(status(conversationId, author, time, recipient, SEEN)).block();
+
+		//when
+		$.cassandraConversationStorage.storeNewMessage(Envelope.wrap(message(conversationId, author, time.plusSeconds(1)), Set.of(recipient)))
+									  .block();
+		$.cassandraConversationStorage.storeNewMessage(Envelope.wrap(message(conversationId, author, time.plusSeconds(2)), Set.of(recipient)))
+									  .block();
+
+		//then
+		StepVerifier.create($.cassandraConversationStorage.getUnreadConversationsCount(recipient))
+					.expectNext(1L)
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldReconcileDriftedUnreadCounter() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID recipient = UUID.randomUUID();
+		UUID conversationId = UUID.randomUUID();
+		$.givenConversationWithId(conversationId).betweenUsers(author, recipient)
+		 .withMessage().writtenBy(author)
+		 .andTheConversation().exists();
+		EmbeddedCassandraServerHelper.getSession()
+									 .execute("DELETE FROM message_box.conversation_unread WHERE user_id = ? AND conversation_id = ?",
+											  recipient, conversationId);
+
+		//when
+		unreadCountersReconciliation.reconcile(recipient).block();
+
+		//then
+		StepVerifier.create($.cassandraConversationStorage.getUnreadConversationsCount(recipient))
+					.expectNext(0L)
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldLetOnlyOneHolderTakeLease() {
+		//given
+		String name = "lease-" + UUID.randomUUID();
+		Lease first = new Lease(cassandraOperations, preparedStatements, name, "first", Duration.ofMinutes(1));
+		Lease second = new Lease(cassandraOperations, preparedStatements, name, "second", Duration.ofMinutes(1));
+
+		//when
+		Boolean takenByFirst = first.acquire().block();
+		Boolean takenBySecond = second.acquire().block();
+		Boolean renewedByFirst = first.acquire().block();
+
+		//then
+		assertThat(takenByFirst).isTrue();
+		assertThat(takenBySecond).isFalse();
+		assertThat(renewedByFirst).isTrue();
+	}
+
+	@Test
+	void shouldReadBucketedMessagesNewestFirstAcrossBuckets() {
+		//given
+		CassandraConversationStorage bucketedStorage = storage(MessageLayout.BUCKETED);
+		UUID author = UUID.randomUUID();
+		UUID recipient = UUID.randomUUID();
+		UUID conversationId = UUID.randomUUID();
+		Instant time = Instant.parse("2007-12-03T10:15:30.00Z");
+		List<Instant> messageTimes = List.of(time,
+											 time.plusSeconds(60),
+											 time.plus(Duration.ofDays(1)),
+											 time.plus(Duration.ofDays(3)),
+											 time.plus(Duration.ofDays(3)).plusSeconds(60));
+		for (Instant messageTime : messageTimes) {
+			Message message = message(conversationId, author, messageTime);
+			bucketedStorage.storeNewMessage(Envelope.wrap(message, Set.of(recipient))).block();
+		}
+
+		//when
+		List<Instant> readTimes = new ArrayList<>();
+		List<Integer> pageSizes = new ArrayList<>();
+		PageRequest pageRequest = PageRequest.first(2);
+		while (pageRequest != null) {
+			Page<Message> page = bucketedStorage.getMessages(conversationId, pageRequest).block();
+			assertThat(page).isNotNull();
+			page.getContent().forEach(message -> readTimes.add(message.getTime()));
+			pageSizes.add(page.getContent().size());
+			pageRequest = page.getNextCursor().map(cursor -> PageRequest.of(2, cursor)).orElse(null);
+		}
+
+		//then
+		assertThat(readTimes).containsExactly(messageTimes.get(4),
+											  messageTimes.get(3),
+											  messageTimes.get(2),
+											  messageTimes.get(1),
+											  messageTimes.get(0));
+		assertThat(pageSizes).allSatisfy(size -> assertThat(size).isLessThanOrEqualTo(2));
+		StepVerifier.create(bucketedStorage.getMessages(conversationId).map(Message::getTime))
+					.expectNext(messageTimes.get(4), messageTimes.get(3), messageTimes.get(2), messageTimes.get(1), messageTimes.get(0))
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldMigrateLegacyMessagesToBuckets() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID recipient = UUID.randomUUID();
+		UUID conversationId = UUID.randomUUID();
+		Instant time = Instant.parse("2007-12-03T10:15:30.00Z");
+		Message legacyMessage = message(conversationId, author, time);
+		storage(MessageLayout.LEGACY).storeNewMessage(Envelope.wrap(legacyMessage, Set.of(recipient))).block();
+		Message dualWrittenMessage = message(conversationId, author, time.plus(Duration.ofDays(2)));
+		storage(MessageLayout.DUAL_WRITE).storeNewMessage(Envelope.wrap(dualWrittenMessage, Set.of(recipient))).block();
+
+		//when
+		new MessageBucketsBackfill(cassandraOperations, preparedStatements, writer, new MessageBuckets(Duration.ofDays(1)), 4)
+				.backfill()
+				.block();
+
+		//then
+		StepVerifier.create(storage(MessageLayout.BUCKETED).getMessages(conversationId))
+					.assertNext(message -> assertThat(message).isEqualTo(dualWrittenMessage))
+					.assertNext(message -> assertThat(message).isEqualTo(legacyMessage))
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldDeriveMessageStatusesFromWatermarks() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID recipient = UUID.randomUUID();
+		UUID conversationId = UUID.randomUUID();
+		Instant time = Instant.parse("2007-12-03T10:15:30.00Z");
+		$.givenConversationWithId(conversationId).betweenUsers(author, recipient)
+		 .withMessage().writtenBy(author).atTime(time)
+		 .andMessage().writtenBy(author).atTime(time.plusSeconds(1))
+		 .andMessage().writtenBy(author).atTime(time.plusSeconds(2))
+		 .andTheConversation().exists();
+
+		//when
+		$.cassandraConversationStorage.updateMessageSeen(status(conversationId, author, time.plusSeconds(1), recipient, SEEN)).block();
+		$.cassandraConversationStorage.updateMessageSeen(status(conversationId, author, time, recipient, SEEN)).block();
+		$.cassandraConversationStorage.updateMessageSeen(status(conversationId, author, time.plusSeconds(2), recipient, DELIVERED)).block();
+
+		//then
+		StepVerifier.create($.cassandraConversationStorage.getMessages(conversationId))
+					.assertNext(message -> assertThat(message.getStatusByInterlocutor())
+							.containsExactlyInAnyOrderEntriesOf(Map.of(author, SEEN, recipient, DELIVERED)))
+					.assertNext(message -> assertThat(message.getStatusByInterlocutor())
+							.containsExactlyInAnyOrderEntriesOf(Map.of(author, SEEN, recipient, SEEN)))
+					.assertNext(message -> assertThat(message.getStatusByInterlocutor())
+							.containsExactlyInAnyOrderEntriesOf(Map.of(author, SEEN, recipient, SEEN)))
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldReadStatusesOfMessagesStoredBeforeStatusCodes() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID conversationId = UUID.randomUUID();
+		Instant time = Instant.parse("2007-12-03T10:15:30.00Z");
+		EmbeddedCassandraServerHelper.getSession()
+									 .execute("INSERT INTO message_box.message (conversation_id, time, author_id, content, status_by) VALUES (?, ?, ?, ?, ?)",
+											  conversationId, time, author, "Old message", Map.of(author, "SEEN"));
+
+		//when
+		//then
+		StepVerifier.create($.cassandraConversationStorage.getMessages(conversationId))
+					.assertNext(message -> assertThat(message.getStatusByInterlocutor()).containsExactlyEntriesOf(Map.of(author, SEEN)))
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldGetConversationsInRequestedOrder() {
+		//given
+		List<UUID> conversationIds = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			UUID conversationId = UUID.randomUUID();
+			$.givenConversationWithId(conversationId).betweenUsers(UUID.randomUUID(), UUID.randomUUID()).exists();
+			conversationIds.add(conversationId);
+		}
+		UUID notExisting = UUID.randomUUID();
+		List<UUID> requested = new ArrayList<>(conversationIds);
+		requested.add(3, notExisting);
+
+		//when
+		List<Conversation> conversations = $.cassandraConversationStorage.getConversations(requested).collectList().block();
+
+		//then
+		assertThat(conversations).extracting(Conversation::getConversationId).containsExactlyElementsOf(conversationIds);
+	}
+
+	@Test
+	void shouldStoreBatchOfMessagesOfSeveralConversations() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID recipient = UUID.randomUUID();
+		UUID firstConversationId = UUID.randomUUID();
+		UUID secondConversationId = UUID.randomUUID();
+		Instant time = Instant.parse("2007-12-03T10:15:30.00Z");
+		Message first = message(firstConversationId, author, time);
+		Message second = message(firstConversationId, author, time.plusMillis(1));
+		Message third = message(secondConversationId, author, time.plusMillis(2));
+
+		//when
+		$.cassandraConversationStorage.storeNewMessages(List.of(Envelope.wrap(first, Set.of(recipient)),
+																Envelope.wrap(second, Set.of(recipient)),
+																Envelope.wrap(third, Set.of(recipient))))
+									  .block();
+
+		//then
+		StepVerifier.create($.cassandraConversationStorage.getMessages(firstConversationId))
+					.expectNext(second, first)
+					.verifyComplete();
+		StepVerifier.create($.cassandraConversationStorage.getMessages(secondConversationId))
+					.expectNext(third)
+					.verifyComplete();
+		StepVerifier.create($.cassandraConversationStorage.getUserConversations(recipient))
+					.assertNext(conversation -> assertThat(conversation.getConversationId()).isEqualTo(secondConversationId))
+					.assertNext(conversation -> assertThat(conversation.getLastActivity()).isEqualTo(second.getTime()))
+					.verifyComplete();
+		StepVerifier.create($.cassandraConversationStorage.getUnreadConversationsCount(recipient))
+					.expectNext(2L)
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldDeliverMessagesStoredToDeliverOnce() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID recipient = UUID.randomUUID();
+		UUID conversationId = UUID.randomUUID();
+		Instant time = Instant.parse("2007-12-03T10:15:30.00Z");
+		Envelope<Message> first = Envelope.wrap(message(conversationId, author, time), Set.of(recipient));
+		Envelope<Message> second = Envelope.wrap(message(conversationId, author, time.plusMillis(1)), Set.of(recipient));
+
+		//when
+		$.cassandraConversationStorage.storeNewMessagesToDeliver(List.of(first, second)).block();
+
+		//then
+		StepVerifier.create($.cassandraConversationStorage.getMessages(conversationId))
+					.expectNext(second.getPayload(), first.getPayload())
+					.verifyComplete();
+		assertThat(drainedMessagesOf(conversationId)).containsExactly(first, second);
+		assertThat(drainedMessagesOf(conversationId)).isEmpty();
+	}
+
+	@Test
+	void shouldNotOverrideConversationWhenInsertedAgain() {
+		//given
+		UUID user1 = UUID.randomUUID();
+		UUID user2 = UUID.randomUUID();
+		Instant connectionDate = Instant.parse("2007-12-03T10:15:30.00Z");
+		Conversation conversation = Conversation.createFaceToFace(UserConnection.builder()
+																				.user1(user1)
+																				.user2(user2)
+																				.connectionDate(connectionDate)
+																				.build());
+		$.cassandraConversationStorage.insertConversation(conversation).block();
+		Message message = message(conversation.getConversationId(), user1, connectionDate.plusSeconds(60));
+		$.cassandraConversationStorage.storeNewMessage(Envelope.wrap(message, Set.of(user2))).block();
+
+		//when
+		$.cassandraConversationStorage.insertConversations(List.of(conversation, conversation)).block();
+
+		//then
+		StepVerifier.create($.cassandraConversationStorage.getConversation(conversation.getConversationId()))
+					.assertNext(found -> assertThat(found.getLastActivity()).isEqualTo(message.getTime()))
+					.verifyComplete();
+		StepVerifier.create($.cassandraConversationStorage.getUserConversations(user2))
+					.assertNext(found -> assertThat(found.getLastActivity()).isEqualTo(message.getTime()))
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldWriteSeveralCounterUpdatesOfSamePartitionInOneWrite() {
+		//given
+		UUID user = UUID.randomUUID();
+		SimpleStatement increment = QueryBuilder.update("message_box", "conversation_unread_count")
+												.increment("unread")
+												.whereColumn("user_id").isEqualTo(bindMarker())
+												.build();
+		BoundStatement first = preparedStatements.bind(increment, user).block();
+		BoundStatement second = preparedStatements.bind(increment, user).block();
+
+		//when
+		StepVerifier.create(writer.write(List.of(first, second)))
+					.verifyComplete();
+
+		//then
+		StepVerifier.create($.cassandraConversationStorage.getUnreadConversationsCount(user))
+					.expectNext(2L)
+					.verifyComplete();
+	}
+
+	@Test
+	void shouldMoveFaceToFaceConversationCreatedWithRandomIdUnderDerivedId() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID recipient = UUID.randomUUID();
+		UUID legacyConversationId = UUID.randomUUID();
+		Instant time = Instant.parse("2007-12-03T10:15:30.00Z");
+		$.givenConversationWithId(legacyConversationId).betweenUsers(author, recipient)
+		 .withMessage().writtenBy(author).atTime(time)
+		 .andTheConversation().exists();
+		Conversation legacy = $.cassandraConversationStorage.getConversation(legacyConversationId).block();
+		assertThat(legacy).isNotNull();
+		FaceToFaceConversationBackfill backfill = new FaceToFaceConversationBackfill(cassandraOperations, preparedStatements, writer,
+																					 $.cassandraConversationStorage, 8);
+
+		//when
+		backfill.backfill().block();
+
+		//then
+		UUID faceToFaceId = Conversation.faceToFaceId(author, recipient);
+		StepVerifier.create($.cassandraConversationStorage.getConversation(faceToFaceId))
+					.assertNext(moved -> {
+						assertThat(moved.getInterlocutors()).containsExactlyInAnyOrder(author, recipient);
+						assertThat(moved.getLastActivity()).isEqualTo(legacy.getLastActivity());
+					})
+					.verifyComplete();
+		StepVerifier.create($.cassandraConversationStorage.getConversation(legacyConversationId))
+					.verifyComplete();
+		StepVerifier.create($.cassandraConversationStorage.getMessages(faceToFaceId))
+					.assertNext(message -> assertThat(message.getTime()).isEqualTo(time))
+					.verifyComplete();
+		StepVerifier.create($.cassandraConversationStorage.getUserConversations(recipient))
+					.assertNext(listed -> assertThat(listed.getConversationId()).isEqualTo(faceToFaceId))
+					.verifyComplete();
+		StepVerifier.create($.cassandraConversationStorage.getUnreadConversationsIndices(recipient))
+					.expectNext(faceToFaceId)
+					.verifyComplete();
+		StepVerifier.create($.cassandraConversationStorage.getUnreadConversationsCount(recipient))
+					.expectNext(1L)
+					.verifyComplete();
+	}
+
+	private List<Envelope<Message>> drainedMessagesOf(UUID conversationId) {
+		List<Envelope<Message>> drained = new ArrayList<>();
+		outbox.drain(100, batch -> Mono.fromRunnable(() -> drained.addAll(batch))).block();
+		return drained.stream()
+					  .filter(envelope -> envelope.getPayload().getConversationId().equals(conversationId))
+					  .collect(Collectors.toList());
+	}
+
+	private MessageStatusUpdated status(UUID conversationId, UUID authorId, Instant time, UUID updatedBy, MessageStatusUpdated.Status status) {
+		return MessageStatusUpdated.builder()
+								   .conversationId(conversationId)
+								   .authorId(authorId)
+								   .time(time)
+								   .updatedBy(updatedBy)
+								   .status(status)
+								   .build();
+	}
+
+	private CassandraConversationStorage storage(MessageLayout messageLayout) {
+		return new CassandraConversationStorage(cassandraOperations, preparedStatements, writer, outbox, messageLayout, Duration.ofDays(1), 4, 100);
+	}
+
+	private Message message(UUID conversationId, UUID authorId, Instant time) {
+		return Message.builder()
+					  .conversationId(conversationId)
+					  .authorId(authorId)
+					  .time(time)
+					  .content("Content at " + time)
+					  .statusByInterlocutor(Map.of(authorId, SEEN))
+					  .build();
+	}
+}
@@ -0,0 +1,63 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExpiringLruCacheTest {
+
+	private final AtomicLong nanoTime = new AtomicLong();
+
+	@Test
+	void shouldEvictLeastRecentlyUsedEntryWhenFull() {
+		//given
+		ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(2, Duration.ofMinutes(1), nanoTime::get);
+		cache.put("first", "1");
+		cache.put("second", "2");
+		cache.get("first");
+
+		//when
+		cache.put("third", "3");
+
+		//then
+		assertThat(cache.get("second")).isEmpty();
+		assertThat(cache.get("first")).contains("1");
+		assertThat(cache.get("third")).contains("3");
+		assertThat(cache.getEvictionCount()).isEqualTo(1);
+		assertThat(cache.getHitCount()).isEqualTo(3);
+		assertThat(cache.getMissCount()).isEqualTo(1);
+	}
+
+	@Test
+	void shouldExpireEntryAfterTimeToLive() {
+		//given
+		ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(2, Duration.ofMinutes(1), nanoTime::get);
+		cache.put("key", "value");
+
+		//when
+		nanoTime.addAndGet(Duration.ofMinutes(1).toNanos());
+
+		//then
+		assertThat(cache.get("key")).isEmpty();
+		assertThat(cache.size()).isZero();
+		assertThat(cache.getEvictionCount()).isEqualTo(1);
+	}
+
+	@Test
+	void shouldUpdateOnlyCachedEntry() {
+		//given
+		ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(2, Duration.ofMinutes(1), nanoTime::get);
+		cache.put("key", "value");
+
+		//when
+		cache.updateIfPresent("key", value -> value + " updated");
+		cache.updateIfPresent("absent", value -> value + " updated");
+
+		//then
+		assertThat(cache.get("key")).contains("value updated");
+		assertThat(cache.get("absent")).isEmpty();
+	}
+}
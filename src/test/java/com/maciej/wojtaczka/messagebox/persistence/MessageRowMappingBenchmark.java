@@ -0,0 +1,119 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.datastax.oss.driver.api.core.ProtocolVersion;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinition;
+import com.datastax.oss.driver.api.core.cql.Row;
+import com.datastax.oss.driver.api.core.detach.AttachmentPoint;
+import com.datastax.oss.driver.api.core.type.codec.TypeCodecs;
+import com.datastax.oss.driver.internal.core.cql.DefaultColumnDefinition;
+import com.datastax.oss.driver.internal.core.cql.DefaultColumnDefinitions;
+import com.datastax.oss.driver.internal.core.cql.DefaultRow;
+import com.datastax.oss.protocol.internal.ProtocolConstants;
+import com.datastax.oss.protocol.internal.response.result.ColumnSpec;
+import com.datastax.oss.protocol.internal.response.result.RawType;
+import com.maciej.wojtaczka.messagebox.domain.model.Message;
+import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps whole rows of the legacy message table, one stored before the status codes (statuses in status_by) and one stored with them,
+ * so the cost of the column lookups and of the fallback to the legacy column is measured along with decoding the statuses.
+ * The rows are built in memory the way the driver decodes them. Allocation per row is reported by the gc profiler:
+ * <pre>
+ * java -cp target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *   org.openjdk.jmh.Main MessageRowMappingBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageRowMappingBenchmark {
+
+	private static final ProtocolVersion PROTOCOL_VERSION = ProtocolVersion.DEFAULT;
+
+	@Param({"2", "10"})
+	private int interlocutors;
+
+	private final MessageRowMapper mapper = new MessageRowMapper();
+	private Row statusNamesRow;
+	private Row statusCodesRow;
+
+	@Setup
+	public void setUp() {
+		Map<UUID, String> statusNames = new HashMap<>();
+		Map<UUID, Byte> statusCodes = new HashMap<>();
+		for (int i = 0; i < interlocutors; i++) {
+			Status status = i == 0 ? Status.SEEN : Status.DELIVERED;
+			UUID interlocutor = UUID.randomUUID();
+			statusNames.put(interlocutor, status.name());
+			statusCodes.put(interlocutor, MessageStatusCodec.encode(status));
+		}
+		UUID conversationId = UUID.randomUUID();
+		UUID authorId = UUID.randomUUID();
+		Instant time = Instant.now();
+
+		statusNamesRow = messageRow(conversationId, authorId, time, null, statusNames);
+		statusCodesRow = messageRow(conversationId, authorId, time, statusCodes, null);
+	}
+
+	@Benchmark
+	public Message mapRowWithStatusNames() {
+		return mapper.map(statusNamesRow);
+	}
+
+	@Benchmark
+	public Message mapRowWithStatusCodes() {
+		return mapper.map(statusCodesRow);
+	}
+
+	/**
+	 * Row of the message table, a column missing in the stored row is null.
+	 */
+	private static Row messageRow(UUID conversationId, UUID authorId, Instant time, Map<UUID, Byte> statusCodes, Map<UUID, String> statusNames) {
+		RawType uuid = RawType.PRIMITIVES.get(ProtocolConstants.DataType.UUID);
+		RawType text = RawType.PRIMITIVES.get(ProtocolConstants.DataType.VARCHAR);
+		RawType tinyint = RawType.PRIMITIVES.get(ProtocolConstants.DataType.TINYINT);
+		RawType timestamp = RawType.PRIMITIVES.get(ProtocolConstants.DataType.TIMESTAMP);
+
+		List<ColumnDefinition> columns = new ArrayList<>();
+		List<ByteBuffer> values = new ArrayList<>();
+		addColumn(columns, values, "conversation_id", uuid, TypeCodecs.UUID.encode(conversationId, PROTOCOL_VERSION));
+		addColumn(columns, values, "author_id", uuid, TypeCodecs.UUID.encode(authorId, PROTOCOL_VERSION));
+		addColumn(columns, values, "time", timestamp, TypeCodecs.TIMESTAMP.encode(time, PROTOCOL_VERSION));
+		addColumn(columns, values, "content", text, TypeCodecs.TEXT.encode("Hello, how are you doing today?", PROTOCOL_VERSION));
+		addColumn(columns, values, "status_code", new RawType.RawMap(uuid, tinyint),
+				  TypeCodecs.mapOf(TypeCodecs.UUID, TypeCodecs.TINYINT).encode(statusCodes, PROTOCOL_VERSION));
+		addColumn(columns, values, "status_by", new RawType.RawMap(uuid, text),
+				  TypeCodecs.mapOf(TypeCodecs.UUID, TypeCodecs.TEXT).encode(statusNames, PROTOCOL_VERSION));
+
+		return new DefaultRow(DefaultColumnDefinitions.valueOf(columns), values, AttachmentPoint.NONE);
+	}
+
+	private static void addColumn(List<ColumnDefinition> columns, List<ByteBuffer> values, String name, RawType type, ByteBuffer value) {
+		ColumnSpec spec = new ColumnSpec("message_box", "message", name, columns.size(), type);
+		columns.add(new DefaultColumnDefinition(spec, AttachmentPoint.NONE));
+		values.add(value);
+	}
+}
@@ -0,0 +1,47 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status.DELIVERED;
+import static com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status.SEEN;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageStatusCodecTest {
+
+	@Test
+	void shouldDecodeEncodedStatuses() {
+		//given
+		Map<UUID, Status> statuses = Map.of(UUID.randomUUID(), SEEN,
+											UUID.randomUUID(), DELIVERED,
+											UUID.randomUUID(), SEEN);
+
+		//when
+		Map<UUID, Byte> codes = MessageStatusCodec.encode(statuses);
+
+		//then
+		assertThat(MessageStatusCodec.decode(codes)).isEqualTo(statuses);
+	}
+
+	@Test
+	void shouldKeepExistingStatusCodes() {
+		assertThat(MessageStatusCodec.encode(DELIVERED)).isEqualTo((byte) 1);
+		assertThat(MessageStatusCodec.encode(SEEN)).isEqualTo((byte) 2);
+	}
+
+	@Test
+	void shouldDecodeStatusNamesOfOldMessages() {
+		//given
+		UUID author = UUID.randomUUID();
+		UUID recipient = UUID.randomUUID();
+
+		//when
+		Map<UUID, Status> statuses = MessageStatusCodec.decodeNames(Map.of(author, "SEEN", recipient, "DELIVERED"));
+
+		//then
+		assertThat(statuses).containsExactlyInAnyOrderEntriesOf(Map.of(author, SEEN, recipient, DELIVERED));
+	}
+}
@@ -0,0 +1,74 @@
+package com.maciej.wojtaczka.messagebox.persistence;
+
+import com.maciej.wojtaczka.messagebox.domain.model.MessageStatusUpdated.Status;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares decoding the statuses of one message row from the status names and from the status codes.
+ * Allocation per row is reported by the gc profiler:
+ * <pre>
+ * java -cp target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *   org.openjdk.jmh.Main MessageStatusMappingBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageStatusMappingBenchmark {
+
+	@Param({"2", "10"})
+	private int interlocutors;
+
+	private Map<UUID, String> statusNames;
+	private Map<UUID, Byte> statusCodes;
+
+	@Setup
+	public void setUp() {
+		statusNames = new HashMap<>();
+		statusCodes = new HashMap<>();
+		for (int i = 0; i < interlocutors; i++) {
+			Status status = i == 0 ? Status.SEEN : Status.DELIVERED;
+			UUID interlocutor = UUID.randomUUID();
+			statusNames.put(interlocutor, status.name());
+			statusCodes.put(interlocutor, MessageStatusCodec.encode(status));
+		}
+	}
+
+	/**
+	 * The mapping used before the status codes were introduced.
+	 */
+	@Benchmark
+	public Map<UUID, Status> decodeStatusNamesWithStream() {
+		return statusNames.entrySet().stream()
+						  .collect(Collectors.toMap(Map.Entry::getKey, e -> Status.valueOf(e.getValue())));
+	}
+
+	@Benchmark
+	public Map<UUID, Status> decodeStatusNames() {
+		return MessageStatusCodec.decodeNames(statusNames);
+	}
+
+	@Benchmark
+	public Map<UUID, Status> decodeStatusCodes() {
+		return MessageStatusCodec.decode(statusCodes);
+	}
+}
@@ -3,6 +3,9 @@ package com.maciej.wojtaczka.messagebox.utils;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.SneakyThrows;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.ConsumerGroupListing;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
@@ -15,6 +18,8 @@ import org.springframework.kafka.test.utils.ContainerTestUtils;
 import org.springframework.kafka.test.utils.KafkaTestUtils;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -117,6 +122,32 @@ public class KafkaTestListener implements DisposableBean {
 		return recordsPerTopic.get(topic).isEmpty();
 	}
 
+	/**
+	 * Waits until a consumer of a group whose id contains the given part has a partition of the topic assigned,
+	 * for the consumers of the application reading from the latest offsets.
+	 */
+	@SneakyThrows
+	public boolean awaitAssignment(String groupIdPart, String topic, Duration timeout) {
+		Instant deadline = Instant.now().plus(timeout);
+		try (Admin admin = Admin.create(Map.of(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString()))) {
+			while (Instant.now().isBefore(deadline)) {
+				List<String> groupIds = admin.listConsumerGroups().all().get().stream()
+											 .map(ConsumerGroupListing::groupId)
+											 .filter(groupId -> groupId.contains(groupIdPart))
+											 .collect(toList());
+				boolean assigned = admin.describeConsumerGroups(groupIds).all().get().values().stream()
+										.flatMap(group -> group.members().stream())
+										.flatMap(member -> member.assignment().topicPartitions().stream())
+										.anyMatch(partition -> partition.topic().equals(topic));
+				if (assigned) {
+					return true;
+				}
+				Thread.sleep(50);
+			}
+			return false;
+		}
+	}
+
 	@Override
 	public void destroy() {
 		containers.forEach(KafkaMessageListenerContainer::stop);